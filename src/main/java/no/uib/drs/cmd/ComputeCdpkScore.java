@@ -4,14 +4,20 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.stream.IntStream;
 import no.uib.drs.DiabetesRiskScore;
-import static no.uib.drs.io.Utils.getVcfIndexFile;
 import static no.uib.drs.io.Utils.lineSeparator;
+import static no.uib.drs.io.Utils.readLines;
 import no.uib.drs.io.flat.SimpleFileWriter;
-import no.uib.drs.io.vcf.GenotypeProvider;
+import no.uib.drs.io.plink.PlinkFileset;
 import no.uib.drs.io.vcf.VariantDetailsProvider;
+import no.uib.drs.io.vcf.VcfDecoder;
+import no.uib.drs.io.vcf.VcfStream;
 import no.uib.drs.model.score.CdpkScore;
+import no.uib.drs.model.score.PartialScores;
+import no.uib.drs.model.score.RiskScore;
+import no.uib.drs.model.score.WeightMatrix;
 import no.uib.drs.processing.ScoreComputer;
 import no.uib.drs.utils.ProgressHandler;
 import org.apache.commons.cli.CommandLine;
@@ -60,7 +66,43 @@ public class ComputeCdpkScore {
 
             ComputeScoreOptionsBean bean = new ComputeScoreOptionsBean(commandLine);
 
-            computeScores(bean.scoreDetailsFile, bean.proxiesMapFile, bean.vcfFiles, bean.variantDetailsFiles, bean.destinationFile, bean.scoreThreshold);
+            if (bean.scoreDetailsFiles.length > 1) {
+
+                throw new IllegalArgumentException("ComputeCdpkScore supports only one score at a time, use ComputeScore to compute several scores.");
+
+            }
+
+            if (Arrays.stream(bean.vcfFiles).anyMatch(file -> VcfStream.isStream(file))) {
+
+                throw new IllegalArgumentException("ComputeCdpkScore does not support vcf streams, use ComputeScore.");
+
+            }
+
+            if (bean.genotypeStoreFolder != null) {
+
+                throw new IllegalArgumentException("ComputeCdpkScore does not support genotype stores, use ComputeScore.");
+
+            }
+
+            if (bean.contributionsFile != null) {
+
+                throw new IllegalArgumentException("ComputeCdpkScore does not support the export of feature contributions, use ComputeScore.");
+
+            }
+
+            if (WeightMatrix.isWeightMatrix(bean.scoreDetailsFiles[0])) {
+
+                throw new IllegalArgumentException("ComputeCdpkScore does not support weights files with several weight sets, use ComputeScoreMatrix.");
+
+            }
+
+            if (bean.resume && bean.partial) {
+
+                throw new IllegalArgumentException("ComputeCdpkScore does not support checkpoints for partial scores, resume the computation without partial scores.");
+
+            }
+
+            computeScores(bean.scoreDetailsFiles[0], bean.proxiesMapFile, bean.vcfFiles, bean.variantDetailsFiles, bean.destinationFile, bean.scoreThreshold, bean.nReaders, bean.nPrefetch, bean.maxMemory, bean.partial, bean.resume, bean.decoder, bean.samplesFile == null ? null : readLines(bean.samplesFile));
 
         } catch (Throwable e) {
 
@@ -77,8 +119,18 @@ public class ComputeCdpkScore {
      * @param variantDetailsFiles the variant details files
      * @param destinationFile the file where to write the scores
      * @param scoreThreshld the minimal imputation score to use
+     * @param nReaders the number of readers to use per vcf file
+     * @param nPrefetch the number of batches of records to prefetch per vcf file
+     * @param maxMemory the memory budget for the decoded genotypes in bytes
+     * @param partial boolean indicating whether partial scores should be
+     * computed on the given vcf files only
+     * @param resume boolean indicating whether the computation should be
+     * resumed from the checkpoint of an interrupted run
+     * @param decoder the decoder to use for the vcf records
+     * @param samples the names of the samples to score, null to score all
+     * samples
      */
-    private static void computeScores(File scoreDetailsFile, File proxiesMapFile, File[] vcfFiles, File[] variantDetailsFiles, File destinationFile, double scoreThreshld) {
+    private static void computeScores(File scoreDetailsFile, File proxiesMapFile, File[] vcfFiles, File[] variantDetailsFiles, File destinationFile, double scoreThreshld, int nReaders, int nPrefetch, long maxMemory, boolean partial, boolean resume, VcfDecoder decoder, ArrayList<String> samples) {
 
         ProgressHandler progressHandler = new ProgressHandler();
 
@@ -100,6 +152,12 @@ public class ComputeCdpkScore {
                 .parallel()
                 .forEach(file -> variantDetailsProvider.addVariants(file));
 
+        if (vcfFiles.length == 1 && PlinkFileset.isBedFile(vcfFiles[0])) {
+
+            variantDetailsProvider.setVcfName(vcfFiles[0].getName());
+
+        }
+
         progressHandler.end(taskName);
 
         taskName = "1.3 Sanity checks";
@@ -111,23 +169,43 @@ public class ComputeCdpkScore {
         taskName = "1.4 Setting up vcf file readers";
         progressHandler.start(taskName);
 
-        GenotypeProvider genotypeProvider = new GenotypeProvider();
-        Arrays.stream(vcfFiles).forEach(file -> genotypeProvider.addVcfFile(file, getVcfIndexFile(file)));
+        ScoreComputer scoreComputer = new ScoreComputer(vcfFiles, variantDetailsProvider, nReaders, nPrefetch, maxMemory, null, decoder, samples);
 
         progressHandler.end(taskName);
 
         taskName = "1.5 Computing scores";
         progressHandler.start(taskName);
 
-        ScoreComputer scoreComputer = new ScoreComputer(vcfFiles, variantDetailsProvider);
-        scoreComputer.computeRiskScores(riskScore);
+        File checkpointFile = getCheckpointFile(destinationFile);
+        double[][] partialScores = null;
+
+        if (partial) {
+
+            partialScores = scoreComputer.computePartialScores(new RiskScore[0], new CdpkScore[]{riskScore}, new HashMap<>(0));
+
+        } else {
+
+            scoreComputer.computeRiskScores(riskScore, checkpointFile, resume);
+
+        }
 
         progressHandler.end(taskName);
 
         taskName = "1.7 Exporting results";
         progressHandler.start(taskName);
 
-        exportResults(destinationFile, scoreComputer.sampleNames, scoreComputer.scores);
+        if (partial) {
+
+            new PartialScores(scoreComputer.sampleNames, new String[]{scoreDetailsFile.getName()}, partialScores, scoreComputer.foundVariants, scoreComputer.missingVariants)
+                    .write(destinationFile);
+
+        } else {
+
+            exportResults(destinationFile, scoreComputer.sampleNames, scoreComputer.scores);
+
+            checkpointFile.delete();
+
+        }
 
         progressHandler.end(taskName);
 
@@ -135,6 +213,20 @@ public class ComputeCdpkScore {
 
     }
 
+    /**
+     * Returns the file where to save the progress of the computation of the
+     * scores to write to the given file.
+     *
+     * @param destinationFile the file where to write the scores
+     *
+     * @return the checkpoint file
+     */
+    private static File getCheckpointFile(File destinationFile) {
+
+        return new File(destinationFile.getAbsolutePath() + ".checkpoint");
+
+    }
+
     /**
      * Exports the score results to the file.
      *
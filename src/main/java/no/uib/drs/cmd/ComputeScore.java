@@ -5,17 +5,25 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import no.uib.drs.DiabetesRiskScore;
-import static no.uib.drs.io.Utils.getVcfIndexFile;
 import static no.uib.drs.io.Utils.lineSeparator;
+import static no.uib.drs.io.Utils.readLines;
 import no.uib.drs.io.flat.SimpleFileWriter;
-import no.uib.drs.io.vcf.GenotypeProvider;
+import no.uib.drs.io.matrix.ContributionMatrixWriter;
+import no.uib.drs.io.plink.PlinkFileset;
 import no.uib.drs.io.vcf.VariantDetailsProvider;
+import no.uib.drs.io.vcf.VcfDecoder;
+import no.uib.drs.io.vcf.VcfStream;
 import no.uib.drs.model.biology.Proxy;
 import no.uib.drs.model.biology.Variant;
+import no.uib.drs.model.score.CdpkScore;
+import no.uib.drs.model.score.PartialScores;
 import no.uib.drs.model.score.RiskScore;
 import no.uib.drs.model.score.VariantFeatureMap;
+import no.uib.drs.model.score.WeightMatrix;
 import no.uib.drs.processing.ScoreComputer;
 import no.uib.drs.utils.ProgressHandler;
 import org.apache.commons.cli.CommandLine;
@@ -64,7 +72,19 @@ public class ComputeScore {
 
             ComputeScoreOptionsBean bean = new ComputeScoreOptionsBean(commandLine);
 
-            computeScores(bean.scoreDetailsFile, bean.proxiesMapFile, bean.vcfFiles, bean.variantDetailsFiles, bean.destinationFile, bean.scoreThreshold);
+            if (bean.resume) {
+
+                throw new IllegalArgumentException("ComputeScore does not support checkpoints, use ComputeCdpkScore to resume the computation of a CDPK score.");
+
+            }
+
+            if (Arrays.stream(bean.scoreDetailsFiles).anyMatch(file -> WeightMatrix.isWeightMatrix(file))) {
+
+                throw new IllegalArgumentException("ComputeScore does not support weights files with several weight sets, use ComputeScoreMatrix.");
+
+            }
+
+            computeScores(bean.scoreDetailsFiles, bean.proxiesMapFile, bean.vcfFiles, bean.variantDetailsFiles, bean.destinationFile, bean.scoreThreshold, bean.nReaders, bean.nPrefetch, bean.maxMemory, bean.partial, bean.genotypeStoreFolder, bean.contributionsFile, bean.decoder, bean.samplesFile == null ? null : readLines(bean.samplesFile));
 
         } catch (Throwable e) {
 
@@ -75,14 +95,26 @@ public class ComputeScore {
     /**
      * Computes the scores and writes them to the given file.
      *
-     * @param scoreDetailsFile the file containing the score details
+     * @param scoreDetailsFiles the files containing the score details
      * @param proxiesMapFile the file containing the proxy mapping
      * @param vcfFiles the vcf files
      * @param variantDetailsFiles the variant details files
      * @param destinationFile the file where to write the scores
      * @param scoreThreshld the minimal imputation score to use
+     * @param nReaders the number of readers to use per vcf file
+     * @param nPrefetch the number of batches of records to prefetch per vcf file
+     * @param maxMemory the memory budget for the decoded genotypes in bytes
+     * @param partial boolean indicating whether partial scores should be
+     * computed on the given vcf files only
+     * @param genotypeStoreFolder the folder where the decoded genotypes are
+     * stored, null if genotypes are not stored
+     * @param contributionsFile the file where to write the contributions of
+     * the features of the risk scores, null to not write contributions
+     * @param decoder the decoder to use for the vcf records
+     * @param samples the names of the samples to score, null to score all
+     * samples
      */
-    private static void computeScores(File scoreDetailsFile, File proxiesMapFile, File[] vcfFiles, File[] variantDetailsFiles, File destinationFile, double scoreThreshld) {
+    private static void computeScores(File[] scoreDetailsFiles, File proxiesMapFile, File[] vcfFiles, File[] variantDetailsFiles, File destinationFile, double scoreThreshld, int nReaders, int nPrefetch, long maxMemory, boolean partial, File genotypeStoreFolder, File contributionsFile, VcfDecoder decoder, ArrayList<String> samples) {
 
         ProgressHandler progressHandler = new ProgressHandler();
 
@@ -92,8 +124,24 @@ public class ComputeScore {
         String taskName = "1.1 Loading score details";
         progressHandler.start(taskName);
 
-        RiskScore riskScore = RiskScore.parseRiskScore(scoreDetailsFile);
-        VariantFeatureMap variantFeatureMap = new VariantFeatureMap(riskScore);
+        File[] riskScoreFiles = Arrays.stream(scoreDetailsFiles)
+                .filter(file -> !CdpkScore.isCdpkScore(file))
+                .toArray(File[]::new);
+        File[] cdpkScoreFiles = Arrays.stream(scoreDetailsFiles)
+                .filter(file -> CdpkScore.isCdpkScore(file))
+                .toArray(File[]::new);
+
+        RiskScore[] riskScores = Arrays.stream(riskScoreFiles)
+                .map(file -> RiskScore.parseRiskScore(file))
+                .toArray(RiskScore[]::new);
+        CdpkScore[] cdpkScores = Arrays.stream(cdpkScoreFiles)
+                .map(file -> CdpkScore.parseScore(file))
+                .toArray(CdpkScore[]::new);
+
+        HashSet<String> variantIds = new HashSet<>();
+        Arrays.stream(riskScores)
+                .map(riskScore -> new VariantFeatureMap(riskScore))
+                .forEach(variantFeatureMap -> variantIds.addAll(variantFeatureMap.variantIds));
 
         progressHandler.end(taskName);
 
@@ -107,11 +155,19 @@ public class ComputeScore {
         taskName = "1.3 Loading variant details";
         progressHandler.start(taskName);
 
-        VariantDetailsProvider variantDetailsProvider = new VariantDetailsProvider(variantFeatureMap.variantIds, proxyIds);
+        VariantDetailsProvider variantDetailsProvider = cdpkScores.length == 0
+                ? new VariantDetailsProvider(variantIds, proxyIds)
+                : new VariantDetailsProvider();
         Arrays.stream(variantDetailsFiles)
                 .parallel()
                 .forEach(file -> variantDetailsProvider.addVariants(file));
 
+        if (VcfStream.isStream(vcfFiles[0]) || vcfFiles.length == 1 && PlinkFileset.isBedFile(vcfFiles[0])) {
+
+            variantDetailsProvider.setVcfName(vcfFiles[0].getName());
+
+        }
+
         HashMap<String, Proxy> proxiesMap = Proxy.getProxyMap(proxyIds, variantDetailsProvider);
 
         progressHandler.end(taskName);
@@ -119,7 +175,7 @@ public class ComputeScore {
         taskName = "1.4 Sanity checks";
         progressHandler.start(taskName);
 
-        for (String id : variantFeatureMap.variantIds) {
+        for (String id : variantIds) {
 
             Proxy proxy = proxiesMap.get(id);
 
@@ -145,23 +201,49 @@ public class ComputeScore {
         taskName = "1.5 Setting up vcf file readers";
         progressHandler.start(taskName);
 
-        GenotypeProvider genotypeProvider = new GenotypeProvider();
-        Arrays.stream(vcfFiles).forEach(file -> genotypeProvider.addVcfFile(file, getVcfIndexFile(file)));
+        ScoreComputer scoreComputer = new ScoreComputer(vcfFiles, variantDetailsProvider, nReaders, nPrefetch, maxMemory, genotypeStoreFolder, decoder, samples);
 
         progressHandler.end(taskName);
 
         taskName = "1.6 Computing scores";
         progressHandler.start(taskName);
 
-        ScoreComputer scoreComputer = new ScoreComputer(vcfFiles, variantDetailsProvider);
-        scoreComputer.computeRiskScores(riskScore, proxiesMap);
+        ContributionMatrixWriter contributionWriter = contributionsFile == null
+                ? null
+                : new ContributionMatrixWriter(contributionsFile, getFeatureNames(riskScores), scoreComputer.sampleNames);
+
+        double[][] scores = partial
+                ? scoreComputer.computePartialScores(riskScores, cdpkScores, proxiesMap, contributionWriter)
+                : scoreComputer.computeScores(riskScores, cdpkScores, proxiesMap, contributionWriter);
+        scoreComputer.close();
+
+        if (contributionWriter != null) {
+
+            contributionWriter.close();
+
+        }
 
         progressHandler.end(taskName);
 
         taskName = "1.7 Exporting results";
         progressHandler.start(taskName);
 
-        exportResults(destinationFile, scoreComputer.sampleNames, scoreComputer.scores);
+        String[] scoreNames = scoreDetailsFiles.length == 1 && !partial
+                ? new String[]{"Score"}
+                : Stream.concat(Arrays.stream(riskScoreFiles), Arrays.stream(cdpkScoreFiles))
+                        .map(file -> file.getName())
+                        .toArray(String[]::new);
+
+        if (partial) {
+
+            PartialScores partialScores = new PartialScores(scoreComputer.sampleNames, scoreNames, scores, scoreComputer.foundVariants, scoreComputer.missingVariants);
+            partialScores.write(destinationFile);
+
+        } else {
+
+            exportResults(destinationFile, scoreComputer.sampleNames, scoreNames, scores);
+
+        }
 
         progressHandler.end(taskName);
 
@@ -170,21 +252,57 @@ public class ComputeScore {
     }
 
     /**
-     * Exports the score results to the file.
+     * Returns the names of the features of the given risk scores in the order
+     * of the scores and of their features. Feature names are prefixed with
+     * the name of their score if there are several scores.
+     *
+     * @param riskScores the risk scores
+     *
+     * @return the names of the features
+     */
+    private static String[] getFeatureNames(RiskScore[] riskScores) {
+
+        return Arrays.stream(riskScores)
+                .flatMap(riskScore -> Arrays.stream(riskScore.features)
+                        .map(feature -> riskScores.length == 1 ? feature.getName() : riskScore.name + ":" + feature.getName()))
+                .toArray(String[]::new);
+
+    }
+
+    /**
+     * Exports the score results to the file, one line per sample and one
+     * column per score.
      *
      * @param destinationFile the destination file
      * @param sampleNames the name of the samples
-     * @param scores the scores array
+     * @param scoreNames the names of the scores
+     * @param scores the scores indexed by score and sample
      */
-    private static void exportResults(File destinationFile, ArrayList<String> sampleNames, double[] scores) {
+    static void exportResults(File destinationFile, ArrayList<String> sampleNames, String[] scoreNames, double[][] scores) {
 
         try (SimpleFileWriter writer = new SimpleFileWriter(destinationFile, true)) {
 
-            writer.writeLine("Sample", "Score");
+            String[] header = new String[scoreNames.length + 1];
+            header[0] = "Sample";
+            System.arraycopy(scoreNames, 0, header, 1, scoreNames.length);
+
+            writer.writeLine(header);
 
             IntStream.range(0, sampleNames.size())
-                    .forEach(i -> writer.writeLine(sampleNames.get(i), Double.toString(scores[i])));
+                    .forEach(i -> {
+
+                        String[] line = new String[scores.length + 1];
+                        line[0] = sampleNames.get(i);
+
+                        for (int k = 0; k < scores.length; k++) {
+
+                            line[k + 1] = Double.toString(scores[k][i]);
+
+                        }
+
+                        writer.writeLine(line);
 
+                    });
         }
     }
 
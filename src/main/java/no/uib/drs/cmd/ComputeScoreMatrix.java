@@ -0,0 +1,203 @@
+package no.uib.drs.cmd;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import no.uib.drs.DiabetesRiskScore;
+import static no.uib.drs.io.Utils.lineSeparator;
+import static no.uib.drs.io.Utils.readLines;
+import no.uib.drs.io.plink.PlinkFileset;
+import no.uib.drs.io.vcf.VariantDetailsProvider;
+import no.uib.drs.io.vcf.VcfDecoder;
+import no.uib.drs.io.vcf.VcfStream;
+import no.uib.drs.model.score.WeightMatrix;
+import no.uib.drs.processing.ScoreComputer;
+import no.uib.drs.utils.ProgressHandler;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+
+/**
+ * This class computes the scores for every weight set of a CDPK weights file
+ * with extra weight columns on a set of vcf files.
+ *
+ * @author Marc Vaudel
+ */
+public class ComputeScoreMatrix {
+
+    /**
+     * Main method.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+
+        if (args.length == 0
+                || args.length == 1 && args[0].equals("-h")
+                || args.length == 1 && args[0].equals("--help")) {
+
+            printHelp();
+            return;
+
+        }
+
+        if (args.length == 1 && args[0].equals("-v")
+                || args.length == 1 && args[0].equals("--version")) {
+
+            System.out.println(DiabetesRiskScore.getVersion());
+
+            return;
+
+        }
+
+        try {
+
+            Options lOptions = new Options();
+            ComputeScoreOptions.createOptionsCLI(lOptions);
+            CommandLineParser parser = new DefaultParser();
+            CommandLine commandLine = parser.parse(lOptions, args);
+
+            ComputeScoreOptionsBean bean = new ComputeScoreOptionsBean(commandLine);
+
+            if (bean.scoreDetailsFiles.length > 1) {
+
+                throw new IllegalArgumentException("ComputeScoreMatrix supports only one weights file at a time, add the weight sets as columns.");
+
+            }
+
+            if (bean.partial) {
+
+                throw new IllegalArgumentException("ComputeScoreMatrix does not support partial scores.");
+
+            }
+
+            if (bean.resume) {
+
+                throw new IllegalArgumentException("ComputeScoreMatrix does not support checkpoints.");
+
+            }
+
+            if (bean.genotypeStoreFolder != null) {
+
+                throw new IllegalArgumentException("ComputeScoreMatrix does not support genotype stores, use ComputeScore.");
+
+            }
+
+            if (bean.contributionsFile != null) {
+
+                throw new IllegalArgumentException("ComputeScoreMatrix does not support the export of feature contributions, use ComputeScore.");
+
+            }
+
+            if (commandLine.hasOption(ComputeScoreOptions.maxMemory.opt)) {
+
+                throw new IllegalArgumentException("ComputeScoreMatrix does not support a memory budget, the genotypes are decoded by blocks of variants.");
+
+            }
+
+            computeScores(bean.scoreDetailsFiles[0], bean.vcfFiles, bean.variantDetailsFiles, bean.destinationFile, bean.nReaders, bean.nPrefetch, bean.decoder, bean.samplesFile == null ? null : readLines(bean.samplesFile));
+
+        } catch (Throwable e) {
+
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Computes the scores and writes them to the given file.
+     *
+     * @param weightsFile the file containing the weights
+     * @param vcfFiles the vcf files
+     * @param variantDetailsFiles the variant details files
+     * @param destinationFile the file where to write the scores
+     * @param nReaders the number of readers to use per vcf file
+     * @param nPrefetch the number of batches of records to prefetch per vcf file
+     * @param decoder the decoder to use for the vcf records
+     * @param samples the names of the samples to score, null to score all
+     * samples
+     */
+    private static void computeScores(File weightsFile, File[] vcfFiles, File[] variantDetailsFiles, File destinationFile, int nReaders, int nPrefetch, VcfDecoder decoder, ArrayList<String> samples) {
+
+        ProgressHandler progressHandler = new ProgressHandler();
+
+        String mainTaskName = "1. Computing score matrix";
+        progressHandler.start(mainTaskName);
+
+        String taskName = "1.1 Loading weights";
+        progressHandler.start(taskName);
+
+        WeightMatrix weightMatrix = WeightMatrix.parseWeightMatrix(weightsFile);
+
+        progressHandler.end(taskName);
+
+        taskName = "1.2 Loading variant details";
+        progressHandler.start(taskName);
+
+        VariantDetailsProvider variantDetailsProvider = new VariantDetailsProvider();
+        Arrays.stream(variantDetailsFiles)
+                .parallel()
+                .forEach(file -> variantDetailsProvider.addVariants(file));
+
+        if (VcfStream.isStream(vcfFiles[0]) || vcfFiles.length == 1 && PlinkFileset.isBedFile(vcfFiles[0])) {
+
+            variantDetailsProvider.setVcfName(vcfFiles[0].getName());
+
+        }
+
+        progressHandler.end(taskName);
+
+        taskName = "1.3 Computing scores";
+        progressHandler.start(taskName);
+
+        ScoreComputer scoreComputer = new ScoreComputer(vcfFiles, variantDetailsProvider, nReaders, nPrefetch, ScoreComputer.getDefaultGenotypesMemory(), null, decoder, samples);
+        double[][] scores = scoreComputer.computeScores(weightMatrix);
+
+        if (!scoreComputer.missingVariants.isEmpty()) {
+
+            progressHandler.writeLine(scoreComputer.missingVariants.size() + " variants not found.");
+
+        }
+
+        progressHandler.end(taskName);
+
+        taskName = "1.4 Exporting results";
+        progressHandler.start(taskName);
+
+        ComputeScore.exportResults(destinationFile, scoreComputer.sampleNames, weightMatrix.weightSetNames, scores);
+
+        progressHandler.end(taskName);
+
+        progressHandler.end(mainTaskName);
+
+    }
+
+    /**
+     * Prints basic help
+     */
+    private static void printHelp() {
+
+        try (PrintWriter lPrintWriter = new PrintWriter(System.out)) {
+            lPrintWriter.print(lineSeparator);
+            lPrintWriter.print("==================================" + lineSeparator);
+            lPrintWriter.print("        DiabetesRiskScores        " + lineSeparator);
+            lPrintWriter.print("               ****               " + lineSeparator);
+            lPrintWriter.print("  Score Computation Command Line  " + lineSeparator);
+            lPrintWriter.print("==================================" + lineSeparator);
+            lPrintWriter.print(lineSeparator
+                    + "The ComputeScoreMatrix command line computes the scores of every weight set of a weights file from vcf files." + lineSeparator
+                    + lineSeparator
+                    + "For documentation and bug report see https://github.com/mvaudel/diabetesRiskScores." + lineSeparator
+                    + lineSeparator
+                    + "----------------------"
+                    + lineSeparator
+                    + "OPTIONS"
+                    + lineSeparator
+                    + "----------------------" + lineSeparator
+                    + lineSeparator);
+            lPrintWriter.print(ComputeScoreOptions.getOptionsAsString());
+            lPrintWriter.flush();
+        }
+    }
+}
@@ -11,12 +11,21 @@ import org.apache.commons.cli.Options;
  */
 public enum ComputeScoreOptions {
 
-    score("s", "score", "The score details file.", true, true),
-    vcf("g", "geno", "The genotype files in vcf format as comma separated list.", true, true),
+    score("s", "score", "The score details file(s) as comma separated list.", true, true),
+    vcf("g", "geno", "The genotype files in vcf format as comma separated list. Use - to stream a single vcf from the standard input, e.g. the output of bcftools, named pipes are streamed as well. The variants of all information files are then expected in the stream, which must be sorted by position. PLINK binary filesets are given by their .bed file, the .bim and .fam files are expected next to it; the variants of all information files are expected in the fileset if it is the only genotype file.", true, true),
     variants("i", "info", "Information file on the variants needed for the score and proxies.", true, true),
     out("o", "out", "File where to write the scores.", true, true),
     proxies("p", "proxies", "Proxies to use for specific markers as text file.", false, true),
-    threshold("t", "score", "Minimal imputation score required for a marker to be considered.", false, true);
+    threshold("t", "score", "Minimal imputation score required for a marker to be considered.", false, true),
+    readers("r", "readers", "Number of readers to use in parallel per vcf file. Default: number of available processors.", false, true),
+    prefetch("f", "prefetch", "Number of batches of records to read ahead per vcf file while scoring, 0 to disable. Default: 16.", false, true),
+    maxMemory("m", "max-memory", "Memory budget for the decoded genotypes in MB. Samples are processed in chunks if the genotypes of all samples do not fit. Not supported by ComputeScoreMatrix. Default: a quarter of the maximal heap size.", false, true),
+    partial("x", "partial", "Writes partial scores computed on the given vcf files only, variants expected in other files are reported as missing. Partial scores can be combined using MergeScores.", false, false),
+    resume("e", "resume", "Resumes the computation of a CDPK score from the checkpoint saved next to the output file by an interrupted run. Not supported with partial scores.", false, false),
+    cache("k", "cache", "Folder where the decoded genotypes are stored for later runs on the same vcf files. Later runs only changing the weights or features of stored variants do not read the vcf files.", false, true),
+    contributions("c", "contributions", "File where to write the contribution of every feature of the risk scores to the score of every sample, as binary matrix readable using ContributionMatrixReader.", false, true),
+    decoder("d", "decoder", "Decoder for the vcf records: htsjdk to parse the complete records using htsjdk, gt to parse only the genotypes from the GT subfield, faster but requires bgzip compressed vcf files indexed using tabix, mapped to parse as gt from the file mapped in memory. Default: htsjdk.", false, true),
+    samples("l", "samples", "File listing the names of the samples to score, one per line. Only the genotypes of these samples are decoded. Not supported by the htsjdk decoder, which parses the genotypes of all samples, use the gt or mapped decoder. Default: all samples of the vcf files.", false, true);
 
     /**
      * The short option.
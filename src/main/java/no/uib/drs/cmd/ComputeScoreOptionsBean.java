@@ -3,6 +3,10 @@ package no.uib.drs.cmd;
 import java.io.File;
 import java.util.Arrays;
 import java.util.stream.Stream;
+import no.uib.drs.io.plink.PlinkFileset;
+import no.uib.drs.io.vcf.VcfDecoder;
+import no.uib.drs.io.vcf.VcfStream;
+import no.uib.drs.processing.ScoreComputer;
 import org.apache.commons.cli.CommandLine;
 
 /**
@@ -13,9 +17,9 @@ import org.apache.commons.cli.CommandLine;
 public class ComputeScoreOptionsBean {
 
     /**
-     * The file containing the score details.
+     * The files containing the score details.
      */
-    public final File scoreDetailsFile;
+    public final File[] scoreDetailsFiles;
     /**
      * The proxies mapping file. Null if none provided.
      */
@@ -36,6 +40,45 @@ public class ComputeScoreOptionsBean {
      * The imputation score threshold.
      */
     public final double scoreThreshold;
+    /**
+     * The number of readers to use per vcf file.
+     */
+    public final int nReaders;
+    /**
+     * The number of batches of records to prefetch per vcf file.
+     */
+    public final int nPrefetch;
+    /**
+     * The memory budget for the decoded genotypes in bytes.
+     */
+    public final long maxMemory;
+    /**
+     * Boolean indicating whether partial scores should be written.
+     */
+    public final boolean partial;
+    /**
+     * Boolean indicating whether the computation should be resumed from a
+     * checkpoint.
+     */
+    public final boolean resume;
+    /**
+     * The folder where the decoded genotypes are stored. Null if none
+     * provided.
+     */
+    public final File genotypeStoreFolder;
+    /**
+     * The file where to write the contributions of the features. Null if none
+     * provided.
+     */
+    public final File contributionsFile;
+    /**
+     * The decoder to use for the vcf records.
+     */
+    public final VcfDecoder decoder;
+    /**
+     * The file listing the samples to score. Null if none provided.
+     */
+    public final File samplesFile;
 
     /**
      * Constructor. Parses the command line options and conducts minimal sanity check.
@@ -56,17 +99,19 @@ public class ComputeScoreOptionsBean {
         }
 
         
-        // Score definition
+        // Score definitions
         
         String filePath = aLine.getOptionValue(ComputeScoreOptions.score.opt);
 
-        scoreDetailsFile = new File(filePath);
-
-        if (!scoreDetailsFile.exists()) {
-
-            throw new IllegalArgumentException("Score definition file (" + filePath + ") not found.");
-
-        }
+        scoreDetailsFiles = Arrays.stream(filePath.split(","))
+                .map(path -> new File(path))
+                .toArray(File[]::new);
+        
+        Arrays.stream(scoreDetailsFiles)
+                .filter(file -> !file.exists())
+                .forEach(file -> {
+                    throw new IllegalArgumentException("Score definition file (" + file.getAbsolutePath() + ") not found.");
+                });
         
         
         // VCF files or folder
@@ -76,7 +121,7 @@ public class ComputeScoreOptionsBean {
         vcfFiles = Arrays.stream(filePath.split(","))
                 .map(path -> new File(path))
                 .flatMap(file -> file.isDirectory() ? Arrays.stream(file.listFiles()) : Stream.of(file))
-                .filter(file -> file.getName().toLowerCase().endsWith(".vcf") || file.getName().toLowerCase().endsWith(".vcf.gz"))
+                .filter(file -> VcfStream.isStream(file) || PlinkFileset.isBedFile(file) || file.getName().toLowerCase().endsWith(".vcf") || file.getName().toLowerCase().endsWith(".vcf.gz"))
                 .toArray(File[]::new);
         
         if (vcfFiles.length == 0) {
@@ -86,7 +131,7 @@ public class ComputeScoreOptionsBean {
         }
         
         Arrays.stream(vcfFiles)
-                .filter(file -> !file.exists())
+                .filter(file -> !file.exists() && !VcfStream.isStream(file))
                 .forEach(file -> {
                     throw new IllegalArgumentException("Vcf file (" + file.getAbsolutePath() + ") not found.");
                             });
@@ -155,5 +200,154 @@ public class ComputeScoreOptionsBean {
         } else {
             scoreThreshold = Double.NaN;
         }
+        
+        
+        // Number of readers
+
+        if (aLine.hasOption(ComputeScoreOptions.readers.opt)) {
+
+            String value = aLine.getOptionValue(ComputeScoreOptions.readers.opt);
+
+            nReaders = Integer.parseInt(value);
+
+            if (nReaders < 1) {
+
+                throw new IllegalArgumentException("Number of readers (" + value + ") must be strictly positive.");
+
+            }
+            
+        } else {
+            nReaders = Runtime.getRuntime().availableProcessors();
+        }
+        
+        
+        // Number of batches to prefetch
+
+        if (aLine.hasOption(ComputeScoreOptions.prefetch.opt)) {
+
+            String value = aLine.getOptionValue(ComputeScoreOptions.prefetch.opt);
+
+            nPrefetch = Integer.parseInt(value);
+
+            if (nPrefetch < 0) {
+
+                throw new IllegalArgumentException("Number of batches to prefetch (" + value + ") must be positive or zero.");
+
+            }
+            
+        } else {
+            nPrefetch = ScoreComputer.defaultPrefetch;
+        }
+        
+        
+        // Memory budget
+
+        if (aLine.hasOption(ComputeScoreOptions.maxMemory.opt)) {
+
+            String value = aLine.getOptionValue(ComputeScoreOptions.maxMemory.opt);
+
+            long megaBytes = Long.parseLong(value);
+
+            if (megaBytes < 1) {
+
+                throw new IllegalArgumentException("Memory budget (" + value + ") must be strictly positive.");
+
+            }
+
+            maxMemory = megaBytes << 20;
+            
+        } else {
+            maxMemory = ScoreComputer.getDefaultGenotypesMemory();
+        }
+
+        
+        // Partial scores
+        
+        partial = aLine.hasOption(ComputeScoreOptions.partial.opt);
+
+        
+        // Resume from checkpoint
+        
+        resume = aLine.hasOption(ComputeScoreOptions.resume.opt);
+
+        
+        // Genotype store
+
+        if (aLine.hasOption(ComputeScoreOptions.cache.opt)) {
+
+            filePath = aLine.getOptionValue(ComputeScoreOptions.cache.opt);
+
+            genotypeStoreFolder = new File(filePath);
+
+            if (!genotypeStoreFolder.isDirectory()) {
+
+                throw new IllegalArgumentException("Genotype store folder (" + filePath + ") not found.");
+
+            }
+        } else {
+            genotypeStoreFolder = null;
+        }
+
+        
+        // Contributions of the features
+
+        if (aLine.hasOption(ComputeScoreOptions.contributions.opt)) {
+
+            filePath = aLine.getOptionValue(ComputeScoreOptions.contributions.opt);
+
+            contributionsFile = new File(filePath);
+
+            if (!contributionsFile.getAbsoluteFile().getParentFile().exists()) {
+
+                throw new IllegalArgumentException("Contributions folder (" + contributionsFile.getParent() + ") not found.");
+
+            }
+        } else {
+            contributionsFile = null;
+        }
+
+        
+        // Decoder
+
+        if (aLine.hasOption(ComputeScoreOptions.decoder.opt)) {
+
+            String value = aLine.getOptionValue(ComputeScoreOptions.decoder.opt);
+
+            try {
+
+                decoder = VcfDecoder.valueOf(value);
+
+            } catch (IllegalArgumentException e) {
+
+                throw new IllegalArgumentException("Decoder " + value + " not supported. Supported decoders: " + Arrays.toString(VcfDecoder.values()) + ".");
+
+            }
+        } else {
+            decoder = VcfDecoder.htsjdk;
+        }
+
+        
+        // Samples
+
+        if (aLine.hasOption(ComputeScoreOptions.samples.opt)) {
+
+            filePath = aLine.getOptionValue(ComputeScoreOptions.samples.opt);
+
+            samplesFile = new File(filePath);
+
+            if (!samplesFile.exists()) {
+
+                throw new IllegalArgumentException("Samples file (" + filePath + ") not found.");
+
+            }
+
+            if (decoder == VcfDecoder.htsjdk && Arrays.stream(vcfFiles).anyMatch(file -> !PlinkFileset.isBedFile(file))) {
+
+                throw new IllegalArgumentException("The htsjdk decoder parses the genotypes of all samples, use the gt or mapped decoder to score a subset of samples.");
+
+            }
+        } else {
+            samplesFile = null;
+        }
     }
 }
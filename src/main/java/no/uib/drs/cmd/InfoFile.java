@@ -1,18 +1,32 @@
 package no.uib.drs.cmd;
 
-import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.tribble.readers.SynchronousLineReader;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
-import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFCodec;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 import no.uib.drs.DiabetesRiskScore;
 import static no.uib.drs.io.Utils.getFileReader;
 import static no.uib.drs.io.Utils.lineSeparator;
+import no.uib.drs.io.bgzf.LineBatchProcessor;
+import no.uib.drs.io.bgzf.ParallelBgzfInputStream;
 import no.uib.drs.io.flat.SimpleFileReader;
 import no.uib.drs.io.flat.SimpleFileWriter;
+import no.uib.drs.io.vcf.GtVcfRecord;
 import no.uib.drs.io.vcf.VariantDetailsProvider;
 import no.uib.drs.io.vcf.VcfSettings;
 import no.uib.drs.utils.ProgressHandler;
@@ -62,7 +76,7 @@ public class InfoFile {
 
             InfoFileOptionsBean bean = new InfoFileOptionsBean(commandLine);
 
-            writeInfoFile(bean.vcfFile, bean.destinationFile, bean.snpFile, bean.vcfSettings);
+            writeInfoFile(bean.vcfFile, bean.destinationFile, bean.snpFile, bean.vcfSettings, bean.nThreads);
 
         } catch (Throwable e) {
 
@@ -78,8 +92,9 @@ public class InfoFile {
      * @param destinationFile the output file
      * @param snpFile the file containing the ids of the variants to extract
      * @param vcfSettings the vcf parsing settings
+     * @param nThreads the number of threads to use
      */
-    private static void writeInfoFile(File vcfFile, File destinationFile, File snpFile, VcfSettings vcfSettings) {
+    private static void writeInfoFile(File vcfFile, File destinationFile, File snpFile, VcfSettings vcfSettings, int nThreads) {
 
         ProgressHandler progressHandler = new ProgressHandler();
 
@@ -96,7 +111,7 @@ public class InfoFile {
         taskName = "1.2 Extracting variant details";
         progressHandler.start(taskName);
 
-        extractDetails(vcfFile, destinationFile, variants, vcfSettings);
+        extractDetails(vcfFile, destinationFile, variants, vcfSettings, nThreads);
 
         progressHandler.end(taskName);
 
@@ -133,16 +148,24 @@ public class InfoFile {
     /**
      * Extracts the snp details from the vcf file. CHR, BP, ID, REF, ALT, MAF,
      * are extracted. One line per variant. Multi-allelic and monomorphic
-     * variants are excluded.
+     * variants are excluded. The blocks of bgzip compressed files are inflated
+     * in parallel, and the records are parsed by batches in parallel and
+     * written in the order of the vcf file.
      *
      * @param vcfFile the vcf file
      * @param destinationFile the destination file
      * @param variants the ids of variants to select, ignored if null
      * @param vcfSettings the vcf parsing settings
+     * @param nThreads the number of threads to use
      */
-    private static void extractDetails(File vcfFile, File destinationFile, HashSet<String> variants, VcfSettings vcfSettings) {
+    private static void extractDetails(File vcfFile, File destinationFile, HashSet<String> variants, VcfSettings vcfSettings, int nThreads) {
 
-        try (VCFFileReader vcfFileReader = new VCFFileReader(vcfFile)) {
+        String header = getHeader(vcfFile);
+        ThreadLocal<VCFCodec> codecs = ThreadLocal.withInitial(() -> getCodec(header));
+
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+
+        try (InputStream inputStream = getInputStream(vcfFile, executor)) {
 
             try (SimpleFileWriter writer = new SimpleFileWriter(destinationFile, true)) {
 
@@ -151,69 +174,186 @@ public class InfoFile {
 
                 writer.writeLine("CHR", "BP", "ID", "REF", "ALT", "MAF", "TYPED", "SCORE");
 
-                try (CloseableIterator<VariantContext> iterator = vcfFileReader.iterator()) {
+                LineBatchProcessor lineBatchProcessor = new LineBatchProcessor(executor, LineBatchProcessor.defaultBatchSize, 4 * nThreads);
+                lineBatchProcessor.process(
+                        inputStream,
+                        lines -> lines.stream()
+                                .filter(line -> !line.isEmpty() && line.charAt(0) != '#')
+                                .map(line -> getDetails(line, codecs.get().decode(line), variants, vcfSettings))
+                                .filter(details -> details != null)
+                                .collect(Collectors.toCollection(ArrayList::new)),
+                        batchDetails -> batchDetails.forEach(details -> writer.writeLine(details)),
+                        true
+                );
+            }
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
 
-                    while (iterator.hasNext()) {
+        } finally {
+
+            executor.shutdownNow();
+
+        }
+    }
 
-                        VariantContext variantContext = iterator.next();
-                        String variantId = variantContext.getID();
+    /**
+     * Returns the details of a variant to export, null if the variant should
+     * not be exported. The alleles of very wide records are counted in
+     * parallel from the GT subfield.
+     *
+     * @param line the vcf line of the variant
+     * @param variantContext the variant
+     * @param variants the ids of variants to select, ignored if null
+     * @param vcfSettings the vcf parsing settings
+     *
+     * @return the details of the variant
+     */
+    private static String[] getDetails(String line, VariantContext variantContext, HashSet<String> variants, VcfSettings vcfSettings) {
 
-                        if (variants == null || variants.contains(variantId)) {
+        String variantId = variantContext.getID();
 
-                            String contig = variantContext.getContig();
-                            int start = variantContext.getStart();
-                            String ref = variantContext.getReference().getBaseString();
+        if (variants != null && !variants.contains(variantId)) {
 
-                            String typed = vcfSettings.typedFlag == null ? "NA"
-                                    : vcfSettings.typedFilter
-                                    && variantContext.getFilters().contains(vcfSettings.typedFlag)
-                                    || !vcfSettings.typedFilter
-                                    && variantContext.getAttribute(vcfSettings.typedFlag) != null
-                                    && Boolean.parseBoolean(variantContext.getAttribute(vcfSettings.typedFlag).toString())
-                                    ? "1" : "0";
+            return null;
 
-                            double score = vcfSettings.scoreFlag == null
-                                    ? Double.NaN
-                                    : Double.parseDouble(variantContext.getAttribute(vcfSettings.scoreFlag).toString());
+        }
 
-                            List<Allele> altAlleles = variantContext.getAlternateAlleles();
+        String contig = variantContext.getContig();
+        int start = variantContext.getStart();
+        String ref = variantContext.getReference().getBaseString();
 
-                            if (altAlleles.size() == 1) {
+        String typed = vcfSettings.typedFlag == null ? "NA"
+                : vcfSettings.typedFilter
+                && variantContext.getFilters().contains(vcfSettings.typedFlag)
+                || !vcfSettings.typedFilter
+                && variantContext.getAttribute(vcfSettings.typedFlag) != null
+                && Boolean.parseBoolean(variantContext.getAttribute(vcfSettings.typedFlag).toString())
+                ? "1" : "0";
 
-                                String alt = altAlleles.get(0).getBaseString();
+        double score = vcfSettings.scoreFlag == null
+                ? Double.NaN
+                : Double.parseDouble(variantContext.getAttribute(vcfSettings.scoreFlag).toString());
 
-                                if (!alt.equals(ref)) {
+        List<Allele> altAlleles = variantContext.getAlternateAlleles();
 
-                                    double nAlt = (double) variantContext.getGenotypes().stream()
-                                            .parallel()
-                                            .flatMap(genotype -> genotype.getAlleles().stream())
-                                            .filter(allele -> allele.getBaseString().equals(alt))
-                                            .count();
-                                    double nAll = (double) variantContext.getGenotypes().stream()
-                                            .parallel()
-                                            .flatMap(genotype -> genotype.getAlleles().stream())
-                                            .count();
+        if (altAlleles.size() != 1) {
 
-                                    double maf = nAlt / nAll;
+            return null;
 
-                                    writer.writeLine(
-                                            contig,
-                                            Integer.toString(start),
-                                            variantId,
-                                            ref,
-                                            alt,
-                                            Double.toString(maf),
-                                            typed,
-                                            Double.toString(score)
-                                    );
+        }
+
+        String alt = altAlleles.get(0).getBaseString();
+
+        if (alt.equals(ref)) {
+
+            return null;
+
+        }
+
+        double nAlt;
+        double nAll;
+
+        if (line.length() >= GtVcfRecord.parallelDecodingLength) {
+
+            long[] alleleCounts = new GtVcfRecord(line.getBytes(StandardCharsets.UTF_8), start, variantContext.getNSamples()).getAlleleCounts(alt);
+
+            nAlt = alleleCounts[0];
+            nAll = alleleCounts[1];
+
+        } else {
+
+            nAlt = (double) variantContext.getGenotypes().stream()
+                    .flatMap(genotype -> genotype.getAlleles().stream())
+                    .filter(allele -> allele.getBaseString().equals(alt))
+                    .count();
+            nAll = (double) variantContext.getGenotypes().stream()
+                    .flatMap(genotype -> genotype.getAlleles().stream())
+                    .count();
+
+        }
+
+        double maf = nAlt / nAll;
+
+        return new String[]{
+            contig,
+            Integer.toString(start),
+            variantId,
+            ref,
+            alt,
+            Double.toString(maf),
+            typed,
+            Double.toString(score)
+        };
+    }
+
+    /**
+     * Returns the header of the given vcf file.
+     *
+     * @param vcfFile the vcf file
+     *
+     * @return the header lines
+     */
+    private static String getHeader(File vcfFile) {
+
+        StringBuilder header = new StringBuilder();
+
+        try (SimpleFileReader reader = getFileReader(vcfFile)) {
+
+            String line;
+            while ((line = reader.readLine()) != null && line.startsWith("#")) {
+
+                header.append(line).append('\n');
 
-                                }
-                            }
-                        }
-                    }
-                }
             }
         }
+
+        return header.toString();
+
+    }
+
+    /**
+     * Returns a vcf codec initialized with the given header.
+     *
+     * @param header the header lines
+     *
+     * @return a vcf codec
+     */
+    private static VCFCodec getCodec(String header) {
+
+        VCFCodec codec = new VCFCodec();
+        codec.readActualHeader(new LineIteratorImpl(new SynchronousLineReader(new StringReader(header))));
+
+        return codec;
+
+    }
+
+    /**
+     * Returns a stream of the content of the given vcf file. The blocks of
+     * bgzip compressed files are inflated in parallel using the given
+     * executor.
+     *
+     * @param vcfFile the vcf file
+     * @param executor the executor to use to inflate the blocks
+     *
+     * @return a stream of the content of the vcf file
+     *
+     * @throws IOException exception thrown if an error occurred while opening
+     * the file
+     */
+    private static InputStream getInputStream(File vcfFile, ExecutorService executor) throws IOException {
+
+        if (ParallelBgzfInputStream.isBgzf(vcfFile)) {
+
+            return new ParallelBgzfInputStream(vcfFile, 0, executor, ParallelBgzfInputStream.defaultBlocksAhead);
+
+        }
+
+        InputStream fileStream = new FileInputStream(vcfFile);
+
+        return vcfFile.getName().endsWith(".gz") ? new GZIPInputStream(fileStream) : fileStream;
+
     }
 
     /**
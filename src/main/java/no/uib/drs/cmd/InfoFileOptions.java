@@ -16,7 +16,8 @@ public enum InfoFileOptions {
     vatriants("i", "in", "List of variants to include. All variants are used if not provided.", false, true),
     typed("t", "typed", "Attribute used to flag genotyped markers in the vcf file (e.g. 'TYPED' for imputation at Sanger, 'GENOTYPED' for imputation at umich).", false, true),
     filter("f", "filter", "Whether the typed attribute is in the filter or the info column (0 for info, 1 for filter e.g. '0' for imputation at Sanger, '1' for imputation at umich).", false, true),
-    score("s", "score", "Attribute used for imputation score in the vcf file (e.g. 'INFO' for imputation at Sanger, 'R2' for imputation at umich).", false, true);
+    score("s", "score", "Attribute used for imputation score in the vcf file (e.g. 'INFO' for imputation at Sanger, 'R2' for imputation at umich).", false, true),
+    threads("n", "threads", "Number of threads to use to inflate and parse the vcf file. Default: number of available processors.", false, true);
 
     /**
      * The short option.
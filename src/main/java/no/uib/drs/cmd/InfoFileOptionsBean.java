@@ -27,6 +27,10 @@ public class InfoFileOptionsBean {
      * The vcf parsing settings.
      */
     public final VcfSettings vcfSettings;
+    /**
+     * The number of threads to use.
+     */
+    public final int nThreads;
 
     /**
      * Constructor. Parses the command line options and conducts minimal sanity check.
@@ -107,5 +111,24 @@ public class InfoFileOptionsBean {
         } else {
             snpFile = null;
         }
+        
+        
+        // Number of threads
+
+        if (aLine.hasOption(InfoFileOptions.threads.opt)) {
+
+            String value = aLine.getOptionValue(InfoFileOptions.threads.opt);
+
+            nThreads = Integer.parseInt(value);
+
+            if (nThreads < 1) {
+
+                throw new IllegalArgumentException("Number of threads (" + value + ") must be strictly positive.");
+
+            }
+            
+        } else {
+            nThreads = Runtime.getRuntime().availableProcessors();
+        }
     }
 }
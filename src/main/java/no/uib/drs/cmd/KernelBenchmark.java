@@ -0,0 +1,148 @@
+package no.uib.drs.cmd;
+
+import java.util.Random;
+import no.uib.drs.model.genotypes.ScoringKernel;
+import no.uib.drs.model.genotypes.ScoringKernels;
+
+/**
+ * Microbenchmark of the scoring kernels. Compares the scalar kernel to the
+ * Vector API kernel on random genotypes. The Vector API kernel requires Java
+ * 16 or higher with --add-modules jdk.incubator.vector.
+ *
+ * @author Marc Vaudel
+ */
+public class KernelBenchmark {
+
+    /**
+     * Main method.
+     *
+     * @param args the number of samples and the number of repetitions,
+     * optional
+     */
+    public static void main(String[] args) {
+
+        int nSamples = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int nRepetitions = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Random random = new Random(nSamples);
+
+        byte[] dosages = new byte[nSamples];
+        long[] mask = new long[(nSamples + 63) >>> 6];
+
+        for (int i = 0; i < nSamples; i++) {
+
+            dosages[i] = (byte) random.nextInt(3);
+
+            if (random.nextInt(4) == 0) {
+
+                mask[i >>> 6] |= 1L << (i & 63);
+
+            }
+        }
+
+        ScoringKernel scalarKernel = ScoringKernels.getScalarKernel();
+        ScoringKernel vectorKernel = ScoringKernels.getVectorKernel();
+
+        System.out.println("Samples: " + nSamples + ", repetitions: " + nRepetitions);
+
+        double scalarDosages = benchmarkDosages(scalarKernel, dosages, nRepetitions);
+        double scalarMasked = benchmarkMasked(scalarKernel, mask, nSamples, nRepetitions);
+
+        System.out.println("Scalar dosages: " + format(scalarDosages) + " ns per sample");
+        System.out.println("Scalar masked: " + format(scalarMasked) + " ns per sample");
+
+        if (vectorKernel == null) {
+
+            System.out.println("Vector API kernel not available, run with Java 16 or higher and --add-modules jdk.incubator.vector.");
+
+        } else {
+
+            double vectorDosages = benchmarkDosages(vectorKernel, dosages, nRepetitions);
+            double vectorMasked = benchmarkMasked(vectorKernel, mask, nSamples, nRepetitions);
+
+            System.out.println("Vector dosages: " + format(vectorDosages) + " ns per sample, speedup " + format(scalarDosages / vectorDosages));
+            System.out.println("Vector masked: " + format(vectorMasked) + " ns per sample, speedup " + format(scalarMasked / vectorMasked));
+
+        }
+    }
+
+    /**
+     * Returns the time per sample of the dosages kernel in ns after warm-up.
+     *
+     * @param kernel the kernel
+     * @param dosages the dosages
+     * @param nRepetitions the number of repetitions
+     *
+     * @return the time per sample in ns
+     */
+    private static double benchmarkDosages(ScoringKernel kernel, byte[] dosages, int nRepetitions) {
+
+        double[] scores = new double[dosages.length];
+
+        for (int i = 0; i < nRepetitions; i++) {
+
+            kernel.addDosages(0.5, dosages, dosages.length, scores, 0);
+
+        }
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < nRepetitions; i++) {
+
+            kernel.addDosages(0.5, dosages, dosages.length, scores, 0);
+
+        }
+
+        long end = System.nanoTime();
+
+        return ((double) (end - start)) / nRepetitions / dosages.length;
+
+    }
+
+    /**
+     * Returns the time per sample of the masked kernel in ns after warm-up.
+     *
+     * @param kernel the kernel
+     * @param mask the mask
+     * @param nSamples the number of samples
+     * @param nRepetitions the number of repetitions
+     *
+     * @return the time per sample in ns
+     */
+    private static double benchmarkMasked(ScoringKernel kernel, long[] mask, int nSamples, int nRepetitions) {
+
+        double[] scores = new double[nSamples];
+
+        for (int i = 0; i < nRepetitions; i++) {
+
+            kernel.addMasked(0.5, mask, scores);
+
+        }
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < nRepetitions; i++) {
+
+            kernel.addMasked(0.5, mask, scores);
+
+        }
+
+        long end = System.nanoTime();
+
+        return ((double) (end - start)) / nRepetitions / nSamples;
+
+    }
+
+    /**
+     * Formats a number with three decimals.
+     *
+     * @param value the number
+     *
+     * @return the formatted number
+     */
+    private static String format(double value) {
+
+        return String.format("%.3f", value);
+
+    }
+}
@@ -0,0 +1,159 @@
+package no.uib.drs.cmd;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import no.uib.drs.DiabetesRiskScore;
+import static no.uib.drs.io.Utils.lineSeparator;
+import no.uib.drs.model.score.PartialScores;
+import no.uib.drs.processing.ScoreMerger;
+import no.uib.drs.utils.ProgressHandler;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+
+/**
+ * This class merges partial scores computed on different vcf files or samples.
+ *
+ * @author Marc Vaudel
+ */
+public class MergeScores {
+
+    /**
+     * Main method.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+
+        if (args.length == 0
+                || args.length == 1 && args[0].equals("-h")
+                || args.length == 1 && args[0].equals("--help")) {
+
+            printHelp();
+            return;
+
+        }
+
+        if (args.length == 1 && args[0].equals("-v")
+                || args.length == 1 && args[0].equals("--version")) {
+
+            System.out.println(DiabetesRiskScore.getVersion());
+
+            return;
+
+        }
+
+        try {
+
+            Options lOptions = new Options();
+            MergeScoresOptions.createOptionsCLI(lOptions);
+            CommandLineParser parser = new DefaultParser();
+            CommandLine commandLine = parser.parse(lOptions, args);
+
+            MergeScoresOptionsBean bean = new MergeScoresOptionsBean(commandLine);
+
+            mergeScores(bean.partialScoresFiles, bean.destinationFile, bean.partial);
+
+        } catch (Throwable e) {
+
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Merges the partial scores and writes them to the given file.
+     *
+     * @param partialScoresFiles the partial scores files
+     * @param destinationFile the file where to write the scores
+     * @param partial boolean indicating whether the merged scores should be
+     * written as partial scores
+     */
+    private static void mergeScores(File[] partialScoresFiles, File destinationFile, boolean partial) {
+
+        ProgressHandler progressHandler = new ProgressHandler();
+
+        String mainTaskName = "1. Merging scores";
+        progressHandler.start(mainTaskName);
+
+        String taskName = "1.1 Loading partial scores";
+        progressHandler.start(taskName);
+
+        Arrays.stream(partialScoresFiles)
+                .filter(file -> !PartialScores.isPartialScores(file))
+                .forEach(file -> {
+                    throw new IllegalArgumentException("File " + file.getAbsolutePath() + " does not contain partial scores.");
+                });
+
+        PartialScores[] partialScores = Arrays.stream(partialScoresFiles)
+                .parallel()
+                .map(file -> PartialScores.parse(file))
+                .toArray(PartialScores[]::new);
+
+        progressHandler.end(taskName);
+
+        taskName = "1.2 Merging partial scores";
+        progressHandler.start(taskName);
+
+        String[] names = Arrays.stream(partialScoresFiles)
+                .map(file -> file.getName())
+                .toArray(String[]::new);
+
+        PartialScores mergedScores = ScoreMerger.merge(names, partialScores);
+
+        if (!mergedScores.missingVariants.isEmpty()) {
+
+            System.out.println(mergedScores.missingVariants.size() + " variants missing in all partial scores.");
+
+        }
+
+        progressHandler.end(taskName);
+
+        taskName = "1.3 Exporting results";
+        progressHandler.start(taskName);
+
+        if (partial) {
+
+            mergedScores.write(destinationFile);
+
+        } else {
+
+            ComputeScore.exportResults(destinationFile, mergedScores.sampleNames, mergedScores.scoreNames, mergedScores.scores);
+
+        }
+
+        progressHandler.end(taskName);
+
+        progressHandler.end(mainTaskName);
+
+    }
+
+    /**
+     * Prints basic help
+     */
+    private static void printHelp() {
+
+        try (PrintWriter lPrintWriter = new PrintWriter(System.out)) {
+            lPrintWriter.print(lineSeparator);
+            lPrintWriter.print("==================================" + lineSeparator);
+            lPrintWriter.print("        DiabetesRiskScores        " + lineSeparator);
+            lPrintWriter.print("               ****               " + lineSeparator);
+            lPrintWriter.print("           Merge Scores           " + lineSeparator);
+            lPrintWriter.print("==================================" + lineSeparator);
+            lPrintWriter.print(lineSeparator
+                    + "The MergeScores command line sums partial scores computed using the --partial option of ComputeScore or ComputeCdpkScore, e.g. on different chromosomes." + lineSeparator
+                    + lineSeparator
+                    + "For documentation and bug report see https://github.com/mvaudel/diabetesRiskScores." + lineSeparator
+                    + lineSeparator
+                    + "----------------------"
+                    + lineSeparator
+                    + "OPTIONS"
+                    + lineSeparator
+                    + "----------------------" + lineSeparator
+                    + lineSeparator);
+            lPrintWriter.print(MergeScoresOptions.getOptionsAsString());
+            lPrintWriter.flush();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package no.uib.drs.cmd;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import org.apache.commons.cli.CommandLine;
+
+/**
+ * Parses and stores the command line options.
+ *
+ * @author Marc Vaudel
+ */
+public class MergeScoresOptionsBean {
+
+    /**
+     * The partial scores files.
+     */
+    public final File[] partialScoresFiles;
+    /**
+     * The file where to write the scores.
+     */
+    public final File destinationFile;
+    /**
+     * Boolean indicating whether the merged scores should be written as
+     * partial scores.
+     */
+    public final boolean partial;
+
+    /**
+     * Constructor. Parses the command line options and conducts minimal sanity
+     * check.
+     *
+     * @param aLine a command line
+     */
+    public MergeScoresOptionsBean(CommandLine aLine) {
+
+        // Check that mandatory options are provided
+        for (MergeScoresOptions option : MergeScoresOptions.values()) {
+
+            if (option.mandatory && !aLine.hasOption(option.opt)) {
+
+                throw new IllegalArgumentException("No value found for mandatory option " + option.opt + " (" + option.longOpt + ")");
+
+            }
+        }
+
+        // Partial scores files or folders
+        String filePath = aLine.getOptionValue(MergeScoresOptions.in.opt);
+
+        partialScoresFiles = Arrays.stream(filePath.split(","))
+                .map(path -> new File(path))
+                .flatMap(file -> file.isDirectory() ? Arrays.stream(file.listFiles()).sorted() : Stream.of(file))
+                .toArray(File[]::new);
+
+        if (partialScoresFiles.length == 0) {
+
+            throw new IllegalArgumentException("No partial scores found at (" + filePath + ").");
+
+        }
+
+        Arrays.stream(partialScoresFiles)
+                .filter(file -> !file.exists())
+                .forEach(file -> {
+                    throw new IllegalArgumentException("Partial scores file (" + file.getAbsolutePath() + ") not found.");
+                });
+
+        // Output
+        filePath = aLine.getOptionValue(MergeScoresOptions.out.opt);
+
+        destinationFile = new File(filePath);
+
+        if (!destinationFile.getAbsoluteFile().getParentFile().exists()) {
+
+            throw new IllegalArgumentException("Output folder (" + destinationFile.getParent() + ") not found.");
+
+        }
+
+        // Partial scores
+        partial = aLine.hasOption(MergeScoresOptions.partial.opt);
+
+    }
+}
@@ -61,7 +61,13 @@ public class SanityCheck {
 
             ComputeScoreOptionsBean bean = new ComputeScoreOptionsBean(commandLine);
 
-            sanityCheck(bean.scoreDetailsFile, bean.proxiesMapFile, bean.vcfFiles, bean.variantDetailsFiles, bean.destinationFile, bean.scoreThreshold);
+            if (bean.scoreDetailsFiles.length > 1) {
+
+                throw new IllegalArgumentException("SanityCheck supports only one score at a time.");
+
+            }
+
+            sanityCheck(bean.scoreDetailsFiles[0], bean.proxiesMapFile, bean.vcfFiles, bean.variantDetailsFiles, bean.destinationFile, bean.scoreThreshold);
 
         } catch (Throwable e) {
 
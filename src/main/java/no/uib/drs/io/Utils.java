@@ -1,6 +1,7 @@
 package no.uib.drs.io;
 
 import java.io.File;
+import java.util.ArrayList;
 import no.uib.drs.io.flat.SimpleFileReader;
 import no.uib.drs.io.flat.readers.SimpleGzReader;
 import no.uib.drs.io.flat.readers.SimpleTextReader;
@@ -50,4 +51,32 @@ public class Utils {
         return file.getName().endsWith(".gz") ? new SimpleGzReader(file) : new SimpleTextReader(file);
         
     }
+    
+    /**
+     * Returns the non-empty lines of the given file, trimmed.
+     * 
+     * @param file the file to read
+     * 
+     * @return the lines of the file
+     */
+    public static ArrayList<String> readLines(File file) {
+        
+        ArrayList<String> lines = new ArrayList<>();
+        
+        try (SimpleFileReader reader = getFileReader(file)) {
+            
+            String line;
+            while ((line = reader.readLine()) != null) {
+                
+                if (!(line = line.trim()).equals("")) {
+                    
+                    lines.add(line);
+                    
+                }
+            }
+        }
+        
+        return lines;
+        
+    }
 }
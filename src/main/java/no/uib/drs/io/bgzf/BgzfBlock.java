@@ -0,0 +1,121 @@
+package no.uib.drs.io.bgzf;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Parsing and inflation of bgzf blocks: gzip members of at most 64 KB with
+ * the total size of the block in the first extra subfield of the header.
+ *
+ * @author Marc Vaudel
+ */
+public class BgzfBlock {
+
+    /**
+     * The size of the header of a bgzf block.
+     */
+    public static final int headerSize = 18;
+    /**
+     * The size of the footer of a bgzf block: the CRC and the inflated size.
+     */
+    public static final int footerSize = 8;
+    /**
+     * The maximal size of a bgzf block, compressed or inflated.
+     */
+    public static final int maxBlockSize = 65536;
+
+    /**
+     * Returns the total size of the block starting with the given header, -1
+     * if the header is not the header of a bgzf block. The buffer must be
+     * little-endian, the header is read from index 0.
+     *
+     * @param header the first bytes of the block
+     *
+     * @return the total size of the block
+     */
+    public static int getBlockSize(ByteBuffer header) {
+
+        boolean bgzf = (header.get(0) & 0xff) == 31
+                && (header.get(1) & 0xff) == 139
+                && header.get(2) == 8
+                && (header.get(3) & 4) != 0
+                && header.getShort(10) == 6
+                && header.get(12) == 'B'
+                && header.get(13) == 'C'
+                && header.getShort(14) == 2;
+
+        return bgzf ? (header.getShort(16) & 0xffff) + 1 : -1;
+
+    }
+
+    /**
+     * Returns the inflated size of a block as written in its footer.
+     *
+     * @param block the bytes of the block
+     * @param blockSize the total size of the block
+     *
+     * @return the inflated size of the block
+     */
+    public static int getInflatedSize(byte[] block, int blockSize) {
+
+        return (block[blockSize - 4] & 0xff)
+                | (block[blockSize - 3] & 0xff) << 8
+                | (block[blockSize - 2] & 0xff) << 16
+                | (block[blockSize - 1] & 0xff) << 24;
+
+    }
+
+    /**
+     * Inflates a block into the given array.
+     *
+     * @param inflater the inflater to use, for raw deflate data
+     * @param block the bytes of the block
+     * @param blockSize the total size of the block
+     * @param destination the array where to inflate the block, at least as
+     * large as the inflated block
+     * @param blockOffset the offset of the block in the file
+     *
+     * @return the inflated size of the block
+     */
+    public static int inflate(Inflater inflater, byte[] block, int blockSize, byte[] destination, long blockOffset) {
+
+        int inflatedSize = getInflatedSize(block, blockSize);
+
+        inflater.reset();
+        inflater.setInput(block, headerSize, blockSize - headerSize - footerSize);
+
+        int inflatedLength = 0;
+
+        try {
+
+            while (inflatedLength < inflatedSize && !inflater.finished()) {
+
+                int read = inflater.inflate(destination, inflatedLength, inflatedSize - inflatedLength);
+
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+
+                    break;
+
+                }
+
+                inflatedLength += read;
+
+            }
+
+        } catch (DataFormatException e) {
+
+            throw new IllegalArgumentException("Corrupted bgzf block at offset " + blockOffset + ".", e);
+
+        }
+
+        if (inflatedLength != inflatedSize) {
+
+            throw new IllegalArgumentException("Corrupted bgzf block at offset " + blockOffset + ".");
+
+        }
+
+        return inflatedSize;
+
+    }
+}
@@ -0,0 +1,192 @@
+package no.uib.drs.io.bgzf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import static no.uib.drs.io.Utils.encoding;
+
+/**
+ * Splits the lines of a stream into batches processed on worker threads. The
+ * lines are read by the calling thread, batches are mapped on the worker
+ * threads, and the results are passed to the consumer on the calling thread,
+ * either in the order of the lines or as soon as they are available.
+ *
+ * @author Marc Vaudel
+ */
+public class LineBatchProcessor {
+
+    /**
+     * The default number of lines per batch.
+     */
+    public static final int defaultBatchSize = 256;
+    /**
+     * The executor processing the batches.
+     */
+    private final ExecutorService executor;
+    /**
+     * The number of lines per batch.
+     */
+    private final int batchSize;
+    /**
+     * The maximal number of batches submitted and not yet consumed.
+     */
+    private final int nPending;
+
+    /**
+     * Constructor.
+     *
+     * @param executor the executor processing the batches
+     * @param batchSize the number of lines per batch
+     * @param nPending the maximal number of batches submitted and not yet
+     * consumed
+     */
+    public LineBatchProcessor(ExecutorService executor, int batchSize, int nPending) {
+
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.nPending = nPending;
+
+    }
+
+    /**
+     * Reads the lines of the given stream by batches, maps every batch on the
+     * worker threads, and passes the results to the consumer on the calling
+     * thread.
+     *
+     * @param <T> the type of the results of the batches
+     * @param inputStream the stream to read
+     * @param mapper the function mapping a batch of lines to a result
+     * @param consumer the consumer of the results
+     * @param ordered boolean indicating whether the results should be
+     * consumed in the order of the lines
+     */
+    public <T> void process(InputStream inputStream, Function<ArrayList<String>, T> mapper, Consumer<T> consumer, boolean ordered) {
+
+        ArrayDeque<Future<T>> pending = new ArrayDeque<>(nPending);
+        CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+
+        try {
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, encoding));
+            ArrayList<String> batch = new ArrayList<>(batchSize);
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+
+                batch.add(line);
+
+                if (batch.size() == batchSize) {
+
+                    submit(batch, mapper, consumer, ordered, pending, completionService);
+                    batch = new ArrayList<>(batchSize);
+
+                }
+            }
+
+            if (!batch.isEmpty()) {
+
+                submit(batch, mapper, consumer, ordered, pending, completionService);
+
+            }
+
+            while (!pending.isEmpty()) {
+
+                consumeNext(consumer, ordered, pending, completionService);
+
+            }
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        } finally {
+
+            pending.forEach(future -> future.cancel(true));
+
+        }
+    }
+
+    /**
+     * Submits a batch, after consuming the result of a previous batch if the
+     * maximal number of pending batches is reached.
+     *
+     * @param <T> the type of the results of the batches
+     * @param batch the batch
+     * @param mapper the function mapping a batch of lines to a result
+     * @param consumer the consumer of the results
+     * @param ordered boolean indicating whether the results should be
+     * consumed in the order of the lines
+     * @param pending the batches submitted and not yet consumed
+     * @param completionService the completion service of the executor
+     */
+    private <T> void submit(ArrayList<String> batch, Function<ArrayList<String>, T> mapper, Consumer<T> consumer, boolean ordered, ArrayDeque<Future<T>> pending, CompletionService<T> completionService) {
+
+        if (pending.size() >= nPending) {
+
+            consumeNext(consumer, ordered, pending, completionService);
+
+        }
+
+        pending.add(ordered
+                ? executor.submit(() -> mapper.apply(batch))
+                : completionService.submit(() -> mapper.apply(batch)));
+
+    }
+
+    /**
+     * Waits for the next result and passes it to the consumer: the first
+     * batch submitted if ordered, the first batch completed otherwise.
+     *
+     * @param <T> the type of the results of the batches
+     * @param consumer the consumer of the results
+     * @param ordered boolean indicating whether the results should be
+     * consumed in the order of the lines
+     * @param pending the batches submitted and not yet consumed
+     * @param completionService the completion service of the executor
+     */
+    private <T> void consumeNext(Consumer<T> consumer, boolean ordered, ArrayDeque<Future<T>> pending, CompletionService<T> completionService) {
+
+        try {
+
+            Future<T> future;
+
+            if (ordered) {
+
+                future = pending.poll();
+
+            } else {
+
+                future = completionService.take();
+                pending.remove(future);
+
+            }
+
+            consumer.accept(future.get());
+
+        } catch (InterruptedException e) {
+
+            throw new RuntimeException(e);
+
+        } catch (ExecutionException e) {
+
+            if (e.getCause() instanceof RuntimeException) {
+
+                throw (RuntimeException) e.getCause();
+
+            }
+
+            throw new RuntimeException(e.getCause());
+
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package no.uib.drs.io.bgzf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of bgzf files mapped in memory. Blocks are read from the mapping and
+ * inflated one at a time into the same array, which is valid until the next
+ * block is read. Files larger than a mapping are mapped in segments
+ * overlapping by the maximal size of a block, such that every block is
+ * contained in the segment where it starts.
+ *
+ * @author Marc Vaudel
+ */
+public class MappedBgzfReader implements AutoCloseable {
+
+    /**
+     * The size of the segments of the file mapped.
+     */
+    public static final long segmentSize = 1L << 30;
+    /**
+     * The file.
+     */
+    private final File file;
+    /**
+     * The size of the file.
+     */
+    private final long fileSize;
+    /**
+     * The mapped segments of the file.
+     */
+    private final MappedByteBuffer[] segments;
+    /**
+     * The inflater.
+     */
+    private final Inflater inflater = new Inflater(true);
+    /**
+     * The bytes of the current block as found in the file.
+     */
+    private final byte[] compressed = new byte[BgzfBlock.maxBlockSize];
+    /**
+     * The inflated content of the current block.
+     */
+    private final byte[] block = new byte[BgzfBlock.maxBlockSize];
+    /**
+     * The inflated size of the current block.
+     */
+    private int blockLength = 0;
+    /**
+     * The offset of the current block in the file.
+     */
+    private long blockOffset = 0;
+    /**
+     * The offset of the next block in the file.
+     */
+    private long nextBlockOffset = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param file the bgzf file
+     */
+    public MappedBgzfReader(File file) {
+
+        this.file = file;
+
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            fileSize = fileChannel.size();
+            segments = new MappedByteBuffer[(int) ((fileSize + segmentSize - 1) / segmentSize)];
+
+            for (int i = 0; i < segments.length; i++) {
+
+                long start = i * segmentSize;
+                long length = Math.min(segmentSize + BgzfBlock.maxBlockSize, fileSize - start);
+
+                segments[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, start, length);
+
+            }
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Moves to the block of the given virtual offset. The block is inflated
+     * and the position in the block is returned.
+     *
+     * @param virtualOffset the virtual offset: offset of the block in the
+     * file shifted by 16 bits, and position in the inflated block
+     *
+     * @return the position in the inflated block, -1 if no block is found
+     * at this offset
+     */
+    public int seek(long virtualOffset) {
+
+        nextBlockOffset = virtualOffset >>> 16;
+
+        return nextBlock() ? (int) (virtualOffset & 0xffff) : -1;
+
+    }
+
+    /**
+     * Reads and inflates the next non-empty block.
+     *
+     * @return a boolean indicating whether a block was read, false at the end
+     * of the file
+     */
+    public boolean nextBlock() {
+
+        while (nextBlockOffset < fileSize) {
+
+            int segment = (int) (nextBlockOffset / segmentSize);
+            int position = (int) (nextBlockOffset - segment * segmentSize);
+
+            ByteBuffer view = segments[segment].duplicate();
+
+            if (view.limit() - position < BgzfBlock.headerSize) {
+
+                throw new IllegalArgumentException("Truncated bgzf block at offset " + nextBlockOffset + " in " + file.getAbsolutePath() + ".");
+
+            }
+
+            view.position(position);
+            ByteBuffer header = view.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+            int blockSize = BgzfBlock.getBlockSize(header);
+
+            if (blockSize == -1 || blockSize > view.remaining()) {
+
+                throw new IllegalArgumentException("Invalid bgzf block at offset " + nextBlockOffset + " in " + file.getAbsolutePath() + ".");
+
+            }
+
+            view.get(compressed, 0, blockSize);
+
+            blockOffset = nextBlockOffset;
+            blockLength = BgzfBlock.inflate(inflater, compressed, blockSize, block, blockOffset);
+            nextBlockOffset += blockSize;
+
+            if (blockLength > 0) {
+
+                return true;
+
+            }
+        }
+
+        blockLength = 0;
+
+        return false;
+
+    }
+
+    /**
+     * Returns the array containing the inflated content of the current block.
+     * The array is overwritten when the next block is read.
+     *
+     * @return the array containing the inflated content of the current block
+     */
+    public byte[] getBlock() {
+
+        return block;
+
+    }
+
+    /**
+     * Returns the inflated size of the current block.
+     *
+     * @return the inflated size of the current block
+     */
+    public int getBlockLength() {
+
+        return blockLength;
+
+    }
+
+    /**
+     * Returns the offset of the current block in the file.
+     *
+     * @return the offset of the current block in the file
+     */
+    public long getBlockOffset() {
+
+        return blockOffset;
+
+    }
+
+    @Override
+    public void close() {
+
+        inflater.end();
+
+    }
+}
@@ -0,0 +1,356 @@
+package no.uib.drs.io.bgzf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream of the inflated content of a bgzf file where blocks are
+ * inflated ahead on worker threads. The compressed file is split at block
+ * boundaries by the reading thread, blocks are inflated independently, and
+ * their content is returned in the order of the file.
+ *
+ * @author Marc Vaudel
+ */
+public class ParallelBgzfInputStream extends InputStream {
+
+    /**
+     * The default number of blocks inflated ahead of the reading position.
+     */
+    public static final int defaultBlocksAhead = 64;
+    /**
+     * The executor shared by the streams created without executor, one
+     * thread per available processor.
+     */
+    private static ExecutorService sharedExecutor = null;
+    /**
+     * The inflater of every worker thread.
+     */
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    /**
+     * The channel to the compressed file.
+     */
+    private final FileChannel channel;
+    /**
+     * The size of the compressed file.
+     */
+    private final long fileSize;
+    /**
+     * The executor inflating the blocks.
+     */
+    private final ExecutorService executor;
+    /**
+     * The maximal number of blocks inflated ahead.
+     */
+    private final int nBlocksAhead;
+    /**
+     * The blocks submitted for inflation in the order of the file.
+     */
+    private final ArrayDeque<Future<byte[]>> pendingBlocks;
+    /**
+     * The offset in the compressed file of the next block to submit.
+     */
+    private long nextBlockOffset;
+    /**
+     * The content of the current block.
+     */
+    private byte[] block = new byte[0];
+    /**
+     * The index of the next byte to read in the current block.
+     */
+    private int blockPosition = 0;
+
+    /**
+     * Constructor. Reads the whole file using the shared executor.
+     *
+     * @param file the bgzf file
+     */
+    public ParallelBgzfInputStream(File file) {
+
+        this(file, 0, getSharedExecutor(), defaultBlocksAhead);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param file the bgzf file
+     * @param virtualOffset the virtual offset where to start reading: the
+     * offset of the block in the compressed file shifted by 16 bits, plus the
+     * offset in the inflated block
+     * @param executor the executor inflating the blocks, the tasks submitted
+     * do not block
+     * @param nBlocksAhead the maximal number of blocks inflated ahead
+     */
+    public ParallelBgzfInputStream(File file, long virtualOffset, ExecutorService executor, int nBlocksAhead) {
+
+        this.executor = executor;
+        this.nBlocksAhead = nBlocksAhead;
+
+        pendingBlocks = new ArrayDeque<>(nBlocksAhead);
+        nextBlockOffset = virtualOffset >>> 16;
+
+        try {
+
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            fileSize = channel.size();
+
+            submitBlocks();
+
+            if (nextBlock()) {
+
+                blockPosition = (int) (virtualOffset & 0xffff);
+
+            }
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Returns the executor shared by the streams created without executor.
+     *
+     * @return the shared executor
+     */
+    public static synchronized ExecutorService getSharedExecutor() {
+
+        if (sharedExecutor == null) {
+
+            sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+
+                Thread thread = new Thread(runnable, "bgzf-inflater");
+                thread.setDaemon(true);
+
+                return thread;
+
+            });
+        }
+
+        return sharedExecutor;
+
+    }
+
+    /**
+     * Indicates whether the given file starts with a bgzf block.
+     *
+     * @param file the file
+     *
+     * @return a boolean indicating whether the given file starts with a bgzf
+     * block
+     */
+    public static boolean isBgzf(File file) {
+
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            ByteBuffer header = ByteBuffer.allocate(BgzfBlock.headerSize).order(ByteOrder.LITTLE_ENDIAN);
+
+            int read = 0;
+
+            while (header.hasRemaining() && read != -1) {
+
+                read = fileChannel.read(header);
+
+            }
+
+            return !header.hasRemaining() && BgzfBlock.getBlockSize(header) > 0;
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Reads the next blocks from the compressed file and submits them for
+     * inflation until the maximal number of blocks ahead is reached.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private void submitBlocks() throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(BgzfBlock.headerSize).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (pendingBlocks.size() < nBlocksAhead && nextBlockOffset < fileSize) {
+
+            header.clear();
+            readFully(header, nextBlockOffset);
+
+            int blockSize = BgzfBlock.getBlockSize(header);
+
+            if (blockSize == -1) {
+
+                throw new IllegalArgumentException("Unexpected bgzf block header at offset " + nextBlockOffset + ".");
+
+            }
+
+            ByteBuffer compressed = ByteBuffer.allocate(blockSize);
+            readFully(compressed, nextBlockOffset);
+
+            long blockOffset = nextBlockOffset;
+            pendingBlocks.add(executor.submit(() -> inflate(compressed.array(), blockOffset)));
+
+            nextBlockOffset += blockSize;
+
+        }
+    }
+
+    /**
+     * Fills the given buffer with the bytes of the file starting at the given
+     * offset.
+     *
+     * @param buffer the buffer
+     * @param offset the offset in the file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+
+        while (buffer.hasRemaining()) {
+
+            int read = channel.read(buffer, offset);
+
+            if (read == -1) {
+
+                throw new IllegalArgumentException("Truncated bgzf block at offset " + offset + ".");
+
+            }
+
+            offset += read;
+
+        }
+    }
+
+    /**
+     * Inflates a bgzf block.
+     *
+     * @param compressed the bytes of the block
+     * @param blockOffset the offset of the block in the file
+     *
+     * @return the inflated content of the block
+     */
+    private static byte[] inflate(byte[] compressed, long blockOffset) {
+
+        byte[] inflated = new byte[BgzfBlock.getInflatedSize(compressed, compressed.length)];
+
+        BgzfBlock.inflate(inflaters.get(), compressed, compressed.length, inflated, blockOffset);
+
+        return inflated;
+
+    }
+
+    /**
+     * Moves to the next non-empty block.
+     *
+     * @return a boolean indicating whether a block was found, false at the
+     * end of the file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or inflating the file
+     */
+    private boolean nextBlock() throws IOException {
+
+        do {
+
+            Future<byte[]> future = pendingBlocks.poll();
+
+            if (future == null) {
+
+                block = new byte[0];
+                blockPosition = 0;
+
+                return false;
+
+            }
+
+            try {
+
+                block = future.get();
+
+            } catch (InterruptedException e) {
+
+                throw new IOException(e);
+
+            } catch (ExecutionException e) {
+
+                if (e.getCause() instanceof RuntimeException) {
+
+                    throw (RuntimeException) e.getCause();
+
+                }
+
+                throw new IOException(e.getCause());
+
+            }
+
+            blockPosition = 0;
+
+            submitBlocks();
+
+        } while (block.length == 0);
+
+        return true;
+
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        if (blockPosition == block.length && !nextBlock()) {
+
+            return -1;
+
+        }
+
+        return block[blockPosition++] & 0xff;
+
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+
+        if (length == 0) {
+
+            return 0;
+
+        }
+
+        if (blockPosition == block.length && !nextBlock()) {
+
+            return -1;
+
+        }
+
+        int read = Math.min(length, block.length - blockPosition);
+        System.arraycopy(block, blockPosition, buffer, offset, read);
+        blockPosition += read;
+
+        return read;
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        pendingBlocks.forEach(future -> future.cancel(false));
+        pendingBlocks.clear();
+
+        channel.close();
+
+    }
+}
@@ -0,0 +1,272 @@
+package no.uib.drs.io.matrix;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a contribution matrix written by the ContributionMatrixWriter. The
+ * header and footer are read when opening the file, the column chunks are
+ * memory mapped and inflated on demand.
+ *
+ * @author Marc Vaudel
+ */
+public class ContributionMatrixReader implements AutoCloseable {
+
+    /**
+     * The names of the features.
+     */
+    public final String[] featureNames;
+    /**
+     * The names of the samples.
+     */
+    public final ArrayList<String> sampleNames;
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel channel;
+    /**
+     * The index of the first sample of every sample range.
+     */
+    private final int[] rangeFirstSamples;
+    /**
+     * The number of samples of every sample range.
+     */
+    private final int[] rangeSizes;
+    /**
+     * The offsets of the column chunks indexed by sample range and feature.
+     */
+    private final long[][] offsets;
+    /**
+     * The compressed lengths of the column chunks indexed by sample range and
+     * feature.
+     */
+    private final int[][] lengths;
+    /**
+     * The index of every feature.
+     */
+    private final HashMap<String, Integer> featureIndexes;
+
+    /**
+     * Constructor.
+     *
+     * @param file the contribution matrix file
+     */
+    public ContributionMatrixReader(File file) {
+
+        try {
+
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+            long size = channel.size();
+            MappedByteBuffer start = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, 12));
+
+            if (size < 20 || start.getLong() != ContributionMatrixWriter.magicNumber) {
+
+                throw new IllegalArgumentException("File " + file.getAbsolutePath() + " is not a contribution matrix.");
+
+            }
+
+            int headerLength = start.getInt();
+            byte[] header = new byte[headerLength];
+            channel.map(FileChannel.MapMode.READ_ONLY, 12, headerLength).get(header);
+
+            try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(header))) {
+
+                featureNames = new String[input.readInt()];
+
+                for (int feature = 0; feature < featureNames.length; feature++) {
+
+                    featureNames[feature] = input.readUTF();
+
+                }
+
+                int nSamples = input.readInt();
+                sampleNames = new ArrayList<>(nSamples);
+
+                for (int i = 0; i < nSamples; i++) {
+
+                    sampleNames.add(input.readUTF());
+
+                }
+            }
+
+            long footerOffset = channel.map(FileChannel.MapMode.READ_ONLY, size - 8, 8).getLong();
+            MappedByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, footerOffset, size - 8 - footerOffset);
+
+            int nRanges = footer.getInt();
+            rangeFirstSamples = new int[nRanges];
+            rangeSizes = new int[nRanges];
+            offsets = new long[nRanges][featureNames.length];
+            lengths = new int[nRanges][featureNames.length];
+
+            for (int range = 0; range < nRanges; range++) {
+
+                rangeFirstSamples[range] = footer.getInt();
+                rangeSizes[range] = footer.getInt();
+
+                for (int feature = 0; feature < featureNames.length; feature++) {
+
+                    offsets[range][feature] = footer.getLong();
+                    lengths[range][feature] = footer.getInt();
+
+                }
+            }
+
+            featureIndexes = new HashMap<>(featureNames.length);
+
+            for (int feature = 0; feature < featureNames.length; feature++) {
+
+                featureIndexes.put(featureNames[feature], feature);
+
+            }
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Returns the index of the feature with the given name, -1 if not found.
+     *
+     * @param featureName the name of the feature
+     *
+     * @return the index of the feature
+     */
+    public int getFeatureIndex(String featureName) {
+
+        Integer index = featureIndexes.get(featureName);
+
+        return index == null ? -1 : index;
+
+    }
+
+    /**
+     * Returns the contributions of the feature with the given name to the
+     * scores of all samples.
+     *
+     * @param featureName the name of the feature
+     *
+     * @return the contributions of the feature
+     */
+    public float[] getContributions(String featureName) {
+
+        int feature = getFeatureIndex(featureName);
+
+        if (feature == -1) {
+
+            throw new IllegalArgumentException("Feature " + featureName + " not found.");
+
+        }
+
+        return getContributions(feature);
+
+    }
+
+    /**
+     * Returns the contributions of a feature to the scores of all samples.
+     * Samples for which no contribution was written get zero.
+     *
+     * @param feature the index of the feature
+     *
+     * @return the contributions of the feature
+     */
+    public float[] getContributions(int feature) {
+
+        float[] result = new float[sampleNames.size()];
+
+        for (int range = 0; range < rangeSizes.length; range++) {
+
+            if (lengths[range][feature] != -1) {
+
+                readChunk(range, feature, result);
+
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Inflates a column chunk into the given array.
+     *
+     * @param range the index of the sample range
+     * @param feature the index of the feature
+     * @param destination the contributions of all samples
+     */
+    private void readChunk(int range, int feature, float[] destination) {
+
+        int nSamples = rangeSizes[range];
+        int firstSample = rangeFirstSamples[range];
+
+        try {
+
+            byte[] compressed = new byte[lengths[range][feature]];
+            channel.map(FileChannel.MapMode.READ_ONLY, offsets[range][feature], compressed.length).get(compressed);
+
+            byte[] planes = new byte[4 * nSamples];
+
+            Inflater inflater = new Inflater();
+            inflater.setInput(compressed);
+
+            int length = 0;
+
+            while (length < planes.length && !inflater.finished()) {
+
+                int inflated = inflater.inflate(planes, length, planes.length - length);
+
+                if (inflated == 0 && inflater.needsInput()) {
+
+                    throw new IllegalArgumentException("Truncated contributions for feature " + featureNames[feature] + ".");
+
+                }
+
+                length += inflated;
+
+            }
+
+            inflater.end();
+
+            for (int i = 0; i < nSamples; i++) {
+
+                int bits = (planes[i] & 0xff) << 24
+                        | (planes[nSamples + i] & 0xff) << 16
+                        | (planes[2 * nSamples + i] & 0xff) << 8
+                        | (planes[3 * nSamples + i] & 0xff);
+
+                destination[firstSample + i] = Float.intBitsToFloat(bits);
+
+            }
+
+        } catch (IOException | DataFormatException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    @Override
+    public void close() {
+
+        try {
+
+            channel.close();
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package no.uib.drs.io.matrix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the contributions of scoring features to the scores of samples as a
+ * features by samples matrix of floats in a binary columnar format. The
+ * contributions of a feature for a range of samples form a column chunk,
+ * compressed independently so that the contributions of a feature can be
+ * read without inflating the rest of the matrix. The file is laid out as
+ * follows, all numbers big-endian:
+ *
+ * - the magic number, then the length of the header and the header: the
+ * number of features and their names, the number of samples and their names,
+ * as written by DataOutputStream.
+ *
+ * - the column chunks in the order they were written. The four bytes of the
+ * floats of a chunk are grouped by byte rank before compression, which
+ * compresses better as contributions take few distinct values.
+ *
+ * - the footer: the number of sample ranges, and for every range the index
+ * of its first sample, its number of samples, and for every feature the
+ * offset and compressed length of its chunk, -1 if no contribution was
+ * written.
+ *
+ * - the offset of the footer.
+ *
+ * @author Marc Vaudel
+ */
+public class ContributionMatrixWriter implements AutoCloseable {
+
+    /**
+     * The magic number at the start of contribution matrix files.
+     */
+    public static final long magicNumber = 0x4452534D41545631L;
+    /**
+     * The file to write to.
+     */
+    private final RandomAccessFile raf;
+    /**
+     * The number of features.
+     */
+    private final int nFeatures;
+    /**
+     * The offsets of the column chunks indexed by first sample and feature.
+     */
+    private final TreeMap<Integer, long[]> offsets = new TreeMap<>();
+    /**
+     * The compressed lengths of the column chunks indexed by first sample and
+     * feature.
+     */
+    private final TreeMap<Integer, int[]> lengths = new TreeMap<>();
+    /**
+     * The number of samples of every sample range indexed by first sample.
+     */
+    private final TreeMap<Integer, Integer> rangeSizes = new TreeMap<>();
+
+    /**
+     * Constructor. Writes the header.
+     *
+     * @param file the file to write to
+     * @param featureNames the names of the features
+     * @param sampleNames the names of the samples
+     */
+    public ContributionMatrixWriter(File file, String[] featureNames, ArrayList<String> sampleNames) {
+
+        nFeatures = featureNames.length;
+
+        try {
+
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+
+            try (DataOutputStream header = new DataOutputStream(headerBytes)) {
+
+                header.writeInt(featureNames.length);
+
+                for (String featureName : featureNames) {
+
+                    header.writeUTF(featureName);
+
+                }
+
+                header.writeInt(sampleNames.size());
+
+                for (String sampleName : sampleNames) {
+
+                    header.writeUTF(sampleName);
+
+                }
+            }
+
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            raf.writeLong(magicNumber);
+            raf.writeInt(headerBytes.size());
+            raf.write(headerBytes.toByteArray());
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Writes the contributions of a feature to the scores of a range of
+     * samples. The contributions are compressed by the calling thread.
+     *
+     * @param feature the index of the feature
+     * @param firstSample the index of the first sample of the range
+     * @param contributions the contributions of the feature to the samples of
+     * the range
+     */
+    public void write(int feature, int firstSample, double[] contributions) {
+
+        int nSamples = contributions.length;
+        byte[] planes = new byte[4 * nSamples];
+
+        for (int i = 0; i < nSamples; i++) {
+
+            int bits = Float.floatToIntBits((float) contributions[i]);
+
+            planes[i] = (byte) (bits >>> 24);
+            planes[nSamples + i] = (byte) (bits >>> 16);
+            planes[2 * nSamples + i] = (byte) (bits >>> 8);
+            planes[3 * nSamples + i] = (byte) bits;
+
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(planes);
+        deflater.finish();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(planes.length / 4 + 64);
+        byte[] buffer = new byte[65536];
+
+        while (!deflater.finished()) {
+
+            int length = deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+
+        }
+
+        deflater.end();
+
+        append(feature, firstSample, nSamples, compressed.toByteArray());
+
+    }
+
+    /**
+     * Appends a compressed column chunk to the file.
+     *
+     * @param feature the index of the feature
+     * @param firstSample the index of the first sample of the range
+     * @param nSamples the number of samples of the range
+     * @param chunk the compressed column chunk
+     */
+    private synchronized void append(int feature, int firstSample, int nSamples, byte[] chunk) {
+
+        Integer rangeSize = rangeSizes.get(firstSample);
+
+        if (rangeSize == null) {
+
+            rangeSizes.put(firstSample, nSamples);
+
+            long[] rangeOffsets = new long[nFeatures];
+            Arrays.fill(rangeOffsets, -1);
+            offsets.put(firstSample, rangeOffsets);
+
+            int[] rangeLengths = new int[nFeatures];
+            Arrays.fill(rangeLengths, -1);
+            lengths.put(firstSample, rangeLengths);
+
+        } else if (rangeSize != nSamples) {
+
+            throw new IllegalArgumentException("Contributions for " + nSamples + " samples written for a range of " + rangeSize + " samples starting at sample " + firstSample + ".");
+
+        }
+
+        try {
+
+            long offset = raf.length();
+
+            raf.seek(offset);
+            raf.write(chunk);
+
+            offsets.get(firstSample)[feature] = offset;
+            lengths.get(firstSample)[feature] = chunk.length;
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Writes the footer and closes the file.
+     */
+    @Override
+    public synchronized void close() {
+
+        try {
+
+            long footerOffset = raf.length();
+
+            ByteBuffer footer = ByteBuffer.allocate(4 + rangeSizes.size() * (8 + 12 * nFeatures) + 8);
+            footer.putInt(rangeSizes.size());
+
+            for (Entry<Integer, Integer> entry : rangeSizes.entrySet()) {
+
+                int firstSample = entry.getKey();
+                long[] rangeOffsets = offsets.get(firstSample);
+                int[] rangeLengths = lengths.get(firstSample);
+
+                footer.putInt(firstSample)
+                        .putInt(entry.getValue());
+
+                for (int feature = 0; feature < nFeatures; feature++) {
+
+                    footer.putLong(rangeOffsets[feature])
+                            .putInt(rangeLengths[feature]);
+
+                }
+            }
+
+            footer.putLong(footerOffset);
+
+            raf.seek(footerOffset);
+            raf.write(footer.array());
+            raf.close();
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+}
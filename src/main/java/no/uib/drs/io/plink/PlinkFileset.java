@@ -0,0 +1,623 @@
+package no.uib.drs.io.plink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.Collectors;
+import static no.uib.drs.io.Utils.readLines;
+
+/**
+ * A PLINK 1 binary fileset: the .bed file of genotypes, the .bim file of
+ * variants and the .fam file of samples sharing the same stem. The .bed file
+ * is mapped in memory and its rows of packed genotypes are read in place. The
+ * .bim file is mapped as well and indexed once: the chromosome and position of
+ * every variant are parsed, and the variants of every chromosome are sorted
+ * by position. The other fields of a variant are parsed from the mapping when
+ * needed. Files larger than a mapping are mapped in segments overlapping by
+ * the length of a row, such that every row is contained in the segment where
+ * it starts. A fileset can be shared by the readers of all threads.
+ *
+ * @author Marc Vaudel
+ */
+public class PlinkFileset {
+
+    /**
+     * The extension of .bed files.
+     */
+    public static final String bedExtension = ".bed";
+    /**
+     * The magic number at the start of variant-major .bed files.
+     */
+    public static final byte[] magicNumber = {0x6c, 0x1b, 0x01};
+    /**
+     * The size of the segments of the .bed file mapped.
+     */
+    public static final long segmentSize = 1L << 30;
+    /**
+     * The .bed file.
+     */
+    public final File bedFile;
+    /**
+     * The number of samples.
+     */
+    public final int nSamples;
+    /**
+     * The number of variants.
+     */
+    public final int nVariants;
+    /**
+     * The number of bytes of the row of a variant in the .bed file.
+     */
+    public final int rowLength;
+    /**
+     * The ordered sample names.
+     */
+    private final ArrayList<String> sampleNames;
+    /**
+     * The mapped segments of the .bed file.
+     */
+    private final MappedByteBuffer[] segments;
+    /**
+     * The mapped .bim file.
+     */
+    private final MappedByteBuffer bim;
+    /**
+     * The offset of the line of every variant in the .bim file.
+     */
+    private final int[] lineStarts;
+    /**
+     * The position of every variant.
+     */
+    private final int[] positions;
+    /**
+     * The index of the chromosome of every variant.
+     */
+    private final int[] chrIndexes;
+    /**
+     * The chromosomes in the order of the .bim file.
+     */
+    private final ArrayList<String> chromosomes = new ArrayList<>();
+    /**
+     * The variants of every chromosome sorted by position.
+     */
+    private final HashMap<String, int[]> chrVariants = new HashMap<>();
+    /**
+     * The positions of the variants of every chromosome in ascending order.
+     */
+    private final HashMap<String, int[]> chrPositions = new HashMap<>();
+
+    /**
+     * Constructor. The .bim and .fam files are expected next to the .bed
+     * file.
+     *
+     * @param bedFile the .bed file
+     */
+    public PlinkFileset(File bedFile) {
+
+        this.bedFile = bedFile;
+
+        File famFile = getSiblingFile(bedFile, ".fam");
+        File bimFile = getSiblingFile(bedFile, ".bim");
+
+        sampleNames = readLines(famFile).stream()
+                .map(line -> line.split("\\s+"))
+                .map(fields -> {
+
+                    if (fields.length < 2) {
+
+                        throw new IllegalArgumentException("Sample id not found in line " + String.join(" ", fields) + " of " + famFile.getAbsolutePath() + ".");
+
+                    }
+
+                    return fields[1];
+
+                })
+                .collect(Collectors.toCollection(ArrayList::new));
+
+        nSamples = sampleNames.size();
+        rowLength = (nSamples + 3) >>> 2;
+
+        try (FileChannel bimChannel = FileChannel.open(bimFile.toPath(), StandardOpenOption.READ)) {
+
+            if (bimChannel.size() > Integer.MAX_VALUE) {
+
+                throw new IllegalArgumentException("Bim file " + bimFile.getAbsolutePath() + " larger than 2 GB not supported.");
+
+            }
+
+            bim = bimChannel.map(FileChannel.MapMode.READ_ONLY, 0, bimChannel.size());
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+
+        int[] starts = new int[1024];
+        int[] bps = new int[1024];
+        int[] chrs = new int[1024];
+        int nLines = 0;
+
+        HashMap<String, Integer> chrIndexMap = new HashMap<>();
+        byte[] lastChr = new byte[0];
+        int lastChrIndex = -1;
+
+        int length = bim.limit();
+        int lineStart = 0;
+
+        while (lineStart < length) {
+
+            int lineEnd = lineStart;
+
+            while (lineEnd < length && bim.get(lineEnd) != '\n') {
+
+                lineEnd++;
+
+            }
+
+            int chrEnd = getFieldEnd(lineStart, lineEnd);
+
+            if (chrEnd > lineStart) {
+
+                int bpStart = skipFields(lineStart, lineEnd, 3);
+                int bpEnd = getFieldEnd(bpStart, lineEnd);
+
+                if (bpStart == bpEnd) {
+
+                    throw new IllegalArgumentException("Position not found for variant " + (nLines + 1) + " in " + bimFile.getAbsolutePath() + ".");
+
+                }
+
+                if (!equals(lastChr, lineStart, chrEnd)) {
+
+                    String chr = getString(lineStart, chrEnd);
+                    lastChr = chr.getBytes(StandardCharsets.UTF_8);
+                    Integer chrIndex = chrIndexMap.get(chr);
+
+                    if (chrIndex == null) {
+
+                        chrIndex = chromosomes.size();
+                        chromosomes.add(chr);
+                        chrIndexMap.put(chr, chrIndex);
+
+                    }
+
+                    lastChrIndex = chrIndex;
+
+                }
+
+                if (nLines == starts.length) {
+
+                    starts = Arrays.copyOf(starts, 2 * nLines);
+                    bps = Arrays.copyOf(bps, 2 * nLines);
+                    chrs = Arrays.copyOf(chrs, 2 * nLines);
+
+                }
+
+                starts[nLines] = lineStart;
+                bps[nLines] = parseInt(bpStart, bpEnd, bimFile);
+                chrs[nLines] = lastChrIndex;
+                nLines++;
+
+            }
+
+            lineStart = lineEnd + 1;
+
+        }
+
+        nVariants = nLines;
+        lineStarts = Arrays.copyOf(starts, nLines);
+        positions = Arrays.copyOf(bps, nLines);
+        chrIndexes = Arrays.copyOf(chrs, nLines);
+
+        indexChromosomes();
+
+        try (FileChannel bedChannel = FileChannel.open(bedFile.toPath(), StandardOpenOption.READ)) {
+
+            long size = bedChannel.size();
+            long expectedSize = magicNumber.length + (long) nVariants * rowLength;
+
+            byte[] start = new byte[magicNumber.length];
+
+            if (size >= magicNumber.length) {
+
+                bedChannel.map(FileChannel.MapMode.READ_ONLY, 0, magicNumber.length).get(start);
+
+            }
+
+            if (!Arrays.equals(start, magicNumber)) {
+
+                throw new IllegalArgumentException("File " + bedFile.getAbsolutePath() + " is not a variant-major PLINK .bed file.");
+
+            }
+
+            if (size != expectedSize) {
+
+                throw new IllegalArgumentException("Unexpected size of " + bedFile.getAbsolutePath() + ": " + size + " bytes found, " + expectedSize + " expected for " + nVariants + " variants and " + nSamples + " samples.");
+
+            }
+
+            segments = new MappedByteBuffer[(int) ((size + segmentSize - 1) / segmentSize)];
+
+            for (int i = 0; i < segments.length; i++) {
+
+                long segmentStart = i * segmentSize;
+                long segmentLength = Math.min(segmentSize + rowLength, size - segmentStart);
+
+                segments[i] = bedChannel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentLength);
+
+            }
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Sorts the variants of every chromosome by position, variants at the
+     * same position are kept in the order of the .bim file.
+     */
+    private void indexChromosomes() {
+
+        int[] chrSizes = new int[chromosomes.size()];
+
+        for (int chrIndex : chrIndexes) {
+
+            chrSizes[chrIndex]++;
+
+        }
+
+        long[][] keys = new long[chromosomes.size()][];
+
+        for (int chrIndex = 0; chrIndex < keys.length; chrIndex++) {
+
+            keys[chrIndex] = new long[chrSizes[chrIndex]];
+
+        }
+
+        int[] filled = new int[chromosomes.size()];
+
+        for (int variant = 0; variant < nVariants; variant++) {
+
+            int chrIndex = chrIndexes[variant];
+            keys[chrIndex][filled[chrIndex]++] = ((long) positions[variant] << 32) | variant;
+
+        }
+
+        for (int chrIndex = 0; chrIndex < keys.length; chrIndex++) {
+
+            long[] chrKeys = keys[chrIndex];
+            Arrays.sort(chrKeys);
+
+            int[] variants = new int[chrKeys.length];
+            int[] bps = new int[chrKeys.length];
+
+            for (int i = 0; i < chrKeys.length; i++) {
+
+                variants[i] = (int) chrKeys[i];
+                bps[i] = (int) (chrKeys[i] >> 32);
+
+            }
+
+            chrVariants.put(chromosomes.get(chrIndex), variants);
+            chrPositions.put(chromosomes.get(chrIndex), bps);
+
+        }
+    }
+
+    /**
+     * Returns the ordered sample names.
+     *
+     * @return the ordered sample names
+     */
+    public ArrayList<String> getSampleNames() {
+
+        return sampleNames;
+
+    }
+
+    /**
+     * Returns the variants of the given chromosome sorted by position, null
+     * if the chromosome is not in the fileset.
+     *
+     * @param chr the chromosome
+     *
+     * @return the variants of the chromosome
+     */
+    public int[] getVariants(String chr) {
+
+        return chrVariants.get(chr);
+
+    }
+
+    /**
+     * Returns the positions of the variants of the given chromosome in
+     * ascending order, null if the chromosome is not in the fileset.
+     *
+     * @param chr the chromosome
+     *
+     * @return the positions of the variants of the chromosome
+     */
+    public int[] getPositions(String chr) {
+
+        return chrPositions.get(chr);
+
+    }
+
+    /**
+     * Returns the chromosome of the given variant.
+     *
+     * @param variant the index of the variant in the .bim file
+     *
+     * @return the chromosome of the variant
+     */
+    public String getChr(int variant) {
+
+        return chromosomes.get(chrIndexes[variant]);
+
+    }
+
+    /**
+     * Returns the position of the given variant.
+     *
+     * @param variant the index of the variant in the .bim file
+     *
+     * @return the position of the variant
+     */
+    public int getPosition(int variant) {
+
+        return positions[variant];
+
+    }
+
+    /**
+     * Returns the id and alleles of the given variant, i.e. the second, fifth
+     * and sixth fields of its line in the .bim file.
+     *
+     * @param variant the index of the variant in the .bim file
+     *
+     * @return the id, the first allele and the second allele of the variant
+     */
+    public String[] getIdAndAlleles(int variant) {
+
+        int lineStart = lineStarts[variant];
+        int lineEnd = lineStart;
+
+        while (lineEnd < bim.limit() && bim.get(lineEnd) != '\n') {
+
+            lineEnd++;
+
+        }
+
+        int idStart = skipFields(lineStart, lineEnd, 1);
+        int idEnd = getFieldEnd(idStart, lineEnd);
+        int a1Start = skipFields(idStart, lineEnd, 3);
+        int a1End = getFieldEnd(a1Start, lineEnd);
+        int a2Start = skipFields(a1Start, lineEnd, 1);
+        int a2End = getFieldEnd(a2Start, lineEnd);
+
+        if (a2Start == a2End) {
+
+            throw new IllegalArgumentException("Alleles not found for variant " + (variant + 1) + " in " + getSiblingFile(bedFile, ".bim").getAbsolutePath() + ".");
+
+        }
+
+        return new String[]{getString(idStart, idEnd), getString(a1Start, a1End), getString(a2Start, a2End)};
+
+    }
+
+    /**
+     * Returns a view on the row of packed genotypes of the given variant in
+     * the .bed file, in little endian order.
+     *
+     * @param variant the index of the variant in the .bed file
+     *
+     * @return a view on the row of the variant
+     */
+    public ByteBuffer getRow(int variant) {
+
+        long offset = magicNumber.length + (long) variant * rowLength;
+        int segment = (int) (offset / segmentSize);
+        int position = (int) (offset - segment * segmentSize);
+
+        ByteBuffer view = segments[segment].duplicate();
+        view.position(position);
+        view.limit(position + rowLength);
+
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+    }
+
+    /**
+     * Returns the index of the first byte after the field starting at the
+     * given index of the .bim file.
+     *
+     * @param fieldStart the index of the start of the field
+     * @param lineEnd the index of the end of the line
+     *
+     * @return the index after the end of the field
+     */
+    private int getFieldEnd(int fieldStart, int lineEnd) {
+
+        int i = fieldStart;
+
+        while (i < lineEnd && !isWhiteSpace(bim.get(i))) {
+
+            i++;
+
+        }
+
+        return i;
+
+    }
+
+    /**
+     * Skips the given number of fields starting at the given index of the
+     * .bim file, fields are separated by tabs or spaces.
+     *
+     * @param fieldStart the index of the start of the first field to skip
+     * @param lineEnd the index of the end of the line
+     * @param nFields the number of fields to skip
+     *
+     * @return the index of the start of the field after the skipped fields
+     */
+    private int skipFields(int fieldStart, int lineEnd, int nFields) {
+
+        int i = fieldStart;
+
+        for (int field = 0; field < nFields; field++) {
+
+            i = getFieldEnd(i, lineEnd);
+
+            while (i < lineEnd && isWhiteSpace(bim.get(i))) {
+
+                i++;
+
+            }
+        }
+
+        return i;
+
+    }
+
+    /**
+     * Indicates whether the given byte separates fields.
+     *
+     * @param b the byte
+     *
+     * @return a boolean indicating whether the byte separates fields
+     */
+    private static boolean isWhiteSpace(byte b) {
+
+        return b == '\t' || b == ' ' || b == '\r';
+
+    }
+
+    /**
+     * Indicates whether the given bytes of the .bim file equal the given
+     * array.
+     *
+     * @param bytes the array
+     * @param start the index of the first byte in the .bim file
+     * @param end the index after the last byte in the .bim file
+     *
+     * @return a boolean indicating whether the bytes are equal
+     */
+    private boolean equals(byte[] bytes, int start, int end) {
+
+        if (end - start != bytes.length) {
+
+            return false;
+
+        }
+
+        for (int i = 0; i < bytes.length; i++) {
+
+            if (bim.get(start + i) != bytes[i]) {
+
+                return false;
+
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Parses a positive integer from the given bytes of the .bim file.
+     *
+     * @param start the index of the first byte
+     * @param end the index after the last byte
+     * @param bimFile the .bim file
+     *
+     * @return the integer
+     */
+    private int parseInt(int start, int end, File bimFile) {
+
+        int value = 0;
+
+        for (int i = start; i < end; i++) {
+
+            int digit = bim.get(i) - '0';
+
+            if (digit < 0 || digit > 9) {
+
+                throw new IllegalArgumentException("Position " + getString(start, end) + " could not be parsed as integer in " + bimFile.getAbsolutePath() + ".");
+
+            }
+
+            value = 10 * value + digit;
+
+        }
+
+        return value;
+
+    }
+
+    /**
+     * Returns the given bytes of the .bim file as string.
+     *
+     * @param start the index of the first byte
+     * @param end the index after the last byte
+     *
+     * @return the bytes as string
+     */
+    private String getString(int start, int end) {
+
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = bim.duplicate();
+        view.position(start);
+        view.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+
+    }
+
+    /**
+     * Returns the file of the fileset with the given extension.
+     *
+     * @param bedFile the .bed file
+     * @param extension the extension
+     *
+     * @return the file with the given extension
+     */
+    private static File getSiblingFile(File bedFile, String extension) {
+
+        String name = bedFile.getName();
+        File file = new File(bedFile.getParentFile(), name.substring(0, name.length() - bedExtension.length()) + extension);
+
+        if (!file.exists()) {
+
+            throw new IllegalArgumentException("File " + file.getAbsolutePath() + " of the PLINK fileset not found.");
+
+        }
+
+        return file;
+
+    }
+
+    /**
+     * Indicates whether the given genotype file is the .bed file of a PLINK
+     * fileset.
+     *
+     * @param file the genotype file
+     *
+     * @return a boolean indicating whether the file is a .bed file
+     */
+    public static boolean isBedFile(File file) {
+
+        return file.getName().toLowerCase().endsWith(bedExtension);
+
+    }
+}
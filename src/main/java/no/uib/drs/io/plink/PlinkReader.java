@@ -0,0 +1,172 @@
+package no.uib.drs.io.plink;
+
+import htsjdk.samtools.util.CloseableIterator;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import no.uib.drs.io.vcf.VariantRecord;
+import no.uib.drs.io.vcf.VariantRecordReader;
+
+/**
+ * Reader of the variants of a PLINK fileset. Regions are located by binary
+ * search in the positions of the chromosome as indexed from the .bim file,
+ * records are created for the variants of the region only and read their
+ * genotypes from the mapped .bed file shared with the other readers.
+ *
+ * @author Marc Vaudel
+ */
+public class PlinkReader implements VariantRecordReader {
+
+    /**
+     * The fileset.
+     */
+    private final PlinkFileset fileset;
+
+    /**
+     * Constructor.
+     *
+     * @param fileset the fileset
+     */
+    public PlinkReader(PlinkFileset fileset) {
+
+        this.fileset = fileset;
+
+    }
+
+    @Override
+    public ArrayList<String> getSampleNames() {
+
+        return fileset.getSampleNames();
+
+    }
+
+    @Override
+    public CloseableIterator<VariantRecord> query(String chr, int start, int end) {
+
+        int[] positions = fileset.getPositions(chr);
+
+        if (positions == null) {
+
+            return new VariantIterator(null, 0, 0);
+
+        }
+
+        int first = getFirstIndex(positions, start);
+        int last = getFirstIndex(positions, end + 1);
+
+        return new VariantIterator(fileset.getVariants(chr), first, last);
+
+    }
+
+    @Override
+    public CloseableIterator<VariantRecord> iterator() {
+
+        return new VariantIterator(null, 0, fileset.nVariants);
+
+    }
+
+    /**
+     * Returns the index of the first position that is not lower than the
+     * given position.
+     *
+     * @param positions the positions in ascending order
+     * @param bp the position
+     *
+     * @return the index of the first position not lower than the given
+     * position, the number of positions if none
+     */
+    private static int getFirstIndex(int[] positions, int bp) {
+
+        int low = 0;
+        int high = positions.length;
+
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+
+            if (positions[middle] < bp) {
+
+                low = middle + 1;
+
+            } else {
+
+                high = middle;
+
+            }
+        }
+
+        return low;
+
+    }
+
+    @Override
+    public void close() {
+
+        // The mappings are shared by the readers of the fileset.
+    }
+
+    /**
+     * Iterator over a range of variants.
+     */
+    private class VariantIterator implements CloseableIterator<VariantRecord> {
+
+        /**
+         * The variants to iterate, null to iterate the variants in the order
+         * of the fileset.
+         */
+        private final int[] variants;
+        /**
+         * The index of the next variant.
+         */
+        private int i;
+        /**
+         * The index after the last variant.
+         */
+        private final int end;
+
+        /**
+         * Constructor.
+         *
+         * @param variants the variants to iterate, null to iterate the
+         * variants in the order of the fileset
+         * @param start the index of the first variant
+         * @param end the index after the last variant
+         */
+        public VariantIterator(int[] variants, int start, int end) {
+
+            this.variants = variants;
+            this.i = start;
+            this.end = end;
+
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            return i < end;
+
+        }
+
+        @Override
+        public VariantRecord next() {
+
+            if (!hasNext()) {
+
+                throw new NoSuchElementException();
+
+            }
+
+            int variant = variants == null ? i : variants[i];
+            i++;
+
+            return new PlinkRecord(fileset, variant, fileset.getChr(variant), fileset.getPosition(variant));
+
+        }
+
+        @Override
+        public void close() {
+
+            i = end;
+
+        }
+    }
+}
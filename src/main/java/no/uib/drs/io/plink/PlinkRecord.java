@@ -0,0 +1,338 @@
+package no.uib.drs.io.plink;
+
+import java.nio.ByteBuffer;
+import no.uib.drs.io.vcf.VariantRecord;
+import no.uib.drs.model.genotypes.GenotypeColumn;
+
+/**
+ * A variant of a PLINK fileset. The id and alleles are parsed from the .bim
+ * file when first needed, and the genotypes are decoded from the row of the
+ * variant in the mapped .bed file. The .bed file packs the genotypes of four
+ * samples per byte, two bits per sample starting from the lowest bits, which
+ * is the layout of the allele counts of genotype columns. Genotypes are
+ * therefore decoded 32 samples at a time: eight bytes of the row are read as
+ * one word and converted to allele counts and missing flags by bitwise
+ * operations. As the mapping does not change, records remain valid after the
+ * reader moved on.
+ *
+ * PLINK does not record which allele is the reference allele, the first
+ * allele of the .bim file being often the minor allele. The second allele is
+ * returned as reference allele, and both alleles are accepted as reference or
+ * alternative allele. Genotypes are decoded as number of copies of the
+ * requested allele.
+ *
+ * @author Marc Vaudel
+ */
+public class PlinkRecord implements VariantRecord {
+
+    /**
+     * Mask of the low bit of every two-bit genotype in a word.
+     */
+    private static final long lowBits = 0x5555555555555555L;
+    /**
+     * The number of copies of the first allele for every genotype code:
+     * homozygous first allele, missing, heterozygous, homozygous second
+     * allele.
+     */
+    private static final int[] firstAlleleCounts = {2, 0, 1, 0};
+    /**
+     * The number of copies of the second allele for every genotype code.
+     */
+    private static final int[] secondAlleleCounts = {0, 0, 1, 2};
+    /**
+     * The genotype code of missing genotypes.
+     */
+    private static final int missingCode = 1;
+    /**
+     * The fileset.
+     */
+    private final PlinkFileset fileset;
+    /**
+     * The index of the variant in the fileset.
+     */
+    private final int variant;
+    /**
+     * The chromosome of the variant.
+     */
+    private final String chr;
+    /**
+     * The position of the variant.
+     */
+    private final int bp;
+    /**
+     * The id, first allele and second allele of the variant, null if not
+     * parsed yet.
+     */
+    private String[] fields = null;
+
+    /**
+     * Constructor.
+     *
+     * @param fileset the fileset
+     * @param variant the index of the variant in the fileset
+     * @param chr the chromosome of the variant
+     * @param bp the position of the variant
+     */
+    public PlinkRecord(PlinkFileset fileset, int variant, String chr, int bp) {
+
+        this.fileset = fileset;
+        this.variant = variant;
+        this.chr = chr;
+        this.bp = bp;
+
+    }
+
+    /**
+     * Returns the id and alleles of the variant, parsed when first needed.
+     *
+     * @return the id, first allele and second allele of the variant
+     */
+    private String[] getFields() {
+
+        if (fields == null) {
+
+            fields = fileset.getIdAndAlleles(variant);
+
+        }
+
+        return fields;
+
+    }
+
+    @Override
+    public String getChr() {
+
+        return chr;
+
+    }
+
+    @Override
+    public int getStart() {
+
+        return bp;
+
+    }
+
+    @Override
+    public String getId() {
+
+        return getFields()[0];
+
+    }
+
+    @Override
+    public String getRef() {
+
+        return getFields()[2];
+
+    }
+
+    @Override
+    public boolean hasRef(String ref) {
+
+        return hasAllele(ref);
+
+    }
+
+    @Override
+    public boolean hasAlt(String alt) {
+
+        return hasAllele(alt);
+
+    }
+
+    /**
+     * Indicates whether the given allele is one of the alleles of the
+     * variant.
+     *
+     * @param allele the allele
+     *
+     * @return a boolean indicating whether the given allele is one of the
+     * alleles of the variant
+     */
+    private boolean hasAllele(String allele) {
+
+        String[] idAndAlleles = getFields();
+
+        return idAndAlleles[1].equals(allele) || idAndAlleles[2].equals(allele);
+
+    }
+
+    @Override
+    public int getNSamples() {
+
+        return fileset.nSamples;
+
+    }
+
+    @Override
+    public VariantRecord copy() {
+
+        return this;
+
+    }
+
+    @Override
+    public void parseGenotypes() {
+
+        // Genotypes are decoded in place from the mapping.
+    }
+
+    @Override
+    public GenotypeColumn decode(String alt, int firstSample, int nSamples) {
+
+        return decode(alt, null, firstSample, nSamples);
+
+    }
+
+    @Override
+    public GenotypeColumn decode(String alt, int[] samples) {
+
+        return decode(alt, samples, 0, samples.length);
+
+    }
+
+    /**
+     * Decodes the genotypes of the given samples, or of a range of samples if
+     * no sample is given. Ranges starting at a multiple of four samples are
+     * decoded word by word, other samples one at a time.
+     *
+     * @param alt the alternative allele
+     * @param samples the indexes of the samples to decode in ascending order,
+     * null to decode a range of samples
+     * @param firstSample the index of the first sample of the range
+     * @param nSamples the number of samples to decode
+     *
+     * @return the genotypes of the samples
+     */
+    private GenotypeColumn decode(String alt, int[] samples, int firstSample, int nSamples) {
+
+        long[] counts = new long[(nSamples + GenotypeColumn.samplesPerWord - 1) / GenotypeColumn.samplesPerWord];
+        long[] missing = new long[(nSamples + 63) >>> 6];
+
+        String[] idAndAlleles = getFields();
+        boolean firstAllele = idAndAlleles[1].equals(alt);
+
+        if (!firstAllele && !idAndAlleles[2].equals(alt)) {
+
+            for (int i = 0; i < nSamples; i++) {
+
+                missing[i >>> 6] |= 1L << (i & 63);
+
+            }
+
+            return new GenotypeColumn(getRef(), alt, nSamples, counts, missing);
+
+        }
+
+        String ref = firstAllele ? idAndAlleles[2] : idAndAlleles[1];
+        ByteBuffer row = fileset.getRow(variant);
+
+        if (samples == null && (firstSample & 3) == 0) {
+
+            decodeWords(row, firstSample >>> 2, nSamples, firstAllele, counts, missing);
+
+        } else {
+
+            int[] alleleCounts = firstAllele ? firstAlleleCounts : secondAlleleCounts;
+
+            for (int i = 0; i < nSamples; i++) {
+
+                int sample = samples == null ? firstSample + i : samples[i];
+                int code = (row.get(sample >>> 2) >>> ((sample & 3) << 1)) & 3;
+
+                if (code == missingCode) {
+
+                    missing[i >>> 6] |= 1L << (i & 63);
+
+                } else {
+
+                    counts[i >>> 5] |= (long) alleleCounts[code] << ((i & 31) << 1);
+
+                }
+            }
+        }
+
+        return new GenotypeColumn(ref, alt, nSamples, counts, missing);
+
+    }
+
+    /**
+     * Decodes the genotypes of a range of samples word by word. Every word of
+     * the row holds 32 genotypes: the low bit of a genotype is set for
+     * missing and homozygous second allele, its high bit for heterozygous
+     * and homozygous second allele.
+     *
+     * @param row the row of the variant
+     * @param byteStart the index in the row of the byte of the first sample
+     * @param nSamples the number of samples to decode
+     * @param firstAllele boolean indicating whether copies of the first
+     * allele should be counted, otherwise of the second allele
+     * @param counts the allele counts to fill
+     * @param missing the missing flags to fill
+     */
+    private static void decodeWords(ByteBuffer row, int byteStart, int nSamples, boolean firstAllele, long[] counts, long[] missing) {
+
+        for (int word = 0; word < counts.length; word++) {
+
+            int offset = byteStart + 8 * word;
+            long bits = offset + 8 <= row.limit() ? row.getLong(offset) : getTail(row, offset);
+
+            int wordSamples = Math.min(GenotypeColumn.samplesPerWord, nSamples - GenotypeColumn.samplesPerWord * word);
+            long mask = wordSamples == GenotypeColumn.samplesPerWord ? -1L : (1L << (wordSamples << 1)) - 1;
+
+            long low = bits & lowBits;
+            long high = (bits >>> 1) & lowBits;
+
+            long homozygous = firstAllele ? ~high & ~low & lowBits : high & low;
+            long heterozygous = high & ~low;
+
+            counts[word] = ((homozygous << 1) | heterozygous) & mask;
+            missing[word >>> 1] |= compact(low & ~high & mask) << ((word & 1) << 5);
+
+        }
+    }
+
+    /**
+     * Reads the last bytes of a row as a word, bytes after the end of the row
+     * are zero.
+     *
+     * @param row the row
+     * @param offset the index of the first byte of the word
+     *
+     * @return the word
+     */
+    private static long getTail(ByteBuffer row, int offset) {
+
+        long bits = 0;
+
+        for (int i = offset; i < row.limit(); i++) {
+
+            bits |= (long) (row.get(i) & 0xff) << ((i - offset) << 3);
+
+        }
+
+        return bits;
+
+    }
+
+    /**
+     * Gathers the low bits of the 32 two-bit fields of a word into the 32 low
+     * bits of the result.
+     *
+     * @param bits the word, only low bits of fields set
+     *
+     * @return the gathered bits
+     */
+    private static long compact(long bits) {
+
+        bits = (bits | (bits >>> 1)) & 0x3333333333333333L;
+        bits = (bits | (bits >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+        bits = (bits | (bits >>> 4)) & 0x00ff00ff00ff00ffL;
+        bits = (bits | (bits >>> 8)) & 0x0000ffff0000ffffL;
+        bits = (bits | (bits >>> 16)) & 0x00000000ffffffffL;
+
+        return bits;
+
+    }
+}
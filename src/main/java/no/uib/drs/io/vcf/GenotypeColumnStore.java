@@ -0,0 +1,621 @@
+package no.uib.drs.io.vcf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import no.uib.drs.model.genotypes.GenotypeColumn;
+
+/**
+ * Store on disk of the genotype columns decoded from a vcf file, to be reused
+ * by later runs on the same file. The store of a vcf file is named after the
+ * fingerprint of the file and is therefore not used if the file changes.
+ * Columns are appended to the store as they are decoded, every record
+ * contains the key of the variant and the alleles it was retrieved for, the
+ * alleles of the genotypes, and the allele counts and missing genotypes of
+ * all samples, followed by the number of copies of the first allele for
+ * genotypes that are not diploid on the two alleles. Variants not found in
+ * the vcf file are stored as records without genotypes. The store file is
+ * locked while records are appended, such that several runs can share it.
+ *
+ * @author Marc Vaudel
+ */
+public class GenotypeColumnStore implements AutoCloseable {
+
+    /**
+     * The extension of the store files.
+     */
+    public static final String extension = ".gcs";
+    /**
+     * The version of the format of the store files.
+     */
+    public static final int version = 2;
+    /**
+     * The number of bytes read at the start and at the end of a vcf file to
+     * compute its fingerprint.
+     */
+    public static final int fingerprintLength = 65536;
+    /**
+     * The number of samples of the vcf file.
+     */
+    public final int nSamples;
+    /**
+     * The channel to the store file.
+     */
+    private final FileChannel channel;
+    /**
+     * The records in the store indexed by variant key and alleles.
+     */
+    private final ConcurrentHashMap<String, Record> records = new ConcurrentHashMap<>();
+    /**
+     * The position where to append the next record.
+     */
+    private long end = 0;
+
+    /**
+     * Constructor. Opens the store of the given vcf file in the given folder,
+     * creates it if it does not exist. A record that was not completely
+     * written, e.g. if a run was killed, is discarded.
+     *
+     * @param storeFolder the folder where the stores are saved
+     * @param vcfFile the vcf file
+     * @param nSamples the number of samples of the vcf file
+     */
+    public GenotypeColumnStore(File storeFolder, File vcfFile, int nSamples) {
+
+        this.nSamples = nSamples;
+
+        File storeFile = new File(storeFolder, vcfFile.getName() + "_" + getFingerprint(vcfFile) + "_v" + version + extension);
+
+        try {
+
+            channel = FileChannel.open(storeFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            FileLock lock = channel.lock();
+
+            try {
+
+                load();
+
+            } finally {
+
+                lock.release();
+
+            }
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Loads the records appended to the store file since the last load, and
+     * discards a record that was not completely written. The store file must
+     * be locked.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or truncating the store file
+     */
+    private void load() throws IOException {
+
+        long size = channel.size();
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+
+        while (end + 4 <= size) {
+
+            lengthBuffer.clear();
+            readFully(lengthBuffer, end);
+            lengthBuffer.flip();
+
+            int headerLength = lengthBuffer.getInt();
+            long dataStart = end + 4 + headerLength;
+
+            if (dataStart > size) {
+                break;
+            }
+
+            ByteBuffer headerBuffer = ByteBuffer.allocate(headerLength);
+            readFully(headerBuffer, end + 4);
+
+            Record record = new Record(headerBuffer.array(), dataStart);
+            long recordEnd = dataStart + record.getDataLength();
+
+            if (recordEnd > size) {
+                break;
+            }
+
+            if (record.nSamples == -1 || record.nSamples == nSamples) {
+
+                records.put(getRecordKey(record.key, record.ref, record.alt), record);
+
+            }
+
+            end = recordEnd;
+
+        }
+
+        if (end < size) {
+
+            channel.truncate(end);
+
+        }
+    }
+
+    /**
+     * Indicates whether the given variant is in the store with the given
+     * alleles, either with its genotypes or as not found in the vcf file.
+     *
+     * @param key the key of the variant
+     * @param ref the reference allele
+     * @param alt the alternative allele
+     *
+     * @return a boolean indicating whether the variant is in the store
+     */
+    public boolean contains(String key, String ref, String alt) {
+
+        return records.containsKey(getRecordKey(key, ref, alt));
+
+    }
+
+    /**
+     * Returns the genotypes of a range of samples for the given variant, null
+     * if the variant was not found in the vcf file. The index of the first
+     * sample must be a multiple of 64.
+     *
+     * @param key the key of the variant
+     * @param ref the reference allele
+     * @param alt the alternative allele
+     * @param firstSample the index of the first sample
+     * @param nSamples the number of samples
+     *
+     * @return the genotypes of the samples, indexed from the first sample
+     */
+    public GenotypeColumn get(String key, String ref, String alt, int firstSample, int nSamples) {
+
+        Record record = records.get(getRecordKey(key, ref, alt));
+
+        if (record.nSamples == -1) {
+
+            return null;
+
+        }
+
+        int nCountWords = getNCountWords(record.nSamples);
+
+        long[] counts = new long[getNCountWords(nSamples)];
+        long[] missing = new long[(nSamples + 63) >>> 6];
+
+        readWords(counts, record.dataStart + 8L * (firstSample / GenotypeColumn.samplesPerWord));
+        readWords(missing, record.dataStart + 8L * (nCountWords + (firstSample >>> 6)));
+
+        long[] firstCounts = null;
+
+        if (record.hasFirstCounts) {
+
+            firstCounts = new long[counts.length];
+            readWords(firstCounts, record.dataStart + 8L * (nCountWords + ((record.nSamples + 63) >>> 6) + firstSample / GenotypeColumn.samplesPerWord));
+
+        }
+
+        return new GenotypeColumn(record.genotypesRef, record.genotypesAlt, nSamples, counts, firstCounts, missing);
+
+    }
+
+    /**
+     * Returns the genotypes of the given samples for the given variant, null
+     * if the variant was not found in the vcf file.
+     *
+     * @param key the key of the variant
+     * @param ref the reference allele
+     * @param alt the alternative allele
+     * @param samples the indexes of the samples
+     *
+     * @return the genotypes of the samples, indexed in the order of the given
+     * samples
+     */
+    public GenotypeColumn get(String key, String ref, String alt, int[] samples) {
+
+        GenotypeColumn genotypeColumn = get(key, ref, alt, 0, nSamples);
+
+        return genotypeColumn == null ? null : genotypeColumn.getSubset(samples);
+
+    }
+
+    /**
+     * Appends the genotypes of all samples for a variant retrieved for the
+     * given alleles to the store.
+     *
+     * @param key the key of the variant
+     * @param ref the reference allele the variant was retrieved for
+     * @param alt the alternative allele the variant was retrieved for
+     * @param genotypeColumn the genotypes of all samples
+     */
+    public void put(String key, String ref, String alt, GenotypeColumn genotypeColumn) {
+
+        if (genotypeColumn.nSamples != nSamples) {
+
+            throw new IllegalArgumentException("Genotypes of " + genotypeColumn.nSamples + " samples cannot be stored for a vcf file of " + nSamples + " samples.");
+
+        }
+
+        long[] counts = genotypeColumn.getCounts();
+        long[] missing = genotypeColumn.getMissing();
+        long[] firstCounts = genotypeColumn.getFirstCounts();
+
+        ByteBuffer data = ByteBuffer.allocate(8 * (counts.length + missing.length + (firstCounts == null ? 0 : firstCounts.length)));
+        LongBuffer words = data.asLongBuffer()
+                .put(counts)
+                .put(missing);
+
+        if (firstCounts != null) {
+
+            words.put(firstCounts);
+
+        }
+
+        append(new Record(key, ref, alt, genotypeColumn.alleles[0], genotypeColumn.alleles[1], nSamples, firstCounts != null, 0), data);
+
+    }
+
+    /**
+     * Appends a variant not found in the vcf file to the store.
+     *
+     * @param key the key of the variant
+     * @param ref the reference allele
+     * @param alt the alternative allele
+     */
+    public void putAbsent(String key, String ref, String alt) {
+
+        append(new Record(key, ref, alt, ref, alt, -1, false, 0), ByteBuffer.allocate(0));
+
+    }
+
+    /**
+     * Appends a record to the store unless a record was already saved for
+     * the same variant and alleles, by this run or by another run sharing the
+     * store file. The store file is locked while appending.
+     *
+     * @param record the record, the position of its genotypes is set when
+     * appended
+     * @param data the genotypes
+     */
+    private synchronized void append(Record record, ByteBuffer data) {
+
+        String recordKey = getRecordKey(record.key, record.ref, record.alt);
+
+        if (records.containsKey(recordKey)) {
+            return;
+        }
+
+        try {
+
+            FileLock lock = channel.lock();
+
+            try {
+
+                load();
+
+                if (records.containsKey(recordKey)) {
+                    return;
+                }
+
+                byte[] headerArray = record.getHeader();
+
+                ByteBuffer buffer = ByteBuffer.allocate(4 + headerArray.length + data.capacity());
+                buffer.putInt(headerArray.length)
+                        .put(headerArray)
+                        .put(data);
+                buffer.flip();
+
+                long dataStart = end + 4 + headerArray.length;
+                long position = end;
+
+                while (buffer.hasRemaining()) {
+
+                    position += channel.write(buffer, position);
+
+                }
+
+                end = position;
+
+                records.put(recordKey, new Record(record.key, record.ref, record.alt, record.genotypesRef, record.genotypesAlt, record.nSamples, record.hasFirstCounts, dataStart));
+
+            } finally {
+
+                lock.release();
+
+            }
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Returns the key of the record of a variant retrieved for the given
+     * alleles.
+     *
+     * @param key the key of the variant
+     * @param ref the reference allele
+     * @param alt the alternative allele
+     *
+     * @return the key of the record
+     */
+    private static String getRecordKey(String key, String ref, String alt) {
+
+        return String.join("\t", key, ref, alt);
+
+    }
+
+    /**
+     * Reads words from the store.
+     *
+     * @param words the array where to read the words
+     * @param position the position of the first word in the store
+     */
+    private void readWords(long[] words, long position) {
+
+        ByteBuffer buffer = ByteBuffer.allocate(8 * words.length);
+        readFully(buffer, position);
+        buffer.flip();
+        buffer.asLongBuffer().get(words);
+
+    }
+
+    /**
+     * Fills the given buffer with the bytes of the store starting at the given
+     * position.
+     *
+     * @param buffer the buffer
+     * @param position the position in the store
+     */
+    private void readFully(ByteBuffer buffer, long position) {
+
+        try {
+
+            while (buffer.hasRemaining()) {
+
+                int read = channel.read(buffer, position);
+
+                if (read == -1) {
+
+                    throw new IllegalArgumentException("Unexpected end of genotype store.");
+
+                }
+
+                position += read;
+
+            }
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Returns the number of words of allele counts for the given number of
+     * samples.
+     *
+     * @param nSamples the number of samples
+     *
+     * @return the number of words of allele counts
+     */
+    private static int getNCountWords(int nSamples) {
+
+        return (nSamples + GenotypeColumn.samplesPerWord - 1) / GenotypeColumn.samplesPerWord;
+
+    }
+
+    /**
+     * Returns a fingerprint of the given vcf file based on its size and on
+     * the content of its first and last bytes, where the bgzf blocks of the
+     * header and of the last records are found.
+     *
+     * @param vcfFile the vcf file
+     *
+     * @return a fingerprint of the vcf file as hexadecimal string
+     */
+    public static String getFingerprint(File vcfFile) {
+
+        try (RandomAccessFile raf = new RandomAccessFile(vcfFile, "r")) {
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+            long length = raf.length();
+            digest.update(ByteBuffer.allocate(8).putLong(length).array());
+
+            byte[] buffer = new byte[(int) Math.min(fingerprintLength, length)];
+
+            raf.readFully(buffer);
+            digest.update(buffer);
+
+            raf.seek(length - buffer.length);
+            raf.readFully(buffer);
+            digest.update(buffer);
+
+            StringBuilder result = new StringBuilder();
+
+            for (byte b : digest.digest()) {
+
+                result.append(String.format("%02x", b));
+
+            }
+
+            return result.substring(0, 16);
+
+        } catch (IOException | NoSuchAlgorithmException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    @Override
+    public void close() {
+
+        try {
+
+            channel.close();
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * A record of the store.
+     */
+    private static class Record {
+
+        /**
+         * The key of the variant.
+         */
+        public final String key;
+        /**
+         * The reference allele the variant was retrieved for.
+         */
+        public final String ref;
+        /**
+         * The alternative allele the variant was retrieved for.
+         */
+        public final String alt;
+        /**
+         * The reference allele of the genotypes.
+         */
+        public final String genotypesRef;
+        /**
+         * The alternative allele of the genotypes.
+         */
+        public final String genotypesAlt;
+        /**
+         * The number of samples, -1 if the variant was not found.
+         */
+        public final int nSamples;
+        /**
+         * Boolean indicating whether the number of copies of the first allele
+         * is stored after the missing genotypes.
+         */
+        public final boolean hasFirstCounts;
+        /**
+         * The position of the genotypes in the store.
+         */
+        public final long dataStart;
+
+        /**
+         * Constructor.
+         *
+         * @param key the key of the variant
+         * @param ref the reference allele the variant was retrieved for
+         * @param alt the alternative allele the variant was retrieved for
+         * @param genotypesRef the reference allele of the genotypes
+         * @param genotypesAlt the alternative allele of the genotypes
+         * @param nSamples the number of samples, -1 if the variant was not
+         * found
+         * @param hasFirstCounts boolean indicating whether the number of
+         * copies of the first allele is stored
+         * @param dataStart the position of the genotypes in the store
+         */
+        public Record(String key, String ref, String alt, String genotypesRef, String genotypesAlt, int nSamples, boolean hasFirstCounts, long dataStart) {
+
+            this.key = key;
+            this.ref = ref;
+            this.alt = alt;
+            this.genotypesRef = genotypesRef;
+            this.genotypesAlt = genotypesAlt;
+            this.nSamples = nSamples;
+            this.hasFirstCounts = hasFirstCounts;
+            this.dataStart = dataStart;
+
+        }
+
+        /**
+         * Constructor from the header of a record.
+         *
+         * @param header the bytes of the header
+         * @param dataStart the position of the genotypes in the store
+         *
+         * @throws IOException exception thrown if the header cannot be parsed
+         */
+        public Record(byte[] header, long dataStart) throws IOException {
+
+            try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(header))) {
+
+                key = input.readUTF();
+                ref = input.readUTF();
+                alt = input.readUTF();
+                genotypesRef = input.readUTF();
+                genotypesAlt = input.readUTF();
+                nSamples = input.readInt();
+                hasFirstCounts = input.readBoolean();
+
+            }
+
+            this.dataStart = dataStart;
+
+        }
+
+        /**
+         * Returns the bytes of the header of this record.
+         *
+         * @return the bytes of the header
+         *
+         * @throws IOException exception thrown if the header cannot be written
+         */
+        public byte[] getHeader() throws IOException {
+
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+
+            try (DataOutputStream header = new DataOutputStream(headerBytes)) {
+
+                header.writeUTF(key);
+                header.writeUTF(ref);
+                header.writeUTF(alt);
+                header.writeUTF(genotypesRef);
+                header.writeUTF(genotypesAlt);
+                header.writeInt(nSamples);
+                header.writeBoolean(hasFirstCounts);
+
+            }
+
+            return headerBytes.toByteArray();
+
+        }
+
+        /**
+         * Returns the number of bytes of genotypes of this record.
+         *
+         * @return the number of bytes of genotypes
+         */
+        public long getDataLength() {
+
+            if (nSamples == -1) {
+
+                return 0;
+
+            }
+
+            int nCountWords = getNCountWords(nSamples);
+
+            return 8L * (nCountWords + ((nSamples + 63) >>> 6) + (hasFirstCounts ? nCountWords : 0));
+
+        }
+    }
+}
@@ -0,0 +1,693 @@
+package no.uib.drs.io.vcf;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.tribble.index.Block;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import no.uib.drs.io.bgzf.MappedBgzfReader;
+import no.uib.drs.io.bgzf.ParallelBgzfInputStream;
+
+/**
+ * Reader of bgzip compressed vcf files indexed using tabix, parsing only the
+ * fields needed for scoring. Lines are located in the buffer of inflated
+ * bytes, records are created for the lines of the queried region only and
+ * parse their fields in place, and their genotypes are decoded from the GT
+ * subfield when needed. Only lines spanning two buffers are copied. Records
+ * are therefore valid until the next record is read.
+ *
+ * The file is either read through a stream, where the blocks of large
+ * regions, e.g. when sweeping through a chromosome, are inflated in parallel,
+ * or mapped in memory, where blocks are inflated one at a time by the reading
+ * thread directly into the buffer.
+ *
+ * Records can also be read once in the order of a vcf stream, e.g. from the
+ * standard input, without index.
+ *
+ * @author Marc Vaudel
+ */
+public class GtVcfReader implements VariantRecordReader {
+
+    /**
+     * The minimal span of a region in the compressed file for its blocks to
+     * be inflated in parallel.
+     */
+    public static final long parallelInflationSpan = 16 * VcfQueryPlanner.bgzfBlockSize;
+
+    /**
+     * The vcf file, null if reading a stream.
+     */
+    private final File vcfFile;
+    /**
+     * The tabix index of the file, null if reading a stream.
+     */
+    private final Index index;
+    /**
+     * The stream of inflated bytes, null if the file is mapped in memory or
+     * if reading a stream.
+     */
+    private final BlockCompressedInputStream inputStream;
+    /**
+     * The reader of the file mapped in memory, null if the file is read
+     * through a stream or if reading a stream.
+     */
+    private final MappedBgzfReader mappedReader;
+    /**
+     * The stream inflating the blocks of the current region in parallel, null
+     * if the blocks are inflated by the reading thread.
+     */
+    private ParallelBgzfInputStream parallelInputStream = null;
+    /**
+     * The stream where the lines are read from.
+     */
+    private InputStream source;
+    /**
+     * The ordered sample names.
+     */
+    private final ArrayList<String> sampleNames;
+    /**
+     * Buffer for the bytes read from the stream, or the inflated block of
+     * the mapped file.
+     */
+    private final byte[] buffer;
+    /**
+     * The index of the next byte to read in the buffer.
+     */
+    private int bufferPosition = 0;
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int bufferLength = 0;
+    /**
+     * Array where lines spanning two buffers are copied.
+     */
+    private byte[] lineCopy = new byte[65536];
+    /**
+     * The array containing the bytes of the last line read, either the buffer
+     * or the line copy.
+     */
+    private byte[] line;
+    /**
+     * The index of the first byte of the last line read.
+     */
+    private int lineStart = 0;
+    /**
+     * The length of the last line read, without line break.
+     */
+    private int lineLength = 0;
+    /**
+     * Boolean indicating whether the records of the stream were read.
+     */
+    private boolean streamRead = false;
+
+    /**
+     * Constructor. The file is read through a stream.
+     *
+     * @param vcfFile the vcf file
+     * @param index the tabix index of the file
+     */
+    public GtVcfReader(File vcfFile, Index index) {
+
+        this(vcfFile, index, false);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param vcfFile the vcf file
+     * @param index the tabix index of the file
+     * @param mapped boolean indicating whether the file should be mapped in
+     * memory
+     */
+    public GtVcfReader(File vcfFile, Index index, boolean mapped) {
+
+        if (!(index instanceof TabixIndex)) {
+
+            throw new IllegalArgumentException("The GT decoder requires bgzip compressed vcf files indexed using tabix, " + vcfFile.getAbsolutePath() + " is not.");
+
+        }
+
+        this.vcfFile = vcfFile;
+        this.index = index;
+
+        if (mapped) {
+
+            inputStream = null;
+            mappedReader = new MappedBgzfReader(vcfFile);
+            buffer = mappedReader.getBlock();
+
+            seekMapped(0);
+
+        } else {
+
+            try {
+
+                inputStream = new BlockCompressedInputStream(vcfFile);
+
+            } catch (IOException e) {
+
+                throw new RuntimeException(e);
+
+            }
+
+            mappedReader = null;
+            buffer = new byte[65536];
+
+        }
+
+        source = inputStream;
+        line = buffer;
+        sampleNames = parseHeader();
+
+    }
+
+    /**
+     * Constructor for a vcf stream. The records can be iterated only once and
+     * cannot be queried.
+     *
+     * @param stream the stream of the decompressed bytes of the vcf
+     */
+    public GtVcfReader(InputStream stream) {
+
+        vcfFile = null;
+        index = null;
+        inputStream = null;
+        mappedReader = null;
+        buffer = new byte[VcfStream.bufferSize];
+        source = stream;
+        line = buffer;
+        sampleNames = parseHeader();
+
+    }
+
+    /**
+     * Reads the header and returns the sample names.
+     *
+     * @return the ordered sample names
+     */
+    private ArrayList<String> parseHeader() {
+
+        while (readLine()) {
+
+            if (lineLength > 0 && line[lineStart] != '#') {
+
+                break;
+
+            }
+
+            if (lineLength > 1 && line[lineStart + 1] != '#') {
+
+                String[] lineSplit = new String(line, lineStart, lineLength, StandardCharsets.UTF_8).split("\t");
+
+                return lineSplit.length > 9
+                        ? new ArrayList<>(Arrays.asList(lineSplit).subList(9, lineSplit.length))
+                        : new ArrayList<>(0);
+
+            }
+        }
+
+        throw new IllegalArgumentException("Header line not found in " + (vcfFile == null ? "vcf stream" : vcfFile.getAbsolutePath()) + ".");
+
+    }
+
+    @Override
+    public ArrayList<String> getSampleNames() {
+
+        return sampleNames;
+
+    }
+
+    @Override
+    public CloseableIterator<VariantRecord> query(String chr, int start, int end) {
+
+        if (index == null) {
+
+            throw new UnsupportedOperationException("A vcf stream cannot be queried.");
+
+        }
+
+        closeParallelInputStream();
+
+        List<Block> blocks = index.getBlocks(chr, start, end);
+
+        if (blocks.isEmpty()) {
+
+            return new RegionIterator(null, start, end, true);
+
+        }
+
+        long firstBlock = blocks.stream()
+                .mapToLong(block -> block.getStartPosition())
+                .min()
+                .getAsLong();
+        long lastBlock = blocks.stream()
+                .mapToLong(block -> block.getEndPosition())
+                .max()
+                .getAsLong();
+
+        seek(firstBlock, (lastBlock >>> 16) - (firstBlock >>> 16));
+
+        return new RegionIterator(chr.getBytes(StandardCharsets.UTF_8), start, end, false);
+
+    }
+
+    @Override
+    public CloseableIterator<VariantRecord> iterator() {
+
+        if (vcfFile == null) {
+
+            if (streamRead) {
+
+                throw new IllegalStateException("The records of a vcf stream can be read only once.");
+
+            }
+
+            streamRead = true;
+
+            return new RegionIterator(null, Integer.MIN_VALUE, Integer.MAX_VALUE, false);
+
+        }
+
+        closeParallelInputStream();
+
+        seek(0, vcfFile.length());
+
+        return new RegionIterator(null, Integer.MIN_VALUE, Integer.MAX_VALUE, false);
+
+    }
+
+    /**
+     * Moves to the given virtual offset.
+     *
+     * @param virtualOffset the virtual offset
+     * @param span the span of the region to read in the compressed file
+     */
+    private void seek(long virtualOffset, long span) {
+
+        if (mappedReader != null) {
+
+            seekMapped(virtualOffset);
+            return;
+
+        }
+
+        if (span >= parallelInflationSpan) {
+
+            parallelInputStream = new ParallelBgzfInputStream(vcfFile, virtualOffset, ParallelBgzfInputStream.getSharedExecutor(), ParallelBgzfInputStream.defaultBlocksAhead);
+            source = parallelInputStream;
+
+        } else {
+
+            try {
+
+                inputStream.seek(virtualOffset);
+
+            } catch (IOException e) {
+
+                throw new RuntimeException(e);
+
+            }
+        }
+
+        bufferPosition = 0;
+        bufferLength = 0;
+
+    }
+
+    /**
+     * Moves the mapped reader to the given virtual offset and points the
+     * buffer to the corresponding position in the inflated block.
+     *
+     * @param virtualOffset the virtual offset
+     */
+    private void seekMapped(long virtualOffset) {
+
+        int position = mappedReader.seek(virtualOffset);
+
+        if (position == -1) {
+
+            bufferPosition = 0;
+            bufferLength = 0;
+
+        } else {
+
+            bufferPosition = position;
+            bufferLength = mappedReader.getBlockLength();
+
+        }
+    }
+
+    /**
+     * Reads the next line. The line is located in the buffer if contained in
+     * it, copied otherwise.
+     *
+     * @return a boolean indicating whether a line was read, false at the end
+     * of the file
+     */
+    private boolean readLine() {
+
+        lineLength = 0;
+        boolean copied = false;
+
+        while (true) {
+
+            if (bufferPosition == bufferLength && !fillBuffer()) {
+
+                line = lineCopy;
+                lineStart = 0;
+
+                return lineLength > 0;
+
+            }
+
+            int lineEnd = bufferPosition;
+
+            while (lineEnd < bufferLength && buffer[lineEnd] != '\n') {
+
+                lineEnd++;
+
+            }
+
+            int length = lineEnd - bufferPosition;
+
+            if (!copied && lineEnd < bufferLength) {
+
+                line = buffer;
+                lineStart = bufferPosition;
+                lineLength = length;
+
+            } else {
+
+                if (lineLength + length > lineCopy.length) {
+
+                    lineCopy = Arrays.copyOf(lineCopy, Math.max(2 * lineCopy.length, lineLength + length));
+
+                }
+
+                System.arraycopy(buffer, bufferPosition, lineCopy, lineLength, length);
+                lineLength += length;
+                line = lineCopy;
+                lineStart = 0;
+                copied = true;
+
+            }
+
+            bufferPosition = lineEnd;
+
+            if (lineEnd < bufferLength) {
+
+                bufferPosition++;
+
+                if (lineLength > 0 && line[lineStart + lineLength - 1] == '\r') {
+
+                    lineLength--;
+
+                }
+
+                return true;
+
+            }
+        }
+    }
+
+    /**
+     * Fills the buffer with the next inflated bytes.
+     *
+     * @return a boolean indicating whether bytes were read, false at the end
+     * of the file
+     */
+    private boolean fillBuffer() {
+
+        bufferPosition = 0;
+
+        if (mappedReader != null) {
+
+            bufferLength = mappedReader.nextBlock() ? mappedReader.getBlockLength() : 0;
+
+        } else {
+
+            try {
+
+                bufferLength = Math.max(source.read(buffer, 0, buffer.length), 0);
+
+            } catch (IOException e) {
+
+                throw new RuntimeException(e);
+
+            }
+        }
+
+        return bufferLength > 0;
+
+    }
+
+    /**
+     * Closes the stream inflating the blocks of the current region in
+     * parallel, if any, and reads from the main stream again.
+     */
+    private void closeParallelInputStream() {
+
+        if (parallelInputStream != null) {
+
+            try {
+
+                parallelInputStream.close();
+
+            } catch (IOException e) {
+
+                throw new RuntimeException(e);
+
+            }
+
+            parallelInputStream = null;
+            source = inputStream;
+
+        }
+    }
+
+    @Override
+    public void close() {
+
+        closeParallelInputStream();
+
+        if (mappedReader != null) {
+
+            mappedReader.close();
+
+        } else {
+
+            try {
+
+                source.close();
+
+            } catch (IOException e) {
+
+                throw new RuntimeException(e);
+
+            }
+        }
+    }
+
+    /**
+     * Iterator over the records of a region. The lines are read from the
+     * first block of the region until a record after the region is found.
+     * Without chromosome, all records are returned.
+     */
+    private class RegionIterator implements CloseableIterator<VariantRecord> {
+
+        /**
+         * The chromosome of the region as bytes, null for all chromosomes.
+         */
+        private final byte[] chr;
+        /**
+         * The first position of the region.
+         */
+        private final int start;
+        /**
+         * The last position of the region.
+         */
+        private final int end;
+        /**
+         * The next record, null if not read yet.
+         */
+        private GtVcfRecord next = null;
+        /**
+         * Boolean indicating whether a line of the chromosome was found.
+         */
+        private boolean chrFound = false;
+        /**
+         * Boolean indicating whether the end of the region was reached.
+         */
+        private boolean done;
+
+        /**
+         * Constructor.
+         *
+         * @param chr the chromosome of the region as bytes, null for all
+         * chromosomes
+         * @param start the first position of the region
+         * @param end the last position of the region
+         * @param empty boolean indicating whether the region has no block in
+         * the index
+         */
+        public RegionIterator(byte[] chr, int start, int end, boolean empty) {
+
+            this.chr = chr;
+            this.start = start;
+            this.end = end;
+
+            done = empty;
+
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            while (next == null && !done) {
+
+                if (!readLine()) {
+
+                    done = true;
+                    break;
+
+                }
+
+                if (lineLength == 0 || line[lineStart] == '#') {
+                    continue;
+                }
+
+                int chrLength = getChromosomeLength();
+
+                if (chrLength == -1) {
+
+                    done = chrFound;
+                    continue;
+
+                }
+
+                chrFound = true;
+
+                int bp = parsePosition(chrLength + 1);
+
+                if (bp > end) {
+
+                    done = true;
+
+                } else if (bp >= start) {
+
+                    next = new GtVcfRecord(line, lineStart, lineLength, bp, sampleNames.size());
+
+                }
+            }
+
+            return next != null;
+
+        }
+
+        /**
+         * Returns the length of the chromosome field of the current line if
+         * on the chromosome of the region, or on any chromosome if no
+         * chromosome was given.
+         *
+         * @return the length of the chromosome field, -1 if the current line
+         * is not on the chromosome of the region
+         */
+        private int getChromosomeLength() {
+
+            if (chr == null) {
+
+                for (int i = 0; i < lineLength; i++) {
+
+                    if (line[lineStart + i] == '\t') {
+
+                        return i;
+
+                    }
+                }
+
+                return lineLength;
+
+            }
+
+            if (lineLength <= chr.length || line[lineStart + chr.length] != '\t') {
+
+                return -1;
+
+            }
+
+            for (int i = 0; i < chr.length; i++) {
+
+                if (line[lineStart + i] != chr[i]) {
+
+                    return -1;
+
+                }
+            }
+
+            return chr.length;
+
+        }
+
+        /**
+         * Parses the position of the current line.
+         *
+         * @param positionStart the index of the position field in the line
+         *
+         * @return the position
+         */
+        private int parsePosition(int positionStart) {
+
+            int bp = 0;
+
+            for (int i = positionStart; i < lineLength && line[lineStart + i] != '\t'; i++) {
+
+                int digit = line[lineStart + i] - '0';
+
+                if (digit < 0 || digit > 9) {
+
+                    throw new IllegalArgumentException("Unexpected position in line " + new String(line, lineStart, Math.min(lineLength, 100), StandardCharsets.UTF_8) + " of " + (vcfFile == null ? "vcf stream" : vcfFile.getAbsolutePath()) + ".");
+
+                }
+
+                bp = 10 * bp + digit;
+
+            }
+
+            return bp;
+
+        }
+
+        @Override
+        public VariantRecord next() {
+
+            if (!hasNext()) {
+
+                throw new NoSuchElementException();
+
+            }
+
+            VariantRecord result = next;
+            next = null;
+
+            return result;
+
+        }
+
+        @Override
+        public void close() {
+
+            done = true;
+            closeParallelInputStream();
+
+        }
+    }
+}
@@ -0,0 +1,1026 @@
+package no.uib.drs.io.vcf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import no.uib.drs.model.genotypes.GenotypeColumn;
+
+/**
+ * A vcf record parsed from the bytes of its line, where only the fields
+ * needed for scoring are located. The bytes can be shared with the reader,
+ * in which case the record is only valid until the next record is read. Ids
+ * and alleles are compared on the bytes, no string is created unless
+ * requested. Genotypes are decoded from the GT subfield using a lookup table
+ * from allele index to reference, alternative, or other allele, such that
+ * the common single digit diploid genotypes, e.g. 0|1, 1/1, or ./., are
+ * decoded without further parsing. Genotypes of other ploidy are parsed
+ * allele by allele, other alleles are not counted. The sample columns of very wide records,
+ * e.g. with hundreds of thousands of samples, are split into ranges at tab
+ * boundaries and decoded in parallel.
+ *
+ * @author Marc Vaudel
+ */
+public class GtVcfRecord implements VariantRecord {
+
+    /**
+     * The minimal length in bytes of the sample columns of a record for its
+     * genotypes to be decoded in parallel.
+     */
+    public static final int parallelDecodingLength = 1 << 20;
+    /**
+     * The approximate length in bytes of the ranges of sample columns decoded
+     * in parallel.
+     */
+    public static final int decodingRangeLength = 1 << 18;
+
+    /**
+     * Code in the allele lookup tables for the reference allele.
+     */
+    private static final byte refCode = 0;
+    /**
+     * Code in the allele lookup tables for the alternative allele.
+     */
+    private static final byte altCode = 1;
+    /**
+     * Code in the allele lookup tables for missing or other alleles.
+     */
+    private static final byte otherCode = 2;
+    /**
+     * Code in the allele lookup tables for bytes that are not single digit
+     * alleles.
+     */
+    private static final byte unknownCode = 3;
+    /**
+     * The decoded diploid genotypes for every pair of reference, alternative,
+     * and other allele codes, indexed by three times the first code plus the
+     * second code.
+     */
+    private static final int[] diploidGenotypes = {
+        2 << 2, (1 << 2) | 1, 1 << 2,
+        (1 << 2) | 1, 2, 1,
+        1 << 2, 1, -1
+    };
+    /**
+     * The array containing the bytes of the line.
+     */
+    private final byte[] line;
+    /**
+     * The index of the first byte of the line in the array.
+     */
+    private final int lineStart;
+    /**
+     * The index after the last byte of the line in the array.
+     */
+    private final int lineEnd;
+    /**
+     * The position of the record.
+     */
+    private final int bp;
+    /**
+     * The number of samples.
+     */
+    private final int nSamples;
+    /**
+     * The index after the end of the chromosome.
+     */
+    private final int chrEnd;
+    /**
+     * The index of the start of the id.
+     */
+    private final int idStart;
+    /**
+     * The index after the end of the id.
+     */
+    private final int idEnd;
+    /**
+     * The indexes of the start of the alleles, reference first.
+     */
+    private final int[] alleleStarts;
+    /**
+     * The indexes after the end of the alleles, reference first.
+     */
+    private final int[] alleleEnds;
+    /**
+     * The index of GT in the format field, -1 if not present.
+     */
+    private final int gtIndex;
+    /**
+     * The index of the first sample column.
+     */
+    private final int samplesStart;
+    /**
+     * The index of the first column of every range of sample columns decoded
+     * in parallel, null if not computed yet.
+     */
+    private int[] rangeStarts = null;
+    /**
+     * The index of the first sample of every range of sample columns decoded
+     * in parallel, null if not computed yet.
+     */
+    private int[] rangeFirstSamples = null;
+
+    /**
+     * Constructor for a record owning the bytes of its line.
+     *
+     * @param line the bytes of the line
+     * @param bp the position of the record
+     * @param nSamples the number of samples
+     */
+    public GtVcfRecord(byte[] line, int bp, int nSamples) {
+
+        this(line, 0, line.length, bp, nSamples);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param line the array containing the bytes of the line
+     * @param lineStart the index of the first byte of the line in the array
+     * @param lineLength the length of the line
+     * @param bp the position of the record
+     * @param nSamples the number of samples
+     */
+    public GtVcfRecord(byte[] line, int lineStart, int lineLength, int bp, int nSamples) {
+
+        this.line = line;
+        this.lineStart = lineStart;
+        this.lineEnd = lineStart + lineLength;
+        this.bp = bp;
+        this.nSamples = nSamples;
+
+        int[] fieldStarts = new int[10];
+        fieldStarts[0] = lineStart;
+        int field = 1;
+
+        for (int i = lineStart; i < lineEnd && field < fieldStarts.length; i++) {
+
+            if (line[i] == '\t') {
+
+                fieldStarts[field++] = i + 1;
+
+            }
+        }
+
+        if (field < 8) {
+
+            throw new IllegalArgumentException("Unexpected number of columns in vcf line " + getString(lineStart, Math.min(lineEnd, lineStart + 100)) + ".");
+
+        }
+
+        chrEnd = fieldStarts[1] - 1;
+        idStart = fieldStarts[2];
+        idEnd = fieldStarts[3] - 1;
+
+        int altStart = fieldStarts[4];
+        int altEnd = fieldStarts[5] - 1;
+        int nAlleles = altEnd - altStart == 1 && line[altStart] == '.' ? 1 : 2;
+
+        if (nAlleles > 1) {
+
+            for (int i = altStart; i < altEnd; i++) {
+
+                if (line[i] == ',') {
+
+                    nAlleles++;
+
+                }
+            }
+        }
+
+        alleleStarts = new int[nAlleles];
+        alleleEnds = new int[nAlleles];
+        alleleStarts[0] = fieldStarts[3];
+        alleleEnds[0] = altStart - 1;
+
+        if (nAlleles > 1) {
+
+            int allele = 1;
+            alleleStarts[1] = altStart;
+
+            for (int i = altStart; i < altEnd; i++) {
+
+                if (line[i] == ',') {
+
+                    alleleEnds[allele++] = i;
+                    alleleStarts[allele] = i + 1;
+
+                }
+            }
+
+            alleleEnds[allele] = altEnd;
+
+        }
+
+        if (field < 10) {
+
+            gtIndex = -1;
+            samplesStart = lineEnd;
+
+        } else {
+
+            gtIndex = getGtIndex(fieldStarts[8], fieldStarts[9] - 1);
+            samplesStart = fieldStarts[9];
+
+        }
+    }
+
+    /**
+     * Returns the index of GT in the given format field.
+     *
+     * @param start the index of the start of the format field
+     * @param end the index after the end of the format field
+     *
+     * @return the index of GT, -1 if not found
+     */
+    private int getGtIndex(int start, int end) {
+
+        int subfield = 0;
+        int subfieldStart = start;
+
+        for (int i = start; i <= end; i++) {
+
+            if (i == end || line[i] == ':') {
+
+                if (i - subfieldStart == 2 && line[subfieldStart] == 'G' && line[subfieldStart + 1] == 'T') {
+
+                    return subfield;
+
+                }
+
+                subfield++;
+                subfieldStart = i + 1;
+
+            }
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Returns the given bytes of the line as string.
+     *
+     * @param start the index of the first byte
+     * @param end the index after the last byte
+     *
+     * @return the bytes as string
+     */
+    private String getString(int start, int end) {
+
+        return new String(line, start, end - start, StandardCharsets.UTF_8);
+
+    }
+
+    /**
+     * Returns the given byte in upper case.
+     *
+     * @param b the byte
+     *
+     * @return the byte in upper case
+     */
+    private static int toUpperCase(byte b) {
+
+        return b >= 'a' && b <= 'z' ? b - ('a' - 'A') : b;
+
+    }
+
+    /**
+     * Indicates whether the allele at the given index is the given allele,
+     * ignoring the case of the record.
+     *
+     * @param alleleIndex the index of the allele
+     * @param allele the allele in upper case
+     *
+     * @return a boolean indicating whether the allele at the given index is
+     * the given allele
+     */
+    private boolean isAllele(int alleleIndex, String allele) {
+
+        int start = alleleStarts[alleleIndex];
+
+        if (alleleEnds[alleleIndex] - start != allele.length()) {
+
+            return false;
+
+        }
+
+        for (int i = 0; i < allele.length(); i++) {
+
+            if (toUpperCase(line[start + i]) != allele.charAt(i)) {
+
+                return false;
+
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Indicates whether the allele at the given index is the reference
+     * allele, ignoring case.
+     *
+     * @param alleleIndex the index of the allele
+     *
+     * @return a boolean indicating whether the allele at the given index is
+     * the reference allele
+     */
+    private boolean isRef(int alleleIndex) {
+
+        int start = alleleStarts[alleleIndex];
+        int refStart = alleleStarts[0];
+        int length = alleleEnds[0] - refStart;
+
+        if (alleleEnds[alleleIndex] - start != length) {
+
+            return false;
+
+        }
+
+        for (int i = 0; i < length; i++) {
+
+            if (toUpperCase(line[start + i]) != toUpperCase(line[refStart + i])) {
+
+                return false;
+
+            }
+        }
+
+        return true;
+
+    }
+
+    @Override
+    public String getChr() {
+
+        return getString(lineStart, chrEnd);
+
+    }
+
+    @Override
+    public int getStart() {
+
+        return bp;
+
+    }
+
+    @Override
+    public String getId() {
+
+        return getString(idStart, idEnd);
+
+    }
+
+    @Override
+    public boolean hasId(String id) {
+
+        if (idEnd - idStart != id.length()) {
+
+            return false;
+
+        }
+
+        for (int i = 0; i < id.length(); i++) {
+
+            if (line[idStart + i] != id.charAt(i)) {
+
+                return false;
+
+            }
+        }
+
+        return true;
+
+    }
+
+    @Override
+    public String getRef() {
+
+        return getString(alleleStarts[0], alleleEnds[0]).toUpperCase();
+
+    }
+
+    @Override
+    public boolean hasRef(String ref) {
+
+        return isAllele(0, ref);
+
+    }
+
+    @Override
+    public boolean hasAlt(String alt) {
+
+        for (int i = 1; i < alleleStarts.length; i++) {
+
+            if (isAllele(i, alt)) {
+
+                return true;
+
+            }
+        }
+
+        return false;
+
+    }
+
+    @Override
+    public int getNSamples() {
+
+        return nSamples;
+
+    }
+
+    @Override
+    public VariantRecord copy() {
+
+        return new GtVcfRecord(Arrays.copyOfRange(line, lineStart, lineEnd), bp, nSamples);
+
+    }
+
+    @Override
+    public void parseGenotypes() {
+
+        // Genotypes are decoded from the bytes of the line
+
+    }
+
+    @Override
+    public GenotypeColumn decode(String alt, int firstSample, int nSamples) {
+
+        return decode(alt, null, firstSample, nSamples);
+
+    }
+
+    @Override
+    public GenotypeColumn decode(String alt, int[] samples) {
+
+        return decode(alt, samples, 0, samples.length);
+
+    }
+
+    /**
+     * Decodes the genotypes of the given samples, or of a range of samples if
+     * no samples are given. The columns of the samples not decoded are
+     * skipped.
+     *
+     * @param alt the alternative allele
+     * @param samples the indexes of the samples to decode in ascending order,
+     * null to decode a range of samples
+     * @param firstSample the index of the first sample of the range, ignored
+     * if samples are given
+     * @param nSamples the number of samples to decode
+     *
+     * @return the genotypes of the samples
+     */
+    private GenotypeColumn decode(String alt, int[] samples, int firstSample, int nSamples) {
+
+        long[] counts = new long[(nSamples + GenotypeColumn.samplesPerWord - 1) / GenotypeColumn.samplesPerWord];
+        long[] firstCounts = new long[counts.length];
+        long[] missing = new long[(nSamples + 63) >>> 6];
+
+        if (gtIndex == -1) {
+
+            for (int i = 0; i < nSamples; i++) {
+
+                missing[i >>> 6] |= 1L << (i & 63);
+
+            }
+
+            return new GenotypeColumn(getRef(), alt, nSamples, counts, missing);
+
+        }
+
+        byte[] codes = getAlleleCodes(alt);
+        boolean notDiploid;
+
+        if (lineEnd - samplesStart < parallelDecodingLength) {
+
+            notDiploid = decodeColumns(samplesStart, 0, 0, nSamples, samples, firstSample, codes, alt, counts, firstCounts, missing);
+
+        } else {
+
+            setRanges();
+
+            notDiploid = IntStream.range(0, rangeStarts.length)
+                    .parallel()
+                    .map(range -> {
+
+                        int start = getAlignedIndex(getFirstIndex(rangeFirstSamples[range], samples, firstSample, nSamples), nSamples);
+                        int end = range + 1 < rangeStarts.length
+                                ? getAlignedIndex(getFirstIndex(rangeFirstSamples[range + 1], samples, firstSample, nSamples), nSamples)
+                                : nSamples;
+
+                        return start < end && decodeColumns(rangeStarts[range], rangeFirstSamples[range], start, end, samples, firstSample, codes, alt, counts, firstCounts, missing) ? 1 : 0;
+
+                    })
+                    .sum() > 0;
+        }
+
+        return new GenotypeColumn(getRef(), alt, nSamples, counts, notDiploid ? firstCounts : null, missing);
+
+    }
+
+    /**
+     * Decodes the genotypes of the samples between the given indexes into the
+     * given words. Ranges of indexes starting at multiples of 64 are written
+     * to distinct words and can be decoded concurrently.
+     *
+     * @param position the index of a sample column, not after the column of
+     * the first sample to decode
+     * @param sample the index of the sample of this column
+     * @param start the index of the first sample to decode among the samples
+     * decoded
+     * @param end the index after the last sample to decode among the samples
+     * decoded
+     * @param samples the indexes of the samples decoded in ascending order,
+     * null for a range of samples
+     * @param firstSample the index of the first sample of the range, ignored
+     * if samples are given
+     * @param codes the allele lookup table
+     * @param alt the alternative allele
+     * @param counts the words of alternative allele counts
+     * @param firstCounts the words of reference allele counts
+     * @param missing the words of missing genotypes
+     *
+     * @return a boolean indicating whether a genotype not missing is not
+     * diploid on the reference and alternative alleles
+     */
+    private boolean decodeColumns(int position, int sample, int start, int end, int[] samples, int firstSample, byte[] codes, String alt, long[] counts, long[] firstCounts, long[] missing) {
+
+        boolean notDiploid = false;
+
+
+        for (int i = start; i < end; i++) {
+
+            int target = samples == null ? firstSample + i : samples[i];
+
+            for (; sample < target; sample++) {
+
+                position = nextColumn(position);
+
+            }
+
+            if (position >= lineEnd) {
+
+                throw new IllegalArgumentException(nSamples + " samples expected for variant " + getId() + " at position " + bp + ".");
+
+            }
+
+            int genotype = decodeGenotype(position, codes, alt);
+
+            if (genotype == -1) {
+
+                missing[i >>> 6] |= 1L << (i & 63);
+
+            } else {
+
+                int altCount = genotype & 3;
+                int refCount = genotype >>> 2;
+
+                counts[i >>> 5] |= (long) altCount << ((i & 31) << 1);
+                firstCounts[i >>> 5] |= (long) refCount << ((i & 31) << 1);
+
+                notDiploid |= refCount + altCount != 2;
+
+            }
+        }
+
+        return notDiploid;
+
+    }
+
+    /**
+     * Returns the index among the samples decoded of the first sample at or
+     * after the given sample.
+     *
+     * @param sample the index of the sample
+     * @param samples the indexes of the samples decoded in ascending order,
+     * null for a range of samples
+     * @param firstSample the index of the first sample of the range, ignored
+     * if samples are given
+     * @param nSamples the number of samples decoded
+     *
+     * @return the index among the samples decoded
+     */
+    private static int getFirstIndex(int sample, int[] samples, int firstSample, int nSamples) {
+
+        if (samples == null) {
+
+            return Math.min(Math.max(sample - firstSample, 0), nSamples);
+
+        }
+
+        int index = Arrays.binarySearch(samples, sample);
+
+        return index >= 0 ? index : -index - 1;
+
+    }
+
+    /**
+     * Returns the first multiple of 64 at or after the given index, at most
+     * the number of samples decoded.
+     *
+     * @param index the index among the samples decoded
+     * @param nSamples the number of samples decoded
+     *
+     * @return the aligned index
+     */
+    private static int getAlignedIndex(int index, int nSamples) {
+
+        return Math.min((index + 63) & ~63, nSamples);
+
+    }
+
+    /**
+     * Splits the sample columns into ranges of approximately the decoding
+     * range length at tab boundaries, and counts the columns of every range
+     * to find the index of its first sample. Both steps are conducted in
+     * parallel.
+     */
+    private synchronized void setRanges() {
+
+        if (rangeStarts != null) {
+
+            return;
+
+        }
+
+        int nRanges = (lineEnd - samplesStart + decodingRangeLength - 1) / decodingRangeLength;
+
+        int[] starts = new int[nRanges];
+        int[] firstSamples = new int[nRanges];
+
+        IntStream.range(1, nRanges)
+                .parallel()
+                .forEach(range -> starts[range] = Math.min(nextColumn(samplesStart + range * decodingRangeLength - 1), lineEnd));
+
+        starts[0] = samplesStart;
+
+        int[] nColumns = IntStream.range(0, nRanges)
+                .parallel()
+                .map(range -> countTabs(starts[range], range + 1 < nRanges ? starts[range + 1] : lineEnd))
+                .toArray();
+
+        for (int range = 1; range < nRanges; range++) {
+
+            firstSamples[range] = firstSamples[range - 1] + nColumns[range - 1];
+
+        }
+
+        rangeFirstSamples = firstSamples;
+        rangeStarts = starts;
+
+    }
+
+    /**
+     * Counts the tabs in the given bytes of the line.
+     *
+     * @param start the index of the first byte
+     * @param end the index after the last byte
+     *
+     * @return the number of tabs
+     */
+    private int countTabs(int start, int end) {
+
+        int count = 0;
+
+        for (int i = start; i < end; i++) {
+
+            if (line[i] == '\t') {
+
+                count++;
+
+            }
+        }
+
+        return count;
+
+    }
+
+    /**
+     * Returns the number of copies of the given allele and the total number
+     * of alleles in the genotypes of all samples, where every allele of the
+     * GT subfield counts, missing or not. Samples without GT subfield are not
+     * counted. The sample columns of very wide records are counted in
+     * parallel.
+     *
+     * @param alt the allele
+     *
+     * @return the number of copies of the allele and the total number of
+     * alleles
+     */
+    public long[] getAlleleCounts(String alt) {
+
+        if (gtIndex == -1) {
+
+            return new long[2];
+
+        }
+
+        if (lineEnd - samplesStart < parallelDecodingLength) {
+
+            return countAlleles(samplesStart, lineEnd, alt);
+
+        }
+
+        setRanges();
+
+        return IntStream.range(0, rangeStarts.length)
+                .parallel()
+                .mapToObj(range -> countAlleles(rangeStarts[range], range + 1 < rangeStarts.length ? rangeStarts[range + 1] : lineEnd, alt))
+                .reduce(new long[2], (counts1, counts2) -> new long[]{counts1[0] + counts2[0], counts1[1] + counts2[1]});
+
+    }
+
+    /**
+     * Counts the copies of the given allele and the total number of alleles
+     * in the sample columns starting in the given bytes of the line.
+     *
+     * @param start the index of the first sample column
+     * @param end the index after the last byte
+     * @param alt the allele
+     *
+     * @return the number of copies of the allele and the total number of
+     * alleles
+     */
+    private long[] countAlleles(int start, int end, String alt) {
+
+        long nAlt = 0;
+        long nAlleles = 0;
+
+        for (int position = start; position < end; position = nextColumn(position)) {
+
+            int gtStart = getGtStart(position);
+
+            if (gtStart == -1) {
+                continue;
+            }
+
+            int alleleIndex = -1;
+
+            for (int i = gtStart; ; i++) {
+
+                if (!isSubfieldEnd(i) && line[i] >= '0' && line[i] <= '9') {
+
+                    alleleIndex = (alleleIndex == -1 ? 0 : 10 * alleleIndex) + line[i] - '0';
+
+                } else if (isSubfieldEnd(i) || line[i] == '/' || line[i] == '|') {
+
+                    nAlleles++;
+
+                    if (alleleIndex > 0 && alleleIndex < alleleStarts.length && isAllele(alleleIndex, alt)) {
+
+                        nAlt++;
+
+                    }
+
+                    if (isSubfieldEnd(i)) {
+                        break;
+                    }
+
+                    alleleIndex = -1;
+
+                }
+            }
+        }
+
+        return new long[]{nAlt, nAlleles};
+
+    }
+
+    /**
+     * Returns the lookup table from byte to allele code: the codes of the
+     * alleles for the digits of their index, other code for the missing
+     * allele and for digits without allele, unknown code for other bytes.
+     *
+     * @param alt the alternative allele
+     *
+     * @return the lookup table
+     */
+    private byte[] getAlleleCodes(String alt) {
+
+        byte[] codes = new byte[256];
+        Arrays.fill(codes, unknownCode);
+
+        codes['.'] = otherCode;
+
+        for (int digit = 0; digit < 10; digit++) {
+
+            codes['0' + digit] = getAlleleCode(digit, alt);
+
+        }
+
+        return codes;
+
+    }
+
+    /**
+     * Returns the code of the allele at the given index.
+     *
+     * @param alleleIndex the index of the allele
+     * @param alt the alternative allele
+     *
+     * @return the code of the allele
+     */
+    private byte getAlleleCode(int alleleIndex, String alt) {
+
+        if (alleleIndex >= alleleStarts.length) {
+
+            return otherCode;
+
+        }
+
+        return isAllele(alleleIndex, alt) ? altCode
+                : isRef(alleleIndex) ? refCode
+                : otherCode;
+
+    }
+
+    /**
+     * Returns the number of copies of the reference allele times four plus
+     * the number of copies of the alternative allele in the genotype of the
+     * sample column starting at the given index.
+     *
+     * @param columnStart the index of the start of the sample column
+     * @param codes the allele lookup table
+     * @param alt the alternative allele
+     *
+     * @return the number of copies of the reference allele times four plus
+     * the number of copies of the alternative allele, -1 if missing
+     */
+    private int decodeGenotype(int columnStart, byte[] codes, String alt) {
+
+        int start = getGtStart(columnStart);
+
+        if (start == -1) {
+
+            return -1;
+
+        }
+
+        if (start + 2 < lineEnd && isSubfieldEnd(start + 3)) {
+
+            byte separator = line[start + 1];
+
+            if (separator == '/' || separator == '|') {
+
+                int code1 = codes[line[start] & 0xff];
+                int code2 = codes[line[start + 2] & 0xff];
+
+                if (code1 <= otherCode && code2 <= otherCode) {
+
+                    return diploidGenotypes[3 * code1 + code2];
+
+                }
+            }
+        }
+
+        return parseGenotype(start, alt);
+
+    }
+
+    /**
+     * Returns the index of the GT subfield in the sample column starting at
+     * the given index.
+     *
+     * @param columnStart the index of the start of the sample column
+     *
+     * @return the index of the GT subfield, -1 if the column has no GT
+     * subfield
+     */
+    private int getGtStart(int columnStart) {
+
+        int start = columnStart;
+
+        for (int k = 0; k < gtIndex; k++) {
+
+            while (start < lineEnd && line[start] != ':' && line[start] != '\t') {
+
+                start++;
+
+            }
+
+            if (start == lineEnd || line[start] == '\t') {
+
+                return -1;
+
+            }
+
+            start++;
+
+        }
+
+        return start;
+
+    }
+
+    /**
+     * Parses a genotype of any ploidy and allele indexes. Missing alleles and
+     * other alleles are not counted. Genotypes without copy of the reference
+     * and alternative alleles, with more than three copies of an allele, or
+     * that cannot be parsed are returned as missing.
+     *
+     * @param start the index of the start of the genotype
+     * @param alt the alternative allele
+     *
+     * @return the number of copies of the reference allele times four plus
+     * the number of copies of the alternative allele, -1 if missing
+     */
+    private int parseGenotype(int start, String alt) {
+
+        int refCount = 0;
+        int altCount = 0;
+        int position = start;
+
+        while (true) {
+
+            int alleleIndex = 0;
+            int tokenStart = position;
+
+            while (!isSubfieldEnd(position) && line[position] >= '0' && line[position] <= '9') {
+
+                alleleIndex = 10 * alleleIndex + line[position] - '0';
+                position++;
+
+            }
+
+            if (position == tokenStart) {
+
+                while (!isSubfieldEnd(position) && line[position] != '/' && line[position] != '|') {
+
+                    position++;
+
+                }
+
+            } else {
+
+                byte code = getAlleleCode(alleleIndex, alt);
+
+                if (code == refCode) {
+
+                    refCount++;
+
+                } else if (code == altCode) {
+
+                    altCount++;
+
+                }
+            }
+
+            if (isSubfieldEnd(position)) {
+
+                break;
+
+            }
+
+            byte separator = line[position];
+
+            if (separator != '/' && separator != '|') {
+
+                return -1;
+
+            }
+
+            position++;
+
+        }
+
+        return refCount + altCount == 0 || refCount > 3 || altCount > 3 ? -1 : (refCount << 2) | altCount;
+
+    }
+
+    /**
+     * Indicates whether the given index is the end of a subfield.
+     *
+     * @param index the index in the array
+     *
+     * @return a boolean indicating whether the given index is the end of a
+     * subfield
+     */
+    private boolean isSubfieldEnd(int index) {
+
+        return index == lineEnd || line[index] == ':' || line[index] == '\t';
+
+    }
+
+    /**
+     * Returns the start of the next sample column.
+     *
+     * @param position an index in the current sample column
+     *
+     * @return the start of the next sample column
+     */
+    private int nextColumn(int position) {
+
+        while (position < lineEnd && line[position] != '\t') {
+
+            position++;
+
+        }
+
+        return position + 1;
+
+    }
+}
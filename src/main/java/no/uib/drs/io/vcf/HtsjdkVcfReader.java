@@ -0,0 +1,297 @@
+package no.uib.drs.io.vcf;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import no.uib.drs.model.genotypes.GenotypeColumn;
+
+/**
+ * Reader of vcf files using the complete parsing of htsjdk. Records can also
+ * be read once in the order of a vcf stream, e.g. from the standard input,
+ * without index.
+ *
+ * @author Marc Vaudel
+ */
+public class HtsjdkVcfReader implements VariantRecordReader {
+
+    /**
+     * The htsjdk reader, null if reading a stream.
+     */
+    private final VCFFileReader vcfFileReader;
+    /**
+     * The header of the vcf.
+     */
+    private final VCFHeader header;
+    /**
+     * The lines of the stream, null if reading a file.
+     */
+    private final AsciiLineReaderIterator lineIterator;
+    /**
+     * The codec parsing the lines of the stream, null if reading a file.
+     */
+    private final VCFCodec codec;
+    /**
+     * Boolean indicating whether the records of the stream were read.
+     */
+    private boolean streamRead = false;
+
+    /**
+     * Constructor.
+     *
+     * @param vcfFile the vcf file
+     * @param indexFile the index file
+     */
+    public HtsjdkVcfReader(File vcfFile, File indexFile) {
+
+        vcfFileReader = new VCFFileReader(vcfFile, indexFile);
+        header = vcfFileReader.getFileHeader();
+        lineIterator = null;
+        codec = null;
+
+    }
+
+    /**
+     * Constructor for a vcf stream. The records can be iterated only once and
+     * cannot be queried.
+     *
+     * @param stream the stream of the decompressed bytes of the vcf
+     */
+    public HtsjdkVcfReader(InputStream stream) {
+
+        vcfFileReader = null;
+        lineIterator = new AsciiLineReaderIterator(AsciiLineReader.from(stream));
+        codec = new VCFCodec();
+        header = (VCFHeader) codec.readActualHeader(lineIterator);
+
+    }
+
+    /**
+     * Returns the sample names in the order of the genotypes of the records,
+     * i.e. the order of the file. Note that htsjdk sorts the sample names
+     * returned by getSampleNamesInOrder.
+     *
+     * @return the ordered sample names
+     */
+    @Override
+    public ArrayList<String> getSampleNames() {
+
+        return new ArrayList<>(header.getGenotypeSamples());
+
+    }
+
+    @Override
+    public CloseableIterator<VariantRecord> query(String chr, int start, int end) {
+
+        if (vcfFileReader == null) {
+
+            throw new UnsupportedOperationException("A vcf stream cannot be queried.");
+
+        }
+
+        return wrap(vcfFileReader.query(chr, start, end));
+
+    }
+
+    @Override
+    public CloseableIterator<VariantRecord> iterator() {
+
+        if (vcfFileReader != null) {
+
+            return wrap(vcfFileReader.iterator());
+
+        }
+
+        if (streamRead) {
+
+            throw new IllegalStateException("The records of a vcf stream can be read only once.");
+
+        }
+
+        streamRead = true;
+
+        return wrap(new CloseableIterator<VariantContext>() {
+
+            @Override
+            public boolean hasNext() {
+
+                return lineIterator.hasNext();
+
+            }
+
+            @Override
+            public VariantContext next() {
+
+                return codec.decode(lineIterator.next());
+
+            }
+
+            @Override
+            public void close() {
+
+            }
+        });
+    }
+
+    /**
+     * Wraps an iterator over htsjdk records.
+     *
+     * @param iterator the iterator over htsjdk records
+     *
+     * @return an iterator over variant records
+     */
+    private static CloseableIterator<VariantRecord> wrap(CloseableIterator<VariantContext> iterator) {
+
+        return new CloseableIterator<VariantRecord>() {
+
+            @Override
+            public boolean hasNext() {
+
+                return iterator.hasNext();
+
+            }
+
+            @Override
+            public VariantRecord next() {
+
+                return new HtsjdkVcfRecord(iterator.next());
+
+            }
+
+            @Override
+            public void close() {
+
+                iterator.close();
+
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+
+        if (vcfFileReader != null) {
+
+            vcfFileReader.close();
+
+        } else {
+
+            try {
+
+                lineIterator.close();
+
+            } catch (IOException e) {
+
+                throw new RuntimeException(e);
+
+            }
+        }
+    }
+
+    /**
+     * A record parsed by htsjdk.
+     */
+    private static class HtsjdkVcfRecord implements VariantRecord {
+
+        /**
+         * The htsjdk record.
+         */
+        private final VariantContext variantContext;
+
+        /**
+         * Constructor.
+         *
+         * @param variantContext the htsjdk record
+         */
+        public HtsjdkVcfRecord(VariantContext variantContext) {
+
+            this.variantContext = variantContext;
+
+        }
+
+        @Override
+        public String getChr() {
+
+            return variantContext.getContig();
+
+        }
+
+        @Override
+        public int getStart() {
+
+            return variantContext.getStart();
+
+        }
+
+        @Override
+        public String getId() {
+
+            return variantContext.getID();
+
+        }
+
+        @Override
+        public String getRef() {
+
+            return variantContext.getReference().getBaseString();
+
+        }
+
+        @Override
+        public boolean hasAlt(String alt) {
+
+            return variantContext.getAlternateAlleles().stream()
+                    .anyMatch(allele -> allele.getBaseString().equals(alt));
+
+        }
+
+        @Override
+        public int getNSamples() {
+
+            return variantContext.getNSamples();
+
+        }
+
+        @Override
+        public VariantRecord copy() {
+
+            return this;
+
+        }
+
+        @Override
+        public void parseGenotypes() {
+
+            GenotypesContext genotypes = variantContext.getGenotypes();
+
+            if (genotypes instanceof LazyGenotypesContext) {
+
+                ((LazyGenotypesContext) genotypes).decode();
+
+            }
+        }
+
+        @Override
+        public GenotypeColumn decode(String alt, int firstSample, int nSamples) {
+
+            return GenotypeColumn.decode(variantContext, alt, firstSample, nSamples);
+
+        }
+
+        @Override
+        public GenotypeColumn decode(String alt, int[] samples) {
+
+            return GenotypeColumn.decode(variantContext, alt, samples);
+
+        }
+    }
+}
@@ -202,6 +202,29 @@ public class VariantDetailsProvider {
 
     }
 
+    /**
+     * Attributes all variants to the given vcf file, e.g. a vcf stream
+     * containing the records of the vcf files named in the info files.
+     *
+     * @param vcfName the vcf name
+     */
+    public void setVcfName(String vcfName) {
+
+        mutex.acquire();
+
+        variantFileMap.replaceAll((id, name) -> vcfName);
+        coordinatesFileMap.values().stream()
+                .flatMap(chrMap -> chrMap.values().stream())
+                .flatMap(bpMap -> bpMap.values().stream())
+                .forEach(refMap -> refMap.replaceAll((alt, name) -> vcfName));
+
+        vcfFileNames.clear();
+        vcfFileNames.add(vcfName);
+
+        mutex.release();
+
+    }
+
     /**
      * Returns the variant with the given id, null if not found.
      *
@@ -0,0 +1,586 @@
+package no.uib.drs.io.vcf;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.tribble.index.Index;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import no.uib.drs.io.vcf.VcfQueryPlanner.AccessMode;
+import no.uib.drs.model.biology.Variant;
+
+/**
+ * Retrieves the records of a set of variants from a vcf file, either by
+ * querying groups of nearby positions or by sweeping through the file in
+ * coordinate order, and merging the records with the sorted variants. Groups,
+ * respectively chromosomes, are processed in parallel, every thread using its
+ * own reader. Optionally, records are read and their genotypes parsed ahead on
+ * background threads while the consumer processes previous records. A vcf
+ * stream is read once in the order of the stream by a single reader, and its
+ * records are merged with the sorted variants of their chromosome.
+ *
+ * @author Marc Vaudel
+ */
+public class VariantFetcher {
+
+    /**
+     * The name of the vcf file.
+     */
+    private final String vcfFileName;
+    /**
+     * The pool of readers to use.
+     */
+    private final VcfReaderPool vcfReaderPool;
+    /**
+     * The number of batches of records to prefetch, 0 if records are not
+     * prefetched.
+     */
+    private final int nPrefetch;
+    /**
+     * The maximal number of records per prefetched batch.
+     */
+    public static final int prefetchBatchSize = 256;
+    /**
+     * The time in milliseconds a prefetching thread waits for space in the
+     * queue before checking whether prefetching was cancelled.
+     */
+    public static final long prefetchWaitMs = 100;
+    /**
+     * Batch indicating that all records of a region were prefetched.
+     */
+    private static final ArrayList<Record> endOfRegion = new ArrayList<>(0);
+
+    /**
+     * Constructor. Records are not prefetched.
+     *
+     * @param vcfFileName the name of the vcf file
+     * @param vcfReaderPool the pool of readers to use
+     */
+    public VariantFetcher(String vcfFileName, VcfReaderPool vcfReaderPool) {
+
+        this(vcfFileName, vcfReaderPool, 0);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param vcfFileName the name of the vcf file
+     * @param vcfReaderPool the pool of readers to use
+     * @param nPrefetch the number of batches of records to prefetch, 0 to
+     * process records on the reading threads
+     */
+    public VariantFetcher(String vcfFileName, VcfReaderPool vcfReaderPool, int nPrefetch) {
+
+        this.vcfFileName = vcfFileName;
+        this.vcfReaderPool = vcfReaderPool;
+        this.nPrefetch = nPrefetch;
+
+    }
+
+    /**
+     * Passes the records starting at the position of the given variants to the
+     * consumer together with the variants at this position. The access mode is
+     * selected by the query planner based on the number of positions to
+     * retrieve, vcf streams and PLINK filesets are swept. The consumer can be called from different threads, unless
+     * records are prefetched, in which case it is called from the calling
+     * thread only.
+     *
+     * @param variants the variants to retrieve
+     * @param consumer the consumer of the records and variants
+     */
+    public void fetch(Collection<Variant> variants, BiConsumer<VariantRecord, List<Variant>> consumer) {
+
+        HashMap<String, Variant[]> sortedVariants = sortVariants(variants);
+
+        if (vcfReaderPool.isStream(vcfFileName) || vcfReaderPool.isPlink(vcfFileName)) {
+
+            fetch(sortedVariants, AccessMode.sweep, consumer);
+            return;
+
+        }
+
+        int nPositions = sortedVariants.values().stream()
+                .mapToInt(chrVariants -> (int) Arrays.stream(chrVariants)
+                        .mapToInt(variant -> variant.bp)
+                        .distinct()
+                        .count())
+                .sum();
+
+        AccessMode accessMode = VcfQueryPlanner.getAccessMode(vcfReaderPool.getVcfFile(vcfFileName), nPositions);
+
+        fetch(sortedVariants, accessMode, consumer);
+
+    }
+
+    /**
+     * Passes the records starting at the position of the given variants to the
+     * consumer together with the variants at this position using the given
+     * access mode. The consumer can be called from different threads, unless
+     * records are prefetched, in which case it is called from the calling
+     * thread only. Vcf streams can only be swept.
+     *
+     * @param variants the variants to retrieve
+     * @param accessMode the access mode
+     * @param consumer the consumer of the records and variants
+     */
+    public void fetch(Collection<Variant> variants, AccessMode accessMode, BiConsumer<VariantRecord, List<Variant>> consumer) {
+
+        fetch(sortVariants(variants), accessMode, consumer);
+
+    }
+
+    /**
+     * Passes the records starting at the position of the given variants to the
+     * consumer together with the variants at this position using the given
+     * access mode.
+     *
+     * @param sortedVariants the variants to retrieve sorted by position and indexed by chromosome
+     * @param accessMode the access mode
+     * @param consumer the consumer of the records and variants
+     */
+    private void fetch(HashMap<String, Variant[]> sortedVariants, AccessMode accessMode, BiConsumer<VariantRecord, List<Variant>> consumer) {
+
+        ArrayList<Consumer<BiConsumer<VariantRecord, List<Variant>>>> readTasks;
+
+        if (vcfReaderPool.isStream(vcfFileName)) {
+
+            if (accessMode != AccessMode.sweep) {
+
+                throw new IllegalArgumentException("Access mode " + accessMode + " not supported for the vcf stream " + vcfFileName + ".");
+
+            }
+
+            readTasks = new ArrayList<>(1);
+
+            if (!sortedVariants.isEmpty()) {
+
+                readTasks.add(taskConsumer -> stream(sortedVariants, taskConsumer));
+
+            }
+
+        } else {
+
+            readTasks = getRegions(sortedVariants, accessMode).stream()
+                    .map(regionVariants -> (Consumer<BiConsumer<VariantRecord, List<Variant>>>) taskConsumer -> sweep(regionVariants, taskConsumer))
+                    .collect(Collectors.toCollection(ArrayList::new));
+
+        }
+
+        if (nPrefetch == 0) {
+
+            readTasks.stream()
+                    .parallel()
+                    .forEach(readTask -> readTask.accept(consumer));
+
+        } else {
+
+            prefetch(readTasks, consumer);
+
+        }
+    }
+
+    /**
+     * Returns the regions to read using the given access mode. PLINK filesets
+     * have no tabix index, their positions are searched in memory and a
+     * chromosome is therefore swept in both access modes.
+     *
+     * @param sortedVariants the variants to retrieve sorted by position and
+     * indexed by chromosome
+     * @param accessMode the access mode
+     *
+     * @return the variants of every region sorted by position
+     */
+    private ArrayList<Variant[]> getRegions(HashMap<String, Variant[]> sortedVariants, AccessMode accessMode) {
+
+        if (vcfReaderPool.isPlink(vcfFileName)) {
+
+            return new ArrayList<>(sortedVariants.values());
+
+        }
+
+        switch (accessMode) {
+
+            case sweep:
+                return new ArrayList<>(sortedVariants.values());
+
+            case randomAccess:
+                Index index = vcfReaderPool.getIndex(vcfFileName);
+                return sortedVariants.values().stream()
+                        .flatMap(chrVariants -> VcfQueryPlanner.coalesce(index, chrVariants, VcfQueryPlanner.coalescingGap).stream())
+                        .collect(Collectors.toCollection(ArrayList::new));
+
+            default:
+                throw new UnsupportedOperationException("Access mode " + accessMode + " not implemented.");
+
+        }
+    }
+
+    /**
+     * Runs the given read tasks on background threads, one reader per thread,
+     * and passes the records in batches through a bounded queue to the
+     * consumer on the calling thread. The genotypes of the records are parsed
+     * on the background threads. If the consumer throws an exception,
+     * prefetching is cancelled: the background threads stop at their next
+     * batch, and as they are daemon threads they never keep the process
+     * alive.
+     *
+     * @param readTasks the tasks reading the records of a region and passing
+     * them to the given consumer
+     * @param consumer the consumer of the records and variants
+     */
+    private void prefetch(ArrayList<Consumer<BiConsumer<VariantRecord, List<Variant>>>> readTasks, BiConsumer<VariantRecord, List<Variant>> consumer) {
+
+        if (readTasks.isEmpty()) {
+            return;
+        }
+
+        ArrayBlockingQueue<ArrayList<Record>> queue = new ArrayBlockingQueue<>(nPrefetch);
+        ConcurrentLinkedQueue<RuntimeException> errors = new ConcurrentLinkedQueue<>();
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(readTasks.size(), vcfReaderPool.nReaders), runnable -> {
+
+            Thread thread = new Thread(runnable, "vcf-prefetcher");
+            thread.setDaemon(true);
+
+            return thread;
+
+        });
+
+        for (Consumer<BiConsumer<VariantRecord, List<Variant>>> readTask : readTasks) {
+
+            pool.submit(() -> {
+
+                try {
+
+                    ArrayList<Record> batch = new ArrayList<>(prefetchBatchSize);
+
+                    readTask.accept((variantRecord, positionVariants) -> {
+
+                        VariantRecord recordCopy = variantRecord.copy();
+                        recordCopy.parseGenotypes();
+
+                        batch.add(new Record(recordCopy, positionVariants));
+
+                        if (batch.size() == prefetchBatchSize) {
+
+                            if (!put(queue, new ArrayList<>(batch), cancelled)) {
+
+                                throw new CancellationException("Prefetching of " + vcfFileName + " cancelled.");
+
+                            }
+
+                            batch.clear();
+
+                        }
+                    });
+
+                    if (!batch.isEmpty()) {
+
+                        put(queue, batch, cancelled);
+
+                    }
+
+                } catch (CancellationException e) {
+
+                    // The consumer failed, its exception is thrown.
+
+                } catch (RuntimeException e) {
+
+                    errors.add(e);
+
+                } finally {
+
+                    put(queue, endOfRegion, cancelled);
+
+                }
+            });
+        }
+
+        pool.shutdown();
+
+        try {
+
+            int nDone = 0;
+
+            while (nDone < readTasks.size()) {
+
+                ArrayList<Record> batch = queue.take();
+
+                if (batch == endOfRegion) {
+
+                    nDone++;
+
+                } else {
+
+                    for (Record record : batch) {
+
+                        consumer.accept(record.variantRecord, record.variants);
+
+                    }
+                }
+            }
+
+        } catch (InterruptedException e) {
+
+            throw new RuntimeException(e);
+
+        } finally {
+
+            cancelled.set(true);
+            pool.shutdownNow();
+            queue.clear();
+
+        }
+
+        if (!errors.isEmpty()) {
+
+            throw errors.peek();
+
+        }
+    }
+
+    /**
+     * Puts a batch in the queue, waiting for space if needed, unless
+     * prefetching is cancelled or the thread interrupted.
+     *
+     * @param queue the queue
+     * @param batch the batch
+     * @param cancelled boolean indicating whether prefetching was cancelled
+     *
+     * @return a boolean indicating whether the batch was put in the queue
+     */
+    private static boolean put(ArrayBlockingQueue<ArrayList<Record>> queue, ArrayList<Record> batch, AtomicBoolean cancelled) {
+
+        try {
+
+            while (!cancelled.get()) {
+
+                if (queue.offer(batch, prefetchWaitMs, TimeUnit.MILLISECONDS)) {
+
+                    return true;
+
+                }
+            }
+
+            return false;
+
+        } catch (InterruptedException e) {
+
+            return false;
+
+        }
+    }
+
+    /**
+     * Sweeps through the region of a chromosome spanned by the given variants
+     * and merges the records with the sorted variants.
+     *
+     * @param chrVariants variants of a chromosome sorted by position
+     * @param consumer the consumer of the records and variants
+     */
+    private void sweep(Variant[] chrVariants, BiConsumer<VariantRecord, List<Variant>> consumer) {
+
+        List<Variant> variantsList = Arrays.asList(chrVariants);
+        Variant first = chrVariants[0];
+        Variant last = chrVariants[chrVariants.length - 1];
+        int i = 0;
+
+        VariantRecordReader vcfFileReader = vcfReaderPool.acquire(vcfFileName);
+
+        try (CloseableIterator<VariantRecord> iterator = vcfFileReader.query(first.chr, first.bp, last.bp)) {
+
+            while (iterator.hasNext() && i < chrVariants.length) {
+
+                i = merge(iterator.next(), variantsList, i, consumer);
+
+            }
+
+        } finally {
+
+            vcfReaderPool.release(vcfFileName, vcfFileReader);
+
+        }
+    }
+
+    /**
+     * Reads all the records of the vcf stream in the order of the stream and
+     * merges them with the sorted variants of their chromosome. The records of
+     * a chromosome must be contiguous and sorted by position, as in the output
+     * of bcftools on a sorted vcf file. The stream is read to its end.
+     *
+     * @param sortedVariants the variants to retrieve sorted by position and
+     * indexed by chromosome
+     * @param consumer the consumer of the records and variants
+     */
+    private void stream(HashMap<String, Variant[]> sortedVariants, BiConsumer<VariantRecord, List<Variant>> consumer) {
+
+        HashSet<String> chromosomes = new HashSet<>();
+        String chr = null;
+        List<Variant> variantsList = null;
+        int previousBp = 0;
+        int i = 0;
+
+        VariantRecordReader vcfFileReader = vcfReaderPool.acquire(vcfFileName);
+
+        try (CloseableIterator<VariantRecord> iterator = vcfFileReader.iterator()) {
+
+            while (iterator.hasNext()) {
+
+                VariantRecord variantRecord = iterator.next();
+                String recordChr = variantRecord.getChr();
+                int bp = variantRecord.getStart();
+
+                if (!recordChr.equals(chr)) {
+
+                    if (!chromosomes.add(recordChr)) {
+
+                        throw new IllegalArgumentException("Records of chromosome " + recordChr + " are not contiguous in the vcf stream " + vcfFileName + ".");
+
+                    }
+
+                    chr = recordChr;
+                    Variant[] chrVariants = sortedVariants.get(chr);
+                    variantsList = chrVariants == null ? null : Arrays.asList(chrVariants);
+                    i = 0;
+
+                } else if (bp < previousBp) {
+
+                    throw new IllegalArgumentException("Records not sorted by position in the vcf stream " + vcfFileName + " at " + chr + ":" + bp + ".");
+
+                }
+
+                previousBp = bp;
+
+                if (variantsList != null && i < variantsList.size()) {
+
+                    i = merge(variantRecord, variantsList, i, consumer);
+
+                }
+            }
+
+        } finally {
+
+            vcfReaderPool.release(vcfFileName, vcfFileReader);
+
+        }
+    }
+
+    /**
+     * Passes a record to the consumer together with the variants at its
+     * position, if any.
+     *
+     * @param variantRecord the record
+     * @param chrVariants the variants of the chromosome of the record sorted
+     * by position
+     * @param i the index of the first variant that can be at or after the
+     * position of the record
+     * @param consumer the consumer of the records and variants
+     *
+     * @return the index of the first variant at or after the position of the
+     * record
+     */
+    private static int merge(VariantRecord variantRecord, List<Variant> chrVariants, int i, BiConsumer<VariantRecord, List<Variant>> consumer) {
+
+        int bp = variantRecord.getStart();
+
+        while (i < chrVariants.size() && chrVariants.get(i).bp < bp) {
+            i++;
+        }
+
+        int end = i;
+
+        while (end < chrVariants.size() && chrVariants.get(end).bp == bp) {
+            end++;
+        }
+
+        if (end > i) {
+
+            consumer.accept(variantRecord, chrVariants.subList(i, end));
+
+        }
+
+        return i;
+
+    }
+
+    /**
+     * Sorts the given variants by position and indexes them by chromosome.
+     *
+     * @param variants the variants to sort
+     *
+     * @return the sorted variants indexed by chromosome
+     */
+    private static HashMap<String, Variant[]> sortVariants(Collection<Variant> variants) {
+
+        HashMap<String, ArrayList<Variant>> chrMap = new HashMap<>();
+
+        for (Variant variant : variants) {
+
+            ArrayList<Variant> chrVariants = chrMap.get(variant.chr);
+
+            if (chrVariants == null) {
+
+                chrVariants = new ArrayList<>();
+                chrMap.put(variant.chr, chrVariants);
+
+            }
+
+            chrVariants.add(variant);
+
+        }
+
+        HashMap<String, Variant[]> result = new HashMap<>(chrMap.size());
+
+        chrMap.entrySet().forEach(entry -> result.put(
+                entry.getKey(),
+                entry.getValue().stream()
+                        .sorted(Comparator.comparingInt(variant -> variant.bp))
+                        .toArray(Variant[]::new)));
+
+        return result;
+
+    }
+
+    /**
+     * A record and the variants at its position.
+     */
+    private static class Record {
+
+        /**
+         * The record.
+         */
+        public final VariantRecord variantRecord;
+        /**
+         * The variants at the position of the record.
+         */
+        public final List<Variant> variants;
+
+        /**
+         * Constructor.
+         *
+         * @param variantRecord the record
+         * @param variants the variants at the position of the record
+         */
+        public Record(VariantRecord variantRecord, List<Variant> variants) {
+
+            this.variantRecord = variantRecord;
+            this.variants = variants;
+
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package no.uib.drs.io.vcf;
+
+import no.uib.drs.model.genotypes.GenotypeColumn;
+
+/**
+ * A record of a genotype file, giving access to the fields needed for scoring
+ * only: the position, id and alleles of the variant, and the genotypes of the
+ * samples.
+ *
+ * @author Marc Vaudel
+ */
+public interface VariantRecord {
+
+    /**
+     * Returns the chromosome of the record.
+     *
+     * @return the chromosome of the record
+     */
+    public String getChr();
+
+    /**
+     * Returns the position of the record on its chromosome.
+     *
+     * @return the position of the record
+     */
+    public int getStart();
+
+    /**
+     * Returns the id of the record.
+     *
+     * @return the id of the record
+     */
+    public String getId();
+
+    /**
+     * Returns the reference allele.
+     *
+     * @return the reference allele
+     */
+    public String getRef();
+
+    /**
+     * Indicates whether the record has the given id.
+     *
+     * @param id the id
+     *
+     * @return a boolean indicating whether the record has the given id
+     */
+    public default boolean hasId(String id) {
+
+        return getId().equals(id);
+
+    }
+
+    /**
+     * Indicates whether the given allele is the reference allele of the
+     * record.
+     *
+     * @param ref the allele
+     *
+     * @return a boolean indicating whether the given allele is the reference
+     * allele of the record
+     */
+    public default boolean hasRef(String ref) {
+
+        return getRef().equals(ref);
+
+    }
+
+    /**
+     * Indicates whether the given allele is an alternative allele of the
+     * record.
+     *
+     * @param alt the allele
+     *
+     * @return a boolean indicating whether the given allele is an alternative
+     * allele of the record
+     */
+    public boolean hasAlt(String alt);
+
+    /**
+     * Returns the number of samples of the record.
+     *
+     * @return the number of samples
+     */
+    public int getNSamples();
+
+    /**
+     * Returns a record that remains valid after the reader moved to the next
+     * records. Records referencing the buffers of their reader are only valid
+     * until the next record is read.
+     *
+     * @return a record that remains valid
+     */
+    public VariantRecord copy();
+
+    /**
+     * Parses the genotypes of the record ahead of decoding, e.g. on a
+     * prefetching thread.
+     */
+    public void parseGenotypes();
+
+    /**
+     * Decodes the genotypes of a range of samples on the reference allele and
+     * the given alternative allele. Genotypes that are not diploid or carry
+     * another allele are flagged as missing.
+     *
+     * @param alt the alternative allele
+     * @param firstSample the index of the first sample to decode
+     * @param nSamples the number of samples to decode
+     *
+     * @return the genotypes of the samples, indexed from the first sample
+     */
+    public GenotypeColumn decode(String alt, int firstSample, int nSamples);
+
+    /**
+     * Decodes the genotypes of the given samples on the reference allele and
+     * the given alternative allele. The columns of other samples are skipped.
+     * Genotypes that are not diploid or carry another allele are flagged as
+     * missing.
+     *
+     * @param alt the alternative allele
+     * @param samples the indexes of the samples to decode in ascending order
+     *
+     * @return the genotypes of the samples, indexed in the order of the given
+     * samples
+     */
+    public GenotypeColumn decode(String alt, int[] samples);
+
+    /**
+     * Decodes the genotypes of all samples on the reference allele and the
+     * given alternative allele.
+     *
+     * @param alt the alternative allele
+     *
+     * @return the genotypes of all samples
+     */
+    public default GenotypeColumn decode(String alt) {
+
+        return decode(alt, 0, getNSamples());
+
+    }
+}
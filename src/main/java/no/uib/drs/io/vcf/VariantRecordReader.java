@@ -0,0 +1,44 @@
+package no.uib.drs.io.vcf;
+
+import htsjdk.samtools.util.CloseableIterator;
+import java.util.ArrayList;
+
+/**
+ * Reader for the records of an indexed genotype file. A reader is used by one
+ * thread at a time.
+ *
+ * @author Marc Vaudel
+ */
+public interface VariantRecordReader extends AutoCloseable {
+
+    /**
+     * Returns the ordered sample names.
+     *
+     * @return the ordered sample names
+     */
+    public ArrayList<String> getSampleNames();
+
+    /**
+     * Returns an iterator over the records of the given region in coordinate
+     * order.
+     *
+     * @param chr the chromosome
+     * @param start the first position of the region
+     * @param end the last position of the region
+     *
+     * @return an iterator over the records of the region
+     */
+    public CloseableIterator<VariantRecord> query(String chr, int start, int end);
+
+    /**
+     * Returns an iterator over all the records of the file in the order of
+     * the file.
+     *
+     * @return an iterator over all the records of the file
+     */
+    public CloseableIterator<VariantRecord> iterator();
+
+    @Override
+    public void close();
+
+}
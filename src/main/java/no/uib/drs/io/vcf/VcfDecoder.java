@@ -0,0 +1,27 @@
+package no.uib.drs.io.vcf;
+
+/**
+ * The different ways to decode the records of vcf files.
+ *
+ * @author Marc Vaudel
+ */
+public enum VcfDecoder {
+
+    /**
+     * Complete parsing of the records using htsjdk.
+     */
+    htsjdk,
+    /**
+     * Parsing of the fields needed for scoring only, genotypes are decoded
+     * from the GT subfield. Requires bgzip compressed files indexed using
+     * tabix, except for vcf streams.
+     */
+    gt,
+    /**
+     * Parsing as for the GT decoder where the file is mapped in memory and
+     * records are parsed in place in the inflated blocks. Vcf streams cannot
+     * be mapped and are parsed using the GT decoder.
+     */
+    mapped;
+
+}
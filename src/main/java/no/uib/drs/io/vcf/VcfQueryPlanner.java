@@ -0,0 +1,146 @@
+package no.uib.drs.io.vcf;
+
+import htsjdk.tribble.index.Block;
+import htsjdk.tribble.index.Index;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import no.uib.drs.model.biology.Variant;
+
+/**
+ * Decides how the variants of a vcf file should be accessed based on their
+ * density in the file, and groups nearby variants into common queries.
+ *
+ * @author Marc Vaudel
+ */
+public class VcfQueryPlanner {
+
+    /**
+     * The different ways to access the variants of a vcf file.
+     */
+    public enum AccessMode {
+
+        /**
+         * One indexed query per group of positions whose bgzf blocks overlap
+         * or are close in the file.
+         */
+        randomAccess,
+        /**
+         * A single pass in coordinate order through the region spanned by
+         * the variants of every chromosome.
+         */
+        sweep;
+
+    }
+
+    /**
+     * The maximal size of a compressed bgzf block in bytes, i.e. an upper bound
+     * of what needs to be read and inflated for every indexed query.
+     */
+    public static final long bgzfBlockSize = 65536;
+    /**
+     * The maximal distance in bytes in the compressed file between the blocks
+     * of two positions to retrieve them in the same query.
+     */
+    public static final long coalescingGap = bgzfBlockSize;
+
+    /**
+     * Returns the access mode to use for the given number of positions to
+     * retrieve from the given file. Every indexed query costs a seek and the
+     * inflation of at least one bgzf block, the file is therefore swept when
+     * the blocks of all queries would cover the size of the file.
+     *
+     * @param vcfFile the vcf file
+     * @param nPositions the number of distinct positions to retrieve
+     *
+     * @return the access mode to use
+     */
+    public static AccessMode getAccessMode(File vcfFile, int nPositions) {
+
+        return nPositions * bgzfBlockSize >= vcfFile.length()
+                ? AccessMode.sweep
+                : AccessMode.randomAccess;
+
+    }
+
+    /**
+     * Groups the given positions into queries. Positions are appended to the
+     * current group as long as the blocks to read for them in the compressed
+     * file overlap or lie within the given gap of the blocks of the group.
+     * Positions without block in the index are not covered by any record and
+     * are skipped unless they lie within a group.
+     *
+     * @param index the index of the vcf file
+     * @param chrVariants the variants of a chromosome sorted by position
+     * @param maxGap the maximal gap in bytes between the blocks of a group
+     *
+     * @return the variants of every group sorted by position
+     */
+    public static ArrayList<Variant[]> coalesce(Index index, Variant[] chrVariants, long maxGap) {
+
+        ArrayList<Variant[]> result = new ArrayList<>();
+
+        int groupStart = -1;
+        int groupEnd = -1;
+        long groupLastByte = -1;
+
+        int i = 0;
+
+        while (i < chrVariants.length) {
+
+            Variant variant = chrVariants[i];
+            int end = i + 1;
+
+            while (end < chrVariants.length && chrVariants[end].bp == variant.bp) {
+                end++;
+            }
+
+            List<Block> blocks = index.getBlocks(variant.chr, variant.bp, variant.bp);
+
+            if (!blocks.isEmpty()) {
+
+                long firstByte = blocks.stream()
+                        .mapToLong(block -> block.getStartPosition() >>> 16)
+                        .min()
+                        .getAsLong();
+                long lastByte = blocks.stream()
+                        .mapToLong(block -> block.getEndPosition() >>> 16)
+                        .max()
+                        .getAsLong();
+
+                if (groupStart == -1 || firstByte > groupLastByte + maxGap) {
+
+                    if (groupStart != -1) {
+
+                        result.add(Arrays.copyOfRange(chrVariants, groupStart, groupEnd));
+
+                    }
+
+                    groupStart = i;
+                    groupLastByte = lastByte;
+
+                } else {
+
+                    groupLastByte = Math.max(groupLastByte, lastByte);
+
+                }
+
+                groupEnd = end;
+
+            }
+
+            i = end;
+
+        }
+
+        if (groupStart != -1) {
+
+            result.add(Arrays.copyOfRange(chrVariants, groupStart, groupEnd));
+
+        }
+
+        return result;
+
+    }
+}
@@ -0,0 +1,377 @@
+package no.uib.drs.io.vcf;
+
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import static no.uib.drs.io.Utils.getVcfIndexFile;
+import no.uib.drs.io.plink.PlinkFileset;
+import no.uib.drs.io.plink.PlinkReader;
+import no.uib.drs.utils.SimpleSemaphore;
+
+/**
+ * Pool of vcf file readers. Readers are created on demand on the same file and
+ * index, up to a given number of readers per file, using the decoder selected
+ * for the pool. A reader acquired from the pool is used by the acquiring
+ * thread only until it is released. A vcf stream, e.g. the standard input, is
+ * read by a single reader, and must be the only vcf input of the pool. PLINK
+ * filesets, given by their .bed file, are read by PLINK readers sharing the
+ * mapping of the fileset whatever the decoder. The sample names are read from
+ * the header of the first vcf file, files are otherwise only opened and
+ * indexed when a reader is first acquired, at which point the samples of
+ * indexed vcf files are checked to be the same in all files.
+ *
+ * @author Marc Vaudel
+ */
+public class VcfReaderPool implements AutoCloseable {
+
+    /**
+     * The maximal number of readers per vcf file.
+     */
+    public final int nReaders;
+    /**
+     * The decoder used by the readers.
+     */
+    public final VcfDecoder decoder;
+    /**
+     * The vcf files indexed by file name.
+     */
+    private final HashMap<String, File> vcfFiles;
+    /**
+     * The names of the vcf files that are streams.
+     */
+    private final HashSet<String> streams;
+    /**
+     * The readers available for every file.
+     */
+    private final HashMap<String, ConcurrentLinkedQueue<VariantRecordReader>> availableReaders;
+    /**
+     * The permits to acquire a reader for every file.
+     */
+    private final HashMap<String, SimpleSemaphore> permits;
+    /**
+     * All the readers created.
+     */
+    private final ConcurrentLinkedQueue<VariantRecordReader> allReaders = new ConcurrentLinkedQueue<>();
+    /**
+     * The ordered sample names as found in the first vcf file.
+     */
+    private final ArrayList<String> sampleNames;
+    /**
+     * The ordered sample names of the first indexed vcf file checked, null if
+     * none checked yet.
+     */
+    private ArrayList<String> vcfSampleNames = null;
+    /**
+     * The names of the indexed vcf files whose samples were checked.
+     */
+    private final HashSet<String> checkedFiles = new HashSet<>();
+    /**
+     * The indexes of the vcf files loaded so far.
+     */
+    private final ConcurrentHashMap<String, Index> indexes = new ConcurrentHashMap<>();
+    /**
+     * The PLINK filesets loaded so far indexed by name of the .bed file.
+     */
+    private final ConcurrentHashMap<String, PlinkFileset> plinkFilesets = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor. Records are decoded using htsjdk.
+     *
+     * @param vcfFiles the vcf files
+     * @param nReaders the maximal number of readers per vcf file
+     */
+    public VcfReaderPool(File[] vcfFiles, int nReaders) {
+
+        this(vcfFiles, nReaders, VcfDecoder.htsjdk);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param vcfFiles the vcf files
+     * @param nReaders the maximal number of readers per vcf file
+     * @param decoder the decoder to use
+     */
+    public VcfReaderPool(File[] vcfFiles, int nReaders, VcfDecoder decoder) {
+
+        if (nReaders < 1) {
+
+            throw new IllegalArgumentException("At least one reader per vcf file needed, " + nReaders + " requested.");
+
+        }
+
+        this.nReaders = nReaders;
+        this.decoder = decoder;
+
+        streams = Arrays.stream(vcfFiles)
+                .filter(file -> VcfStream.isStream(file))
+                .map(file -> file.getName())
+                .collect(Collectors.toCollection(HashSet::new));
+
+        if (!streams.isEmpty() && vcfFiles.length > 1) {
+
+            throw new IllegalArgumentException("A vcf stream must be the only vcf input.");
+
+        }
+
+        this.vcfFiles = Arrays.stream(vcfFiles)
+                .collect(Collectors.toMap(
+                        file -> file.getName(),
+                        file -> file,
+                        (a, b) -> a,
+                        HashMap::new));
+
+        availableReaders = Arrays.stream(vcfFiles)
+                .collect(Collectors.toMap(
+                        file -> file.getName(),
+                        file -> new ConcurrentLinkedQueue<VariantRecordReader>(),
+                        (a, b) -> a,
+                        HashMap::new));
+
+        permits = Arrays.stream(vcfFiles)
+                .collect(Collectors.toMap(
+                        file -> file.getName(),
+                        file -> new SimpleSemaphore(streams.contains(file.getName()) ? 1 : nReaders),
+                        (a, b) -> a,
+                        HashMap::new));
+
+        String vcfFileName = vcfFiles[0].getName();
+
+        if (isStream(vcfFileName) || isPlink(vcfFileName)) {
+
+            VariantRecordReader vcfFileReader = acquire(vcfFileName);
+            sampleNames = vcfFileReader.getSampleNames();
+            release(vcfFileName, vcfFileReader);
+
+        } else {
+
+            sampleNames = readSampleNames(vcfFiles[0]);
+            vcfSampleNames = sampleNames;
+
+        }
+    }
+
+    /**
+     * Returns the ordered sample names found in the header of a vcf file. Only
+     * the header is read, the index of the file is not loaded.
+     *
+     * @param vcfFile the vcf file
+     *
+     * @return the ordered sample names
+     */
+    private ArrayList<String> readSampleNames(File vcfFile) {
+
+        try (VariantRecordReader headerReader = decoder == VcfDecoder.htsjdk
+                ? new HtsjdkVcfReader(VcfStream.open(vcfFile))
+                : new GtVcfReader(VcfStream.open(vcfFile))) {
+
+            return headerReader.getSampleNames();
+
+        }
+    }
+
+    /**
+     * Returns the ordered sample names as found in the first vcf file.
+     *
+     * @return the ordered sample names
+     */
+    public ArrayList<String> getSampleNames() {
+
+        return sampleNames;
+
+    }
+
+    /**
+     * Returns the vcf file with the given name.
+     *
+     * @param vcfFileName the name of the vcf file
+     *
+     * @return the vcf file with the given name
+     */
+    public File getVcfFile(String vcfFileName) {
+
+        return vcfFiles.get(vcfFileName);
+
+    }
+
+    /**
+     * Indicates whether the given vcf file is a stream, which can be read only
+     * once in the order of the stream.
+     *
+     * @param vcfFileName the name of the vcf file
+     *
+     * @return a boolean indicating whether the given vcf file is a stream
+     */
+    public boolean isStream(String vcfFileName) {
+
+        return streams.contains(vcfFileName);
+
+    }
+
+    /**
+     * Indicates whether the given genotype file is the .bed file of a PLINK
+     * fileset.
+     *
+     * @param vcfFileName the name of the genotype file
+     *
+     * @return a boolean indicating whether the given file is a PLINK fileset
+     */
+    public boolean isPlink(String vcfFileName) {
+
+        return PlinkFileset.isBedFile(vcfFiles.get(vcfFileName));
+
+    }
+
+    /**
+     * Returns the index of the given file, loaded once when first needed.
+     *
+     * @param vcfFileName the name of the vcf file
+     *
+     * @return the index of the given file
+     */
+    public Index getIndex(String vcfFileName) {
+
+        if (isStream(vcfFileName)) {
+
+            throw new IllegalArgumentException("The vcf stream " + vcfFileName + " has no index.");
+
+        }
+
+        if (isPlink(vcfFileName)) {
+
+            throw new IllegalArgumentException("The PLINK fileset " + vcfFileName + " has no tabix index.");
+
+        }
+
+        return indexes.computeIfAbsent(vcfFileName,
+                name -> IndexFactory.loadIndex(getVcfIndexFile(vcfFiles.get(name)).getAbsolutePath()));
+
+    }
+
+    /**
+     * Acquires a reader for the given file, waits if all readers of this file
+     * are in use. The reader must be released by the acquiring thread once
+     * done.
+     *
+     * @param vcfFileName the name of the vcf file
+     *
+     * @return a reader for the given file
+     */
+    public VariantRecordReader acquire(String vcfFileName) {
+
+        permits.get(vcfFileName).acquire();
+
+        VariantRecordReader vcfFileReader = availableReaders.get(vcfFileName).poll();
+
+        if (vcfFileReader == null) {
+
+            vcfFileReader = getReader(vcfFileName);
+            allReaders.add(vcfFileReader);
+
+            if (!isStream(vcfFileName) && !isPlink(vcfFileName)) {
+
+                checkSamples(vcfFileName, vcfFileReader);
+
+            }
+
+        }
+
+        return vcfFileReader;
+
+    }
+
+    /**
+     * Checks that the samples of an indexed vcf file are the same as in the
+     * other indexed vcf files, once per file.
+     *
+     * @param vcfFileName the name of the vcf file
+     * @param vcfFileReader a reader for this file
+     */
+    private synchronized void checkSamples(String vcfFileName, VariantRecordReader vcfFileReader) {
+
+        if (checkedFiles.add(vcfFileName)) {
+
+            ArrayList<String> newSamples = vcfFileReader.getSampleNames();
+
+            if (vcfSampleNames == null) {
+
+                vcfSampleNames = newSamples;
+
+            } else if (!newSamples.equals(vcfSampleNames)) {
+
+                throw new IllegalArgumentException("VCF files with different samples provided.");
+
+            }
+        }
+    }
+
+    /**
+     * Creates a new reader for the given file using the decoder of the pool.
+     *
+     * @param vcfFileName the name of the vcf file
+     *
+     * @return a new reader for the given file
+     */
+    private VariantRecordReader getReader(String vcfFileName) {
+
+        File vcfFile = vcfFiles.get(vcfFileName);
+
+        if (isPlink(vcfFileName)) {
+
+            return new PlinkReader(plinkFilesets.computeIfAbsent(vcfFileName, name -> new PlinkFileset(vcfFile)));
+
+        }
+
+        if (isStream(vcfFileName)) {
+
+            return decoder == VcfDecoder.htsjdk
+                    ? new HtsjdkVcfReader(VcfStream.open(vcfFile))
+                    : new GtVcfReader(VcfStream.open(vcfFile));
+
+        }
+
+        switch (decoder) {
+
+            case htsjdk:
+                return new HtsjdkVcfReader(vcfFile, getVcfIndexFile(vcfFile));
+
+            case gt:
+                return new GtVcfReader(vcfFile, getIndex(vcfFileName));
+
+            case mapped:
+                return new GtVcfReader(vcfFile, getIndex(vcfFileName), true);
+
+            default:
+                throw new UnsupportedOperationException("Decoder " + decoder + " not implemented.");
+
+        }
+    }
+
+    /**
+     * Returns a reader to the pool.
+     *
+     * @param vcfFileName the name of the vcf file
+     * @param vcfFileReader the reader
+     */
+    public void release(String vcfFileName, VariantRecordReader vcfFileReader) {
+
+        availableReaders.get(vcfFileName).add(vcfFileReader);
+        permits.get(vcfFileName).release();
+
+    }
+
+    @Override
+    public void close() {
+
+        allReaders.forEach(reader -> reader.close());
+
+    }
+}
@@ -0,0 +1,83 @@
+package no.uib.drs.io.vcf;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Utilities for vcf files streamed from the standard input or from a named
+ * pipe, e.g. the output of bcftools. A stream has no index and its records can
+ * be read only once in the order of the stream. Streams can be plain text,
+ * gzip or bgzip compressed, the compression is detected from the first bytes.
+ *
+ * @author Marc Vaudel
+ */
+public class VcfStream {
+
+    /**
+     * The path standing for the standard input.
+     */
+    public static final String stdin = "-";
+    /**
+     * The size of the buffer used to read streams.
+     */
+    public static final int bufferSize = 65536;
+
+    /**
+     * Indicates whether the given file is a stream, i.e. the standard input
+     * or an existing file that is neither a regular file nor a folder, e.g. a
+     * named pipe.
+     *
+     * @param file the file
+     *
+     * @return a boolean indicating whether the given file is a stream
+     */
+    public static boolean isStream(File file) {
+
+        return file.getPath().equals(stdin)
+                || file.exists() && !file.isFile() && !file.isDirectory();
+
+    }
+
+    /**
+     * Opens the given stream and decompresses it if needed. Bgzip compressed
+     * streams are inflated block by block, the GZIPInputStream of the jdk can
+     * stop at the end of a block when reading from a pipe.
+     *
+     * @param file the stream
+     *
+     * @return an input stream on the decompressed bytes
+     */
+    public static InputStream open(File file) {
+
+        try {
+
+            InputStream source = file.getPath().equals(stdin) ? System.in : new FileInputStream(file);
+            BufferedInputStream input = new BufferedInputStream(source, bufferSize);
+
+            if (BlockCompressedInputStream.isValidFile(input)) {
+
+                return new BlockCompressedInputStream(input);
+
+            }
+
+            input.mark(2);
+            int b1 = input.read();
+            int b2 = input.read();
+            input.reset();
+
+            return b1 == 0x1f && b2 == 0x8b
+                    ? new GZIPInputStream(input, bufferSize)
+                    : input;
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+}
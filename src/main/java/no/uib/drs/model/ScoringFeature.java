@@ -1,6 +1,7 @@
 package no.uib.drs.model;
 
 import java.util.List;
+import no.uib.drs.model.genotypes.GenotypeColumn;
 
 /**
  * A variant feature is a set of alleles that give a given weight to a score.
@@ -17,6 +18,31 @@ public interface ScoringFeature {
      * @return the score contribution for this feature
      */
     public double getScoreContribution(List<String>[] alleles);
+    /**
+     * Adds the score contribution of this feature to the scores of all
+     * samples. By default the contribution is computed sample by sample, the
+     * alleles of the genotype columns must refer to the original variants.
+     * 
+     * @param genotypeColumns the genotypes of the variants needed for this feature, in the order of the variant ids
+     * @param scores the scores of all samples
+     */
+    public default void addScoreContributions(GenotypeColumn[] genotypeColumns, double[] scores) {
+        
+        @SuppressWarnings("unchecked")
+        List<String>[] sampleAlleles = (List<String>[]) new List<?>[genotypeColumns.length];
+        
+        for (int i = 0; i < scores.length; i++) {
+            
+            for (int j = 0; j < genotypeColumns.length; j++) {
+                
+                sampleAlleles[j] = genotypeColumns[j].getAlleles(i);
+                
+            }
+            
+            scores[i] += getScoreContribution(sampleAlleles);
+            
+        }
+    }
     /**
      * Returns the ids of the variants needed for this feature.
      * 
@@ -3,6 +3,7 @@ package no.uib.drs.model.biology;
 import java.io.File;
 import static java.io.File.separator;
 import java.util.HashMap;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.stream.Collectors;
 import no.uib.drs.io.Utils;
@@ -77,6 +78,34 @@ public class Proxy {
 
     }
 
+    /**
+     * Returns the snp alleles corresponding to the given proxy alleles, null if
+     * a proxy allele has no correspondence.
+     *
+     * @param proxyAlleles the proxy alleles
+     *
+     * @return the snp alleles in an array
+     */
+    public String[] getSnpAlleles(String[] proxyAlleles) {
+
+        String[] result = new String[proxyAlleles.length];
+
+        for (Entry<String, String> entry : alleleMap.entrySet()) {
+
+            for (int i = 0; i < proxyAlleles.length; i++) {
+
+                if (entry.getValue().equals(proxyAlleles[i])) {
+
+                    result[i] = entry.getKey();
+
+                }
+            }
+        }
+
+        return result;
+
+    }
+
     /**
      * Returns the snp alleles in the map.
      *
@@ -2,6 +2,7 @@ package no.uib.drs.model.features;
 
 import java.util.List;
 import no.uib.drs.model.ScoringFeature;
+import no.uib.drs.model.genotypes.GenotypeColumn;
 
 /**
  * Feature adding weight based on the prevalence of the allele of a SNP.
@@ -57,6 +58,20 @@ public class AdditiveFeature implements ScoringFeature {
 
     }
 
+    @Override
+    public void addScoreContributions(GenotypeColumn[] genotypeColumns, double[] scores) {
+
+        GenotypeColumn genotypeColumn = genotypeColumns[0];
+        int alleleIndex = genotypeColumn.getAlleleIndex(allele);
+
+        if (alleleIndex == -1) {
+            return;
+        }
+
+        genotypeColumn.addDosages(alleleIndex, weight, scores);
+
+    }
+
     @Override
     public String[] getVariants() {
         return new String[]{rsId};
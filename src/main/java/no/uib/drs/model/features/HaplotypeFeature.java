@@ -3,9 +3,12 @@ package no.uib.drs.model.features;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import no.uib.drs.model.ScoringFeature;
+import no.uib.drs.model.genotypes.GenotypeColumn;
+import no.uib.drs.model.genotypes.ScoringKernels;
 
 /**
  * Feature adding weight if haplotypic alleles are found.
@@ -72,6 +75,76 @@ public class HaplotypeFeature implements ScoringFeature {
 
     }
 
+    @Override
+    public void addScoreContributions(GenotypeColumn[] genotypeColumns, double[] scores) {
+
+        long[][] genotypeClasses = new long[genotypeColumns.length][];
+
+        for (int j = 0; j < genotypeColumns.length; j++) {
+
+            int alleleCount = getAlleleCount(genotypeColumns[j], alleles[j]);
+
+            if (alleleCount == -1) {
+                return;
+            }
+
+            genotypeClasses[j] = genotypeColumns[j].getGenotypeClass(alleleCount);
+
+        }
+
+        long[] matches = new long[genotypeClasses[0].length];
+
+        for (int word = 0; word < matches.length; word++) {
+
+            long matchesWord = genotypeClasses[0][word];
+
+            for (int j = 1; j < genotypeClasses.length && matchesWord != 0L; j++) {
+
+                matchesWord &= genotypeClasses[j][word];
+
+            }
+
+            matches[word] = matchesWord;
+
+        }
+
+        ScoringKernels.getKernel().addMasked(weight, matches, scores);
+    }
+
+    /**
+     * Returns the number of copies of the second allele of the given genotypes
+     * corresponding to the given haplotype alleles, -1 if the haplotype cannot
+     * be found in these genotypes.
+     *
+     * @param genotypeColumn the genotypes
+     * @param haplotypeAlleles the haplotype alleles
+     *
+     * @return the number of copies of the second allele corresponding to the haplotype
+     */
+    private static int getAlleleCount(GenotypeColumn genotypeColumn, List<String> haplotypeAlleles) {
+
+        if (haplotypeAlleles.size() != 2) {
+            return -1;
+        }
+
+        int alleleCount = 0;
+
+        for (String allele : haplotypeAlleles) {
+
+            int alleleIndex = genotypeColumn.getAlleleIndex(allele);
+
+            if (alleleIndex == -1) {
+                return -1;
+            }
+
+            alleleCount += alleleIndex;
+
+        }
+
+        return alleleCount;
+
+    }
+
     /**
      * Compares whether the alleles correspond to the given haplotype.
      *
@@ -87,20 +160,31 @@ public class HaplotypeFeature implements ScoringFeature {
             return false;
         }
 
-        if (sampleAlleles.stream()
-                .anyMatch(allele -> !haplotypeAllelesOccurrence.containsKey(allele))) {
-            return false;
+        for (String allele : sampleAlleles) {
+
+            if (!haplotypeAllelesOccurrence.containsKey(allele)) {
+                return false;
+            }
         }
 
-        HashMap<String, Long> sampleAllelesOccurrence = sampleAlleles.stream()
-                .collect(Collectors.groupingBy(
-                        a -> a, 
-                        HashMap::new, 
-                        Collectors.counting()));
-        
-        return haplotypeAllelesOccurrence.entrySet().stream()
-                .allMatch(entry -> sampleAllelesOccurrence.containsKey(entry.getKey()) && sampleAllelesOccurrence.get(entry.getKey()).equals(entry.getValue()));
-        
+        for (Entry<String, Long> entry : haplotypeAllelesOccurrence.entrySet()) {
+
+            long occurrence = 0;
+
+            for (String allele : sampleAlleles) {
+
+                if (allele.equals(entry.getKey())) {
+                    occurrence++;
+                }
+            }
+
+            if (occurrence != entry.getValue()) {
+                return false;
+            }
+        }
+
+        return true;
+
     }
 
     @Override
@@ -0,0 +1,754 @@
+package no.uib.drs.model.genotypes;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The genotypes of all samples for a bi-allelic variant. The number of copies
+ * of the second allele is stored on two bits per sample, the number of copies
+ * of the first allele is two minus this number. When a genotype is not
+ * diploid on the two alleles, e.g. haploid calls or genotypes carrying
+ * another allele, the number of copies of the first allele is also stored on
+ * two bits per sample. Other alleles are not counted. Samples without copy of
+ * the two alleles, or with more than three copies of an allele, are flagged
+ * as missing.
+ *
+ * @author Marc Vaudel
+ */
+public class GenotypeColumn {
+
+    /**
+     * The number of samples per word of allele counts.
+     */
+    public static final int samplesPerWord = 32;
+    /**
+     * The index of the alleles of missing genotypes in the allele lists.
+     */
+    public static final int missingIndex = 3;
+    /**
+     * The maximal number of copies of an allele in a genotype.
+     */
+    public static final int maxAlleleCount = 3;
+    /**
+     * The number of samples unpacked at once into dosages, a multiple of the
+     * number of samples per word.
+     */
+    public static final int dosageBlockSize = 4096;
+    /**
+     * The alleles of the variant, reference first.
+     */
+    public final String[] alleles;
+    /**
+     * The number of samples.
+     */
+    public final int nSamples;
+    /**
+     * The number of copies of the second allele, two bits per sample.
+     */
+    private final long[] counts;
+    /**
+     * The number of copies of the first allele, two bits per sample, null if
+     * every genotype not missing is diploid on the two alleles.
+     */
+    private long[] firstCounts;
+    /**
+     * The missing genotypes, one bit per sample.
+     */
+    private final long[] missing;
+    /**
+     * The alleles of a sample for every number of copies of the second allele,
+     * followed by an empty list for missing genotypes.
+     */
+    private final List<String>[] alleleLists;
+    /**
+     * The samples of every genotype class, i.e. with zero, one, and two copies
+     * of the second allele, as bitsets computed on demand.
+     */
+    private final long[][] genotypeClasses;
+
+    /**
+     * Constructor. All samples are initialized with no copy of the second
+     * allele.
+     *
+     * @param ref the reference allele
+     * @param alt the alternative allele
+     * @param nSamples the number of samples
+     */
+    public GenotypeColumn(String ref, String alt, int nSamples) {
+
+        this.alleles = new String[]{ref, alt};
+        this.nSamples = nSamples;
+
+        counts = new long[(nSamples + samplesPerWord - 1) / samplesPerWord];
+        missing = new long[(nSamples + 63) >>> 6];
+        genotypeClasses = new long[3][];
+
+        alleleLists = getAlleleLists(alleles);
+
+    }
+
+    /**
+     * Constructor from allele counts and missing genotypes of diploid
+     * genotypes as returned by getCounts and getMissing.
+     *
+     * @param ref the reference allele
+     * @param alt the alternative allele
+     * @param nSamples the number of samples
+     * @param counts the number of copies of the second allele, two bits per
+     * sample
+     * @param missing the missing genotypes, one bit per sample
+     */
+    public GenotypeColumn(String ref, String alt, int nSamples, long[] counts, long[] missing) {
+
+        this(ref, alt, nSamples, counts, null, missing);
+
+    }
+
+    /**
+     * Constructor from allele counts and missing genotypes as returned by
+     * getCounts, getFirstCounts, and getMissing.
+     *
+     * @param ref the reference allele
+     * @param alt the alternative allele
+     * @param nSamples the number of samples
+     * @param counts the number of copies of the second allele, two bits per
+     * sample
+     * @param firstCounts the number of copies of the first allele, two bits
+     * per sample, null if every genotype not missing is diploid on the two
+     * alleles
+     * @param missing the missing genotypes, one bit per sample
+     */
+    public GenotypeColumn(String ref, String alt, int nSamples, long[] counts, long[] firstCounts, long[] missing) {
+
+        this.alleles = new String[]{ref, alt};
+        this.nSamples = nSamples;
+        this.counts = counts;
+        this.firstCounts = firstCounts;
+        this.missing = missing;
+
+        genotypeClasses = new long[3][];
+
+        alleleLists = getAlleleLists(alleles);
+
+    }
+
+    /**
+     * Constructor for a view of the given genotypes where the alleles are
+     * renamed. The genotypes are shared with the original column.
+     *
+     * @param genotypeColumn the original genotypes
+     * @param ref the new name of the reference allele
+     * @param alt the new name of the alternative allele
+     */
+    public GenotypeColumn(GenotypeColumn genotypeColumn, String ref, String alt) {
+
+        this.alleles = new String[]{ref, alt};
+        this.nSamples = genotypeColumn.nSamples;
+
+        counts = genotypeColumn.counts;
+        firstCounts = genotypeColumn.firstCounts;
+        missing = genotypeColumn.missing;
+        genotypeClasses = genotypeColumn.genotypeClasses;
+
+        alleleLists = getAlleleLists(alleles);
+
+    }
+
+    /**
+     * Returns the genotypes of the given samples.
+     *
+     * @param samples the indexes of the samples in this column
+     *
+     * @return the genotypes of the samples, indexed in the order of the given
+     * samples
+     */
+    public GenotypeColumn getSubset(int[] samples) {
+
+        GenotypeColumn subset = new GenotypeColumn(alleles[0], alleles[1], samples.length);
+
+        for (int i = 0; i < samples.length; i++) {
+
+            if (isMissing(samples[i])) {
+
+                subset.setMissing(i);
+
+            } else {
+
+                subset.setAlleleCounts(i, getAlleleCount(samples[i], 0), getAlleleCount(samples[i]));
+
+            }
+        }
+
+        return subset;
+
+    }
+
+    /**
+     * Returns the alleles of a sample for every number of copies of the second
+     * allele, followed by an empty list for missing genotypes.
+     *
+     * @param alleles the alleles of the variant, reference first
+     *
+     * @return the alleles of a sample for every genotype
+     */
+    private static List<String>[] getAlleleLists(String[] alleles) {
+
+        String ref = alleles[0];
+        String alt = alleles[1];
+
+        @SuppressWarnings("unchecked")
+        List<String>[] alleleLists = (List<String>[]) new List<?>[]{
+            Arrays.asList(ref, ref),
+            Arrays.asList(ref, alt),
+            Arrays.asList(alt, alt),
+            Collections.emptyList()
+        };
+
+        return alleleLists;
+
+    }
+
+    /**
+     * Sets the number of copies of the second allele for a sample with a
+     * diploid genotype on the two alleles. Samples sharing a word must not be
+     * set concurrently.
+     *
+     * @param sample the index of the sample
+     * @param alleleCount the number of copies of the second allele, between 0 and 2
+     */
+    public void setAlleleCount(int sample, int alleleCount) {
+
+        setCount(counts, sample, alleleCount);
+
+        if (firstCounts != null) {
+
+            setCount(firstCounts, sample, 2 - alleleCount);
+
+        }
+    }
+
+    /**
+     * Sets the number of copies of the two alleles for a sample, the
+     * genotype is flagged as missing if it has no copy of the alleles or more
+     * than three copies of an allele. Samples must not be set concurrently.
+     *
+     * @param sample the index of the sample
+     * @param firstCount the number of copies of the first allele
+     * @param secondCount the number of copies of the second allele
+     */
+    public void setAlleleCounts(int sample, int firstCount, int secondCount) {
+
+        if (firstCount + secondCount == 2) {
+
+            setAlleleCount(sample, secondCount);
+
+        } else if (firstCount + secondCount == 0 || firstCount > maxAlleleCount || secondCount > maxAlleleCount) {
+
+            setMissing(sample);
+
+        } else {
+
+            if (firstCounts == null) {
+
+                firstCounts = new long[counts.length];
+
+                for (int i = 0; i < nSamples; i++) {
+
+                    if (!isMissing(i)) {
+
+                        setCount(firstCounts, i, 2 - getAlleleCount(i));
+
+                    }
+                }
+            }
+
+            setCount(counts, sample, secondCount);
+            setCount(firstCounts, sample, firstCount);
+
+        }
+    }
+
+    /**
+     * Sets the count of a sample in words of two bits per sample.
+     *
+     * @param words the words
+     * @param sample the index of the sample
+     * @param count the count, between 0 and 3
+     */
+    private static void setCount(long[] words, int sample, int count) {
+
+        int word = sample >>> 5;
+        int shift = (sample & 31) << 1;
+
+        words[word] = (words[word] & ~(3L << shift)) | ((long) count << shift);
+
+    }
+
+    /**
+     * Flags the genotype of a sample as missing. Samples sharing a word must not
+     * be set concurrently.
+     *
+     * @param sample the index of the sample
+     */
+    public void setMissing(int sample) {
+
+        setCount(counts, sample, 0);
+
+        if (firstCounts != null) {
+
+            setCount(firstCounts, sample, 0);
+
+        }
+
+        missing[sample >>> 6] |= 1L << (sample & 63);
+
+    }
+
+    /**
+     * Returns the number of copies of the second allele for a sample, 0 if
+     * missing.
+     *
+     * @param sample the index of the sample
+     *
+     * @return the number of copies of the second allele
+     */
+    public int getAlleleCount(int sample) {
+
+        return (int) (counts[sample >>> 5] >>> ((sample & 31) << 1)) & 3;
+
+    }
+
+    /**
+     * Returns the number of copies of the allele at the given index for a
+     * sample, 0 if missing.
+     *
+     * @param sample the index of the sample
+     * @param alleleIndex the index of the allele
+     *
+     * @return the number of copies of the allele
+     */
+    public int getAlleleCount(int sample, int alleleIndex) {
+
+        if (isMissing(sample)) {
+            return 0;
+        }
+
+        if (alleleIndex == 1) {
+            return getAlleleCount(sample);
+        }
+
+        return firstCounts == null ? 2 - getAlleleCount(sample) : (int) (firstCounts[sample >>> 5] >>> ((sample & 31) << 1)) & 3;
+
+    }
+
+    /**
+     * Indicates whether the genotype of a sample is missing.
+     *
+     * @param sample the index of the sample
+     *
+     * @return a boolean indicating whether the genotype of a sample is missing
+     */
+    public boolean isMissing(int sample) {
+
+        return (missing[sample >>> 6] & (1L << (sample & 63))) != 0L;
+
+    }
+
+    /**
+     * Returns the index of the given allele, -1 if not found.
+     *
+     * @param allele the allele
+     *
+     * @return the index of the given allele
+     */
+    public int getAlleleIndex(String allele) {
+
+        for (int i = 0; i < alleles.length; i++) {
+
+            if (alleles[i] != null && alleles[i].equals(allele)) {
+                return i;
+            }
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Returns the alleles of a sample, an empty list if missing. The copies of
+     * the first allele are listed first. The list must not be modified.
+     *
+     * @param sample the index of the sample
+     *
+     * @return the alleles of a sample
+     */
+    public List<String> getAlleles(int sample) {
+
+        if (isMissing(sample)) {
+
+            return alleleLists[missingIndex];
+
+        }
+
+        int firstCount = getAlleleCount(sample, 0);
+        int secondCount = getAlleleCount(sample);
+
+        if (firstCount + secondCount == 2) {
+
+            return alleleLists[secondCount];
+
+        }
+
+        ArrayList<String> sampleAlleles = new ArrayList<>(firstCount + secondCount);
+        sampleAlleles.addAll(Collections.nCopies(firstCount, alleles[0]));
+        sampleAlleles.addAll(Collections.nCopies(secondCount, alleles[1]));
+
+        return sampleAlleles;
+
+    }
+
+    /**
+     * Adds to the score of every sample the given weight times its number of
+     * copies of the allele at the given index. Missing genotypes do not
+     * contribute. The genotypes are unpacked into dosages by blocks and added
+     * using the scoring kernel.
+     *
+     * @param alleleIndex the index of the allele
+     * @param weight the weight
+     * @param scores the scores of all samples
+     */
+    public void addDosages(int alleleIndex, double weight, double[] scores) {
+
+        ScoringKernel kernel = ScoringKernels.getKernel();
+        byte[] dosages = new byte[Math.min(dosageBlockSize, nSamples)];
+
+        for (int blockStart = 0; blockStart < nSamples; blockStart += dosageBlockSize) {
+
+            int length = Math.min(dosageBlockSize, nSamples - blockStart);
+
+            getDosages(alleleIndex, blockStart, length, dosages);
+
+            kernel.addDosages(weight, dosages, length, scores, blockStart);
+
+        }
+    }
+
+    /**
+     * Unpacks the number of copies of the allele at the given index for a
+     * range of samples, 0 for missing genotypes. The first sample must be a
+     * multiple of the number of samples per word.
+     *
+     * @param alleleIndex the index of the allele
+     * @param firstSample the index of the first sample
+     * @param length the number of samples
+     * @param dosages the array where to write the dosages
+     */
+    public void getDosages(int alleleIndex, int firstSample, int length, byte[] dosages) {
+
+        long[] words = alleleIndex == 0 && firstCounts != null ? firstCounts : counts;
+        boolean complement = alleleIndex == 0 && firstCounts == null;
+
+        for (int offset = 0; offset < length; offset += samplesPerWord) {
+
+            int word = (firstSample + offset) >>> 5;
+            long countsWord = words[word];
+            long missingWord = missing[word >>> 1] >>> ((word & 1) << 5);
+            int end = Math.min(samplesPerWord, length - offset);
+
+            for (int j = 0; j < end; j++) {
+
+                int count = (int) (countsWord >>> (j << 1)) & 3;
+                int missingBit = (int) (missingWord >>> j) & 1;
+                int dosage = complement ? 2 - count : count;
+
+                dosages[offset + j] = (byte) (dosage & (missingBit - 1));
+
+            }
+        }
+    }
+
+    /**
+     * Returns the samples with a diploid genotype on the two alleles and the
+     * given number of copies of the second allele as a bitset, 64 samples per
+     * word. Missing genotypes are never set. The
+     * bitset is computed once, when first needed, and must not be modified.
+     * The genotypes must not be edited afterwards.
+     *
+     * @param alleleCount the number of copies of the second allele
+     *
+     * @return the samples with the given number of copies of the second allele
+     */
+    public long[] getGenotypeClass(int alleleCount) {
+
+        synchronized (genotypeClasses) {
+
+            if (genotypeClasses[alleleCount] == null) {
+
+                genotypeClasses[alleleCount] = computeGenotypeClass(alleleCount);
+
+            }
+
+            return genotypeClasses[alleleCount];
+
+        }
+    }
+
+    /**
+     * Computes the samples with a diploid genotype on the two alleles and the
+     * given number of copies of the second allele as a bitset.
+     *
+     * @param alleleCount the number of copies of the second allele
+     *
+     * @return the samples with the given number of copies of the second allele
+     */
+    private long[] computeGenotypeClass(int alleleCount) {
+
+        long[] result = new long[missing.length];
+
+        for (int word = 0; word < counts.length; word++) {
+
+            long classBits = getCountBits(counts[word], alleleCount);
+
+            if (firstCounts != null) {
+
+                classBits &= getCountBits(firstCounts[word], 2 - alleleCount);
+
+            }
+
+            result[word >>> 1] |= compactEvenBits(classBits) << ((word & 1) << 5);
+
+        }
+
+        for (int word = 0; word < result.length; word++) {
+
+            result[word] &= ~missing[word];
+
+        }
+
+        int lastBits = nSamples & 63;
+
+        if (lastBits != 0) {
+
+            result[result.length - 1] &= (1L << lastBits) - 1;
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the samples of a word of two bits per sample with the given
+     * count, as the low bit of their two bits.
+     *
+     * @param countsWord the word
+     * @param count the count, between 0 and 3
+     *
+     * @return the samples with the given count, only even bits set
+     */
+    private static long getCountBits(long countsWord, int count) {
+
+        long lowBits = countsWord & 0x5555555555555555L;
+        long highBits = (countsWord >>> 1) & 0x5555555555555555L;
+
+        long classBits = ((count & 1) == 0 ? ~lowBits : lowBits)
+                & ((count & 2) == 0 ? ~highBits : highBits);
+
+        return classBits & 0x5555555555555555L;
+
+    }
+
+    /**
+     * Moves the even bits of the given word to the lower 32 bits.
+     *
+     * @param bits the word, only even bits set
+     *
+     * @return the even bits compacted in the lower 32 bits
+     */
+    private static long compactEvenBits(long bits) {
+
+        bits = (bits | (bits >>> 1)) & 0x3333333333333333L;
+        bits = (bits | (bits >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        bits = (bits | (bits >>> 4)) & 0x00FF00FF00FF00FFL;
+        bits = (bits | (bits >>> 8)) & 0x0000FFFF0000FFFFL;
+        bits = (bits | (bits >>> 16)) & 0x00000000FFFFFFFFL;
+
+        return bits;
+
+    }
+
+    /**
+     * Returns the number of copies of the second allele, two bits per sample,
+     * 32 samples per word. The array is shared and must not be modified.
+     *
+     * @return the number of copies of the second allele
+     */
+    public long[] getCounts() {
+
+        return counts;
+
+    }
+
+    /**
+     * Returns the number of copies of the first allele, two bits per sample,
+     * 32 samples per word, null if every genotype not missing is diploid on
+     * the two alleles. The array is shared and must not be modified.
+     *
+     * @return the number of copies of the first allele
+     */
+    public long[] getFirstCounts() {
+
+        return firstCounts;
+
+    }
+
+    /**
+     * Returns the missing genotypes, one bit per sample, 64 samples per word.
+     * The array is shared and must not be modified.
+     *
+     * @return the missing genotypes
+     */
+    public long[] getMissing() {
+
+        return missing;
+
+    }
+
+    /**
+     * Returns an estimate of the memory used by the genotypes in bytes,
+     * including the genotype class bitsets.
+     *
+     * @return an estimate of the memory used by the genotypes
+     */
+    public long getMemorySize() {
+
+        return getMemorySize(nSamples) + (firstCounts == null ? 0 : 8L * firstCounts.length);
+
+    }
+
+    /**
+     * Returns an estimate of the memory used by the genotypes of the given
+     * number of samples in bytes, including the genotype class bitsets.
+     *
+     * @param nSamples the number of samples
+     *
+     * @return an estimate of the memory used by the genotypes
+     */
+    public static long getMemorySize(int nSamples) {
+
+        long nCountWords = (nSamples + samplesPerWord - 1) / samplesPerWord;
+        long nMissingWords = (nSamples + 63) >>> 6;
+
+        return 8L * (nCountWords + 4 * nMissingWords);
+
+    }
+
+    /**
+     * Decodes the genotypes of a record on its reference allele and the given
+     * alternative allele. Other alleles are not counted.
+     *
+     * @param variantContext the record
+     * @param alt the alternative allele
+     *
+     * @return the genotypes of all samples
+     */
+    public static GenotypeColumn decode(VariantContext variantContext, String alt) {
+
+        return decode(variantContext, alt, 0, variantContext.getNSamples());
+
+    }
+
+    /**
+     * Decodes the genotypes of a range of samples of a record on its
+     * reference allele and the given alternative allele. Other alleles are
+     * not counted.
+     *
+     * @param variantContext the record
+     * @param alt the alternative allele
+     * @param firstSample the index of the first sample to decode
+     * @param nSamples the number of samples to decode
+     *
+     * @return the genotypes of the samples, indexed from the first sample
+     */
+    public static GenotypeColumn decode(VariantContext variantContext, String alt, int firstSample, int nSamples) {
+
+        String ref = variantContext.getReference().getBaseString();
+
+        GenotypeColumn genotypeColumn = new GenotypeColumn(ref, alt, nSamples);
+
+        for (int i = 0; i < nSamples; i++) {
+
+            decodeGenotype(variantContext.getGenotype(firstSample + i), ref, alt, genotypeColumn, i);
+
+        }
+
+        return genotypeColumn;
+
+    }
+
+    /**
+     * Decodes the genotypes of the given samples of a record on its reference
+     * allele and the given alternative allele. Other alleles are not
+     * counted.
+     *
+     * @param variantContext the record
+     * @param alt the alternative allele
+     * @param samples the indexes of the samples to decode in the record
+     *
+     * @return the genotypes of the samples, indexed in the order of the given
+     * samples
+     */
+    public static GenotypeColumn decode(VariantContext variantContext, String alt, int[] samples) {
+
+        String ref = variantContext.getReference().getBaseString();
+
+        GenotypeColumn genotypeColumn = new GenotypeColumn(ref, alt, samples.length);
+
+        for (int i = 0; i < samples.length; i++) {
+
+            decodeGenotype(variantContext.getGenotype(samples[i]), ref, alt, genotypeColumn, i);
+
+        }
+
+        return genotypeColumn;
+
+    }
+
+    /**
+     * Decodes the genotype of a sample into the given column.
+     *
+     * @param genotype the genotype
+     * @param ref the reference allele
+     * @param alt the alternative allele
+     * @param genotypeColumn the column where to set the genotype
+     * @param i the index of the sample in the column
+     */
+    private static void decodeGenotype(Genotype genotype, String ref, String alt, GenotypeColumn genotypeColumn, int i) {
+
+        int refCount = 0;
+        int altCount = 0;
+
+        for (Allele allele : genotype.getAlleles()) {
+
+            String baseString = allele.getBaseString();
+
+            if (baseString.equals(alt)) {
+
+                altCount++;
+
+            } else if (baseString.equals(ref)) {
+
+                refCount++;
+
+            }
+        }
+
+        genotypeColumn.setAlleleCounts(i, refCount, altCount);
+
+    }
+}
@@ -0,0 +1,36 @@
+package no.uib.drs.model.genotypes;
+
+/**
+ * Scoring kernel processing one sample at a time.
+ *
+ * @author Marc Vaudel
+ */
+public class ScalarScoringKernel implements ScoringKernel {
+
+    @Override
+    public void addDosages(double weight, byte[] dosages, int length, double[] scores, int offset) {
+
+        for (int i = 0; i < length; i++) {
+
+            scores[offset + i] += weight * dosages[i];
+
+        }
+    }
+
+    @Override
+    public void addMasked(double weight, long[] mask, double[] scores) {
+
+        for (int word = 0; word < mask.length; word++) {
+
+            long bits = mask[word];
+            int offset = word << 6;
+
+            while (bits != 0L) {
+
+                scores[offset + Long.numberOfTrailingZeros(bits)] += weight;
+                bits &= bits - 1;
+
+            }
+        }
+    }
+}
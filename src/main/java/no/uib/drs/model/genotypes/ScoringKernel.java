@@ -0,0 +1,32 @@
+package no.uib.drs.model.genotypes;
+
+/**
+ * Kernel adding weighted genotypes to the scores of all samples.
+ *
+ * @author Marc Vaudel
+ */
+public interface ScoringKernel {
+
+    /**
+     * Adds the given weight times the dosage of every sample to its score:
+     * scores[offset + i] += weight * dosages[i].
+     *
+     * @param weight the weight
+     * @param dosages the dosages
+     * @param length the number of dosages to add
+     * @param scores the scores
+     * @param offset the index in the scores of the first dosage
+     */
+    public void addDosages(double weight, byte[] dosages, int length, double[] scores, int offset);
+
+    /**
+     * Adds the given weight to the score of every sample set in the mask, 64
+     * samples per word.
+     *
+     * @param weight the weight
+     * @param mask the samples to add the weight to as bitset
+     * @param scores the scores
+     */
+    public void addMasked(double weight, long[] mask, double[] scores);
+
+}
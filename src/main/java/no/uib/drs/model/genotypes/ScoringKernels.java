@@ -0,0 +1,78 @@
+package no.uib.drs.model.genotypes;
+
+/**
+ * Provides the scoring kernel to use. The Vector API kernel is shipped in the
+ * Java 16 section of the multi-release jar, it is used when running on Java
+ * 16 or higher with the jdk.incubator.vector module added
+ * (--add-modules jdk.incubator.vector). Otherwise, the scalar kernel is used.
+ *
+ * @author Marc Vaudel
+ */
+public class ScoringKernels {
+
+    /**
+     * The name of the Vector API kernel class.
+     */
+    public static final String vectorKernelClassName = "no.uib.drs.model.genotypes.VectorScoringKernel";
+    /**
+     * The scalar kernel.
+     */
+    private static final ScoringKernel scalarKernel = new ScalarScoringKernel();
+    /**
+     * The Vector API kernel, null if not available.
+     */
+    private static final ScoringKernel vectorKernel = loadVectorKernel();
+
+    /**
+     * Returns the kernel to use, the Vector API kernel if available, the
+     * scalar kernel otherwise.
+     *
+     * @return the kernel to use
+     */
+    public static ScoringKernel getKernel() {
+
+        return vectorKernel != null ? vectorKernel : scalarKernel;
+
+    }
+
+    /**
+     * Returns the scalar kernel.
+     *
+     * @return the scalar kernel
+     */
+    public static ScoringKernel getScalarKernel() {
+
+        return scalarKernel;
+
+    }
+
+    /**
+     * Returns the Vector API kernel, null if not available.
+     *
+     * @return the Vector API kernel
+     */
+    public static ScoringKernel getVectorKernel() {
+
+        return vectorKernel;
+
+    }
+
+    /**
+     * Loads the Vector API kernel.
+     *
+     * @return the Vector API kernel, null if the class or the Vector API are
+     * not available
+     */
+    private static ScoringKernel loadVectorKernel() {
+
+        try {
+
+            return (ScoringKernel) Class.forName(vectorKernelClassName).getDeclaredConstructor().newInstance();
+
+        } catch (Throwable e) {
+
+            return null;
+
+        }
+    }
+}
@@ -2,6 +2,9 @@ package no.uib.drs.model.score;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.stream.DoubleStream;
 import no.uib.drs.io.flat.SimpleFileReader;
 import no.uib.drs.model.features.CdpkFeature;
 
@@ -31,6 +34,83 @@ public class CdpkScore {
 
     }
 
+    /**
+     * Returns a fingerprint of the features of this score that does not
+     * depend on the order of the features.
+     *
+     * @return a fingerprint of the features of this score
+     */
+    public long getFingerprint() {
+
+        long fingerprint = 0;
+
+        for (Entry<String, HashMap<Integer, HashMap<String, HashMap<String, CdpkFeature>>>> entryChr : featureMap.entrySet()) {
+
+            for (Entry<Integer, HashMap<String, HashMap<String, CdpkFeature>>> entryBp : entryChr.getValue().entrySet()) {
+
+                for (Entry<String, HashMap<String, CdpkFeature>> aEntry : entryBp.getValue().entrySet()) {
+
+                    for (Entry<String, CdpkFeature> bEntry : aEntry.getValue().entrySet()) {
+
+                        CdpkFeature feature = bEntry.getValue();
+                        long featureHash = Objects.hash(entryChr.getKey(), entryBp.getKey(), aEntry.getKey(), bEntry.getKey(), feature.name, feature.effectAllele, feature.weight);
+
+                        fingerprint += featureHash * 0x9E3779B97F4A7C15L + Long.rotateLeft(featureHash, 31);
+
+                    }
+                }
+            }
+        }
+
+        return fingerprint;
+
+    }
+
+    /**
+     * Returns the weights of the features of this score.
+     *
+     * @return the weights of the features of this score
+     */
+    public DoubleStream getWeights() {
+
+        return featureMap.values().stream()
+                .flatMap(chrMap -> chrMap.values().stream())
+                .flatMap(bpMap -> bpMap.values().stream())
+                .flatMap(aMap -> aMap.values().stream())
+                .mapToDouble(feature -> feature.weight);
+
+    }
+
+    /**
+     * Indicates whether the given file is a CDPK weights file, i.e. whether its
+     * first line that is not empty or commented is the expected header.
+     *
+     * @param scoreFile the score file
+     *
+     * @return a boolean indicating whether the given file is a CDPK weights
+     * file
+     */
+    public static boolean isCdpkScore(File scoreFile) {
+
+        try (SimpleFileReader reader = SimpleFileReader.getFileReader(scoreFile)) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                line = line.trim();
+
+                if (!line.equals("") && line.charAt(0) != '#') {
+
+                    return line.equals(defaultHeader);
+
+                }
+            }
+
+            return false;
+
+        }
+    }
+
     /**
      * Parses a CDPK weights file.
      * 
@@ -0,0 +1,252 @@
+package no.uib.drs.model.score;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.stream.Stream;
+import no.uib.drs.io.flat.SimpleFileReader;
+import no.uib.drs.io.flat.SimpleFileWriter;
+import no.uib.drs.io.flat.readers.SimpleGzReader;
+
+/**
+ * Scores computed on a subset of the variants or of the samples, e.g. on the
+ * vcf files of some chromosomes, to be merged with other partial scores. Next
+ * to the score of every sample, the file lists the variants used and the
+ * variants that were not available, such that partial scores can be validated
+ * when merged.
+ *
+ * @author Marc Vaudel
+ */
+public class PartialScores {
+
+    /**
+     * The first line of a partial scores file.
+     */
+    public static final String header = "##drs_partial_scores";
+    /**
+     * The key of the line listing the variants found.
+     */
+    public static final String foundKey = "##found";
+    /**
+     * The key of the line listing the variants missing.
+     */
+    public static final String missingKey = "##missing";
+    /**
+     * The separator used in the partial scores files.
+     */
+    public static final String separator = "\t";
+    /**
+     * The ordered sample names.
+     */
+    public final ArrayList<String> sampleNames;
+    /**
+     * The names of the scores.
+     */
+    public final String[] scoreNames;
+    /**
+     * The scores indexed by score and sample.
+     */
+    public final double[][] scores;
+    /**
+     * The variants used in the scores.
+     */
+    public final HashSet<String> foundVariants;
+    /**
+     * The variants that could not be used in the scores.
+     */
+    public final HashSet<String> missingVariants;
+
+    /**
+     * Constructor.
+     *
+     * @param sampleNames the ordered sample names
+     * @param scoreNames the names of the scores
+     * @param scores the scores indexed by score and sample
+     * @param foundVariants the variants used in the scores
+     * @param missingVariants the variants that could not be used in the scores
+     */
+    public PartialScores(ArrayList<String> sampleNames, String[] scoreNames, double[][] scores, HashSet<String> foundVariants, HashSet<String> missingVariants) {
+
+        this.sampleNames = sampleNames;
+        this.scoreNames = scoreNames;
+        this.scores = scores;
+        this.foundVariants = foundVariants;
+        this.missingVariants = missingVariants;
+
+    }
+
+    /**
+     * Writes the partial scores to the given file. Scores are written with all
+     * significant digits so that they are parsed back to the same values.
+     *
+     * @param destinationFile the destination file
+     */
+    public void write(File destinationFile) {
+
+        try (SimpleFileWriter writer = new SimpleFileWriter(destinationFile, true)) {
+
+            writer.writeLine(header);
+            writer.writeLine(getVariantsLine(foundKey, foundVariants));
+            writer.writeLine(getVariantsLine(missingKey, missingVariants));
+
+            String[] line = new String[scoreNames.length + 1];
+            line[0] = "Sample";
+            System.arraycopy(scoreNames, 0, line, 1, scoreNames.length);
+
+            writer.writeLine(String.join(separator, line));
+
+            for (int i = 0; i < sampleNames.size(); i++) {
+
+                line[0] = sampleNames.get(i);
+
+                for (int k = 0; k < scores.length; k++) {
+
+                    line[k + 1] = Double.toString(scores[k][i]);
+
+                }
+
+                writer.writeLine(String.join(separator, line));
+
+            }
+        }
+    }
+
+    /**
+     * Returns the line listing the given variants in lexicographic order.
+     *
+     * @param key the key of the line
+     * @param variants the variants
+     *
+     * @return the line listing the variants
+     */
+    private static String getVariantsLine(String key, HashSet<String> variants) {
+
+        return String.join(separator, Stream.concat(Stream.of(key), variants.stream().sorted())
+                .toArray(String[]::new));
+
+    }
+
+    /**
+     * Indicates whether the given file is a partial scores file, i.e. whether
+     * its first line is the expected header.
+     *
+     * @param file the file
+     *
+     * @return a boolean indicating whether the given file is a partial scores
+     * file
+     */
+    public static boolean isPartialScores(File file) {
+
+        try (SimpleFileReader reader = new SimpleGzReader(file)) {
+
+            String line = reader.readLine();
+
+            return line != null && line.trim().equals(header);
+
+        }
+    }
+
+    /**
+     * Parses a partial scores file.
+     *
+     * @param file the partial scores file
+     *
+     * @return the partial scores
+     */
+    public static PartialScores parse(File file) {
+
+        try (SimpleFileReader reader = new SimpleGzReader(file)) {
+
+            String line = reader.readLine();
+
+            if (line == null || !line.trim().equals(header)) {
+
+                throw new IllegalArgumentException("Unexpected header in " + file.getAbsolutePath() + ". (Found: \"" + line + "\"; Expected: \"" + header + "\")");
+
+            }
+
+            HashSet<String> foundVariants = parseVariantsLine(reader.readLine(), foundKey, file);
+            HashSet<String> missingVariants = parseVariantsLine(reader.readLine(), missingKey, file);
+
+            line = reader.readLine();
+
+            if (line == null) {
+
+                throw new IllegalArgumentException("Scores header not found in " + file.getAbsolutePath() + ".");
+
+            }
+
+            String[] lineSplit = line.split(separator);
+            String[] scoreNames = Arrays.copyOfRange(lineSplit, 1, lineSplit.length);
+
+            ArrayList<String> sampleNames = new ArrayList<>();
+            ArrayList<double[]> sampleScores = new ArrayList<>();
+
+            while ((line = reader.readLine()) != null) {
+
+                if (!line.equals("")) {
+
+                    lineSplit = line.split(separator);
+
+                    if (lineSplit.length != scoreNames.length + 1) {
+
+                        throw new IllegalArgumentException("Unexpected number of scores for sample " + lineSplit[0] + " in " + file.getAbsolutePath() + ".");
+
+                    }
+
+                    sampleNames.add(lineSplit[0]);
+                    sampleScores.add(Arrays.stream(lineSplit, 1, lineSplit.length)
+                            .mapToDouble(value -> Double.parseDouble(value))
+                            .toArray());
+
+                }
+            }
+
+            double[][] scores = new double[scoreNames.length][sampleNames.size()];
+
+            for (int i = 0; i < sampleNames.size(); i++) {
+
+                double[] values = sampleScores.get(i);
+
+                for (int k = 0; k < scoreNames.length; k++) {
+
+                    scores[k][i] = values[k];
+
+                }
+            }
+
+            return new PartialScores(sampleNames, scoreNames, scores, foundVariants, missingVariants);
+
+        }
+    }
+
+    /**
+     * Parses a line listing variants.
+     *
+     * @param line the line
+     * @param key the expected key of the line
+     * @param file the file parsed
+     *
+     * @return the variants listed
+     */
+    private static HashSet<String> parseVariantsLine(String line, String key, File file) {
+
+        if (line == null) {
+
+            throw new IllegalArgumentException("Line " + key + " not found in " + file.getAbsolutePath() + ".");
+
+        }
+
+        String[] lineSplit = line.split(separator);
+
+        if (!lineSplit[0].equals(key)) {
+
+            throw new IllegalArgumentException("Unexpected line in " + file.getAbsolutePath() + ". (Found: \"" + lineSplit[0] + "\"; Expected: \"" + key + "\")");
+
+        }
+
+        return new HashSet<>(Arrays.asList(lineSplit).subList(1, lineSplit.length));
+
+    }
+}
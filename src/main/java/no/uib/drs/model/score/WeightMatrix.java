@@ -0,0 +1,211 @@
+package no.uib.drs.model.score;
+
+import java.io.File;
+import java.util.ArrayList;
+import no.uib.drs.io.flat.SimpleFileReader;
+
+/**
+ * Set of weights for the same variants, e.g. from a grid of clumping and
+ * thresholding parameters or from weight perturbations. The file follows the
+ * format of the CDPK weights with one additional column per extra weight set.
+ *
+ * @author Marc Vaudel
+ */
+public class WeightMatrix {
+
+    /**
+     * The index of the column of the first weight set.
+     */
+    public static final int weightColumn = 2;
+    /**
+     * The number of columns of the CDPK format, the extra weight sets follow.
+     */
+    public static final int nFixedColumns = CdpkScore.defaultHeader.split("\t").length;
+    /**
+     * The names of the weight sets.
+     */
+    public final String[] weightSetNames;
+    /**
+     * The names of the variants.
+     */
+    public final String[] names;
+    /**
+     * The effect alleles.
+     */
+    public final String[] effectAlleles;
+    /**
+     * The chromosomes.
+     */
+    public final String[] chrs;
+    /**
+     * The positions.
+     */
+    public final int[] bps;
+    /**
+     * The first alleles, expected as reference in the vcf files.
+     */
+    public final String[] as;
+    /**
+     * The second alleles, expected as alternative in the vcf files.
+     */
+    public final String[] bs;
+    /**
+     * The weights indexed by variant and weight set.
+     */
+    public final double[][] weights;
+
+    /**
+     * Constructor.
+     *
+     * @param weightSetNames the names of the weight sets
+     * @param names the names of the variants
+     * @param effectAlleles the effect alleles
+     * @param chrs the chromosomes
+     * @param bps the positions
+     * @param as the first alleles
+     * @param bs the second alleles
+     * @param weights the weights indexed by variant and weight set
+     */
+    private WeightMatrix(String[] weightSetNames, String[] names, String[] effectAlleles, String[] chrs, int[] bps, String[] as, String[] bs, double[][] weights) {
+
+        this.weightSetNames = weightSetNames;
+        this.names = names;
+        this.effectAlleles = effectAlleles;
+        this.chrs = chrs;
+        this.bps = bps;
+        this.as = as;
+        this.bs = bs;
+        this.weights = weights;
+
+    }
+
+    /**
+     * Returns the number of variants.
+     *
+     * @return the number of variants
+     */
+    public int getnVariants() {
+
+        return names.length;
+
+    }
+
+    /**
+     * Parses a weights file in the CDPK format with extra weight columns.
+     *
+     * @param weightsFile the weights file
+     *
+     * @return the weight matrix
+     */
+    public static WeightMatrix parseWeightMatrix(File weightsFile) {
+
+        String[] weightSetNames = null;
+        ArrayList<String[]> lines = new ArrayList<>();
+
+        try (SimpleFileReader reader = SimpleFileReader.getFileReader(weightsFile)) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                line = line.trim();
+
+                if (!line.equals("") && line.charAt(0) != '#') {
+
+                    String[] lineSplit = line.split("\t");
+
+                    if (weightSetNames == null) {
+
+                        if (!line.startsWith(CdpkScore.defaultHeader)) {
+
+                            throw new IllegalArgumentException("Unexpected header. (Found: \"" + line + "\"; Expected: \"" + CdpkScore.defaultHeader + "\" followed by weight columns)");
+
+                        }
+
+                        weightSetNames = new String[lineSplit.length - nFixedColumns + 1];
+                        weightSetNames[0] = lineSplit[weightColumn];
+                        System.arraycopy(lineSplit, nFixedColumns, weightSetNames, 1, weightSetNames.length - 1);
+
+                    } else {
+
+                        if (lineSplit.length != nFixedColumns + weightSetNames.length - 1) {
+
+                            throw new IllegalArgumentException("Unexpected number of columns at line: " + line + ".");
+
+                        }
+
+                        lines.add(lineSplit);
+
+                    }
+                }
+            }
+        }
+
+        if (weightSetNames == null) {
+
+            throw new IllegalArgumentException("No header found in " + weightsFile + ".");
+
+        }
+
+        int nVariants = lines.size();
+
+        String[] names = new String[nVariants];
+        String[] effectAlleles = new String[nVariants];
+        String[] chrs = new String[nVariants];
+        int[] bps = new int[nVariants];
+        String[] as = new String[nVariants];
+        String[] bs = new String[nVariants];
+        double[][] weights = new double[nVariants][weightSetNames.length];
+
+        for (int i = 0; i < nVariants; i++) {
+
+            String[] lineSplit = lines.get(i);
+
+            names[i] = lineSplit[0];
+            effectAlleles[i] = lineSplit[1];
+            chrs[i] = lineSplit[3];
+            bps[i] = Integer.parseInt(lineSplit[4]);
+            as[i] = lineSplit[5];
+            bs[i] = lineSplit[6];
+
+            weights[i][0] = Double.parseDouble(lineSplit[weightColumn]);
+
+            for (int k = 1; k < weightSetNames.length; k++) {
+
+                weights[i][k] = Double.parseDouble(lineSplit[nFixedColumns + k - 1]);
+
+            }
+        }
+
+        return new WeightMatrix(weightSetNames, names, effectAlleles, chrs, bps, as, bs, weights);
+
+    }
+
+    /**
+     * Indicates whether the given file is a weights file in the CDPK format
+     * with extra weight columns.
+     *
+     * @param weightsFile the weights file
+     *
+     * @return a boolean indicating whether the given file is a weight matrix
+     */
+    public static boolean isWeightMatrix(File weightsFile) {
+
+        try (SimpleFileReader reader = SimpleFileReader.getFileReader(weightsFile)) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                line = line.trim();
+
+                if (!line.equals("") && line.charAt(0) != '#') {
+
+                    return line.startsWith(CdpkScore.defaultHeader + "\t");
+
+                }
+            }
+
+            return false;
+
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package no.uib.drs.processing;
+
+import java.util.stream.IntStream;
+import no.uib.drs.model.genotypes.GenotypeColumn;
+
+/**
+ * Computes the scores of all samples for many weight sets as a blocked matrix
+ * product of the genotypes and the weights. Variants are buffered by blocks,
+ * every block is multiplied by tiles of samples in parallel. Within a tile of
+ * samples, weight sets are processed by tiles so that the scores and weights
+ * used fit in cache. Variants can be added from several threads: a full block
+ * is swapped for an empty one under a short lock and multiplied by the adding
+ * thread outside of it. Every tile of samples has its own lock, such that the
+ * blocks of different threads are multiplied concurrently.
+ *
+ * @author Marc Vaudel
+ */
+public class BlockedScoreMatrix {
+
+    /**
+     * The number of variants per block.
+     */
+    public static final int variantBlockSize = 256;
+    /**
+     * The number of samples per tile, a multiple of the number of samples per
+     * genotype word.
+     */
+    public static final int sampleTileSize = 512;
+    /**
+     * The number of weight sets per tile.
+     */
+    public static final int weightSetTileSize = 64;
+    /**
+     * The number of samples.
+     */
+    private final int nSamples;
+    /**
+     * The number of weight sets.
+     */
+    private final int nWeightSets;
+    /**
+     * The scores indexed by sample and weight set.
+     */
+    private final double[] scores;
+    /**
+     * The locks of the tiles of samples, the scores of a tile are updated by
+     * one thread at a time.
+     */
+    private final Object[] tileLocks;
+    /**
+     * The current block.
+     */
+    private Block block = new Block();
+
+    /**
+     * Constructor.
+     *
+     * @param nSamples the number of samples
+     * @param nWeightSets the number of weight sets
+     */
+    public BlockedScoreMatrix(int nSamples, int nWeightSets) {
+
+        if ((long) nSamples * nWeightSets > Integer.MAX_VALUE - 8) {
+
+            throw new IllegalArgumentException(nSamples + " samples times " + nWeightSets + " weight sets exceeds the maximal number of scores, please split the weight sets.");
+
+        }
+
+        this.nSamples = nSamples;
+        this.nWeightSets = nWeightSets;
+
+        scores = new double[nSamples * nWeightSets];
+        tileLocks = new Object[(nSamples + sampleTileSize - 1) / sampleTileSize];
+
+        for (int tile = 0; tile < tileLocks.length; tile++) {
+
+            tileLocks[tile] = new Object();
+
+        }
+    }
+
+    /**
+     * Adds a variant to the current block. When the block is full, it is
+     * replaced by an empty block and multiplied by the calling thread outside
+     * of the lock of the matrix, such that other threads can keep adding
+     * variants.
+     *
+     * @param genotypeColumn the genotypes of the variant
+     * @param alleleIndex the index of the effect allele
+     * @param weights the weight of the variant in every weight set
+     */
+    public void add(GenotypeColumn genotypeColumn, int alleleIndex, double[] weights) {
+
+        Block fullBlock = null;
+
+        synchronized (this) {
+
+            block.add(genotypeColumn, alleleIndex, weights);
+
+            if (block.size == variantBlockSize) {
+
+                fullBlock = block;
+                block = new Block();
+
+            }
+        }
+
+        if (fullBlock != null) {
+
+            multiply(fullBlock);
+
+        }
+    }
+
+    /**
+     * Multiplies the variants of the current block and empties the block.
+     */
+    public void flush() {
+
+        Block lastBlock;
+
+        synchronized (this) {
+
+            lastBlock = block;
+            block = new Block();
+
+        }
+
+        if (lastBlock.size > 0) {
+
+            multiply(lastBlock);
+
+        }
+    }
+
+    /**
+     * Adds the contribution of the variants of a block to the scores, tiles
+     * of samples are processed in parallel.
+     *
+     * @param block the block
+     */
+    private void multiply(Block block) {
+
+        IntStream.range(0, tileLocks.length)
+                .parallel()
+                .forEach(tile -> multiplyTile(block, tile));
+
+    }
+
+    /**
+     * Adds the contribution of the variants of a block to the scores of a
+     * tile of samples. The dosages are extracted before acquiring the lock of
+     * the tile.
+     *
+     * @param block the block
+     * @param tile the index of the tile
+     */
+    private void multiplyTile(Block block, int tile) {
+
+        int firstSample = tile * sampleTileSize;
+        int tileLength = Math.min(sampleTileSize, nSamples - firstSample);
+
+        byte[][] dosages = new byte[block.size][tileLength];
+
+        for (int v = 0; v < block.size; v++) {
+
+            block.columns[v].getDosages(block.alleleIndexes[v], firstSample, tileLength, dosages[v]);
+
+        }
+
+        synchronized (tileLocks[tile]) {
+
+            for (int firstSet = 0; firstSet < nWeightSets; firstSet += weightSetTileSize) {
+
+                int lastSet = Math.min(firstSet + weightSetTileSize, nWeightSets);
+
+                for (int v = 0; v < block.size; v++) {
+
+                    byte[] variantDosages = dosages[v];
+                    double[] weights = block.weights[v];
+
+                    for (int i = 0; i < tileLength; i++) {
+
+                        int dosage = variantDosages[i];
+
+                        if (dosage != 0) {
+
+                            int offset = (firstSample + i) * nWeightSets;
+
+                            for (int k = firstSet; k < lastSet; k++) {
+
+                                scores[offset + k] += dosage * weights[k];
+
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the scores once all variants are added, i.e. once all calls to
+     * add returned, the last block is multiplied if needed.
+     *
+     * @return the scores indexed by weight set and sample
+     */
+    public double[][] getScores() {
+
+        flush();
+
+        double[][] result = new double[nWeightSets][nSamples];
+
+        for (int i = 0; i < nSamples; i++) {
+
+            for (int k = 0; k < nWeightSets; k++) {
+
+                result[k][i] = scores[i * nWeightSets + k];
+
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * A block of variants to multiply.
+     */
+    private static class Block {
+
+        /**
+         * The genotypes of the variants.
+         */
+        private final GenotypeColumn[] columns = new GenotypeColumn[variantBlockSize];
+        /**
+         * The index of the effect allele of the variants.
+         */
+        private final int[] alleleIndexes = new int[variantBlockSize];
+        /**
+         * The weights of the variants.
+         */
+        private final double[][] weights = new double[variantBlockSize][];
+        /**
+         * The number of variants in the block.
+         */
+        private int size = 0;
+
+        /**
+         * Adds a variant to the block.
+         *
+         * @param genotypeColumn the genotypes of the variant
+         * @param alleleIndex the index of the effect allele
+         * @param variantWeights the weight of the variant in every weight set
+         */
+        private void add(GenotypeColumn genotypeColumn, int alleleIndex, double[] variantWeights) {
+
+            columns[size] = genotypeColumn;
+            alleleIndexes[size] = alleleIndex;
+            weights[size] = variantWeights;
+            size++;
+
+        }
+    }
+}
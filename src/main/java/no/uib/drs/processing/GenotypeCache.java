@@ -0,0 +1,191 @@
+package no.uib.drs.processing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.function.Function;
+import no.uib.drs.model.biology.Proxy;
+import no.uib.drs.model.genotypes.GenotypeColumn;
+
+/**
+ * Cache of decoded genotype columns indexed by variant id. When the memory
+ * used by the columns exceeds the budget, the least recently used columns are
+ * evicted. Columns not in cache are loaded using the given loader. The views
+ * of the columns of proxies with the alleles of their original variants are
+ * built once when the columns are added, kept next to the columns, and
+ * evicted with them. The views share the genotypes of the columns and are not
+ * counted in the memory used.
+ *
+ * @author Marc Vaudel
+ */
+public class GenotypeCache {
+
+    /**
+     * The memory budget in bytes.
+     */
+    private final long memoryBudget;
+    /**
+     * The loader to use for the columns not in cache.
+     */
+    private final Function<String, GenotypeColumn> loader;
+    /**
+     * The map of proxies indexed by the id of the original variant.
+     */
+    private final HashMap<String, Proxy> proxiesMap;
+    /**
+     * The proxies indexed by the id of the proxy variant.
+     */
+    private final HashMap<String, ArrayList<Proxy>> proxiesById = new HashMap<>();
+    /**
+     * The columns in cache in access order.
+     */
+    private final LinkedHashMap<String, GenotypeColumn> columns = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * The views of the columns in cache for the original variants of their
+     * proxies, indexed by id of the original variant.
+     */
+    private final HashMap<String, GenotypeColumn> proxyViews = new HashMap<>();
+    /**
+     * The memory used by the columns in cache in bytes.
+     */
+    private long memoryUsed = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudget the memory budget in bytes
+     * @param loader the loader to use for the columns not in cache
+     * @param proxiesMap the map of proxies indexed by the id of the original
+     * variant
+     */
+    public GenotypeCache(long memoryBudget, Function<String, GenotypeColumn> loader, HashMap<String, Proxy> proxiesMap) {
+
+        this.memoryBudget = memoryBudget;
+        this.loader = loader;
+        this.proxiesMap = proxiesMap;
+
+        for (Proxy proxy : proxiesMap.values()) {
+
+            proxiesById.computeIfAbsent(proxy.proxyId, id -> new ArrayList<>(1)).add(proxy);
+
+        }
+    }
+
+    /**
+     * Adds a column to the cache, together with the views for the original
+     * variants if the variant is a proxy, and evicts the least recently used
+     * columns if needed.
+     *
+     * @param variantId the id of the variant
+     * @param genotypeColumn the genotypes of the variant
+     */
+    public synchronized void put(String variantId, GenotypeColumn genotypeColumn) {
+
+        GenotypeColumn previous = columns.put(variantId, genotypeColumn);
+
+        if (previous != null) {
+
+            memoryUsed -= previous.getMemorySize();
+
+        }
+
+        memoryUsed += genotypeColumn.getMemorySize();
+
+        ArrayList<Proxy> proxies = proxiesById.get(variantId);
+
+        if (proxies != null) {
+
+            for (Proxy proxy : proxies) {
+
+                proxyViews.put(proxy.snpId, getProxyGenotypes(genotypeColumn, proxy));
+
+            }
+        }
+
+        evict();
+
+    }
+
+    /**
+     * Returns the genotypes of a variant, loading them if not in cache. For
+     * variants replaced by a proxy, the genotypes of the proxy are returned
+     * with the alleles of the original variant.
+     *
+     * @param variantId the id of the variant
+     *
+     * @return the genotypes of the variant
+     */
+    public GenotypeColumn get(String variantId) {
+
+        Proxy proxy = proxiesMap.get(variantId);
+        String usedId = proxy == null ? variantId : proxy.proxyId;
+
+        synchronized (this) {
+
+            GenotypeColumn genotypeColumn = columns.get(usedId);
+
+            if (genotypeColumn != null) {
+
+                return proxy == null ? genotypeColumn : proxyViews.get(variantId);
+
+            }
+        }
+
+        GenotypeColumn genotypeColumn = loader.apply(usedId);
+
+        synchronized (this) {
+
+            put(usedId, genotypeColumn);
+
+            return proxy == null ? genotypeColumn : proxyViews.get(variantId);
+
+        }
+    }
+
+    /**
+     * Returns the genotypes of a proxy with the alleles mapped to the original
+     * variant. The alleles are translated once for the whole column, the
+     * genotypes are shared with the proxy.
+     *
+     * @param genotypeColumn the genotypes of the proxy
+     * @param proxy the proxy
+     *
+     * @return the genotypes of the proxy with the alleles of the original variant
+     */
+    private static GenotypeColumn getProxyGenotypes(GenotypeColumn genotypeColumn, Proxy proxy) {
+
+        String[] snpAlleles = proxy.getSnpAlleles(genotypeColumn.alleles);
+
+        return new GenotypeColumn(genotypeColumn, snpAlleles[0], snpAlleles[1]);
+
+    }
+
+    /**
+     * Evicts the least recently used columns and their views until the memory
+     * used is within the budget. The most recent column is never evicted.
+     */
+    private void evict() {
+
+        Iterator<Entry<String, GenotypeColumn>> iterator = columns.entrySet().iterator();
+
+        while (memoryUsed > memoryBudget && columns.size() > 1) {
+
+            Entry<String, GenotypeColumn> entry = iterator.next();
+            iterator.remove();
+            memoryUsed -= entry.getValue().getMemorySize();
+
+            ArrayList<Proxy> proxies = proxiesById.get(entry.getKey());
+
+            if (proxies != null) {
+
+                for (Proxy proxy : proxies) {
+
+                    proxyViews.remove(proxy.snpId);
+
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package no.uib.drs.processing;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import no.uib.drs.model.genotypes.GenotypeColumn;
+
+/**
+ * Accumulates score contributions from several threads without locking. Every
+ * thread adds its contributions to its own partial scores, the partial scores
+ * are summed when merging. Contributions are split into parts rounded to a
+ * fixed number of levels of precision, set from the largest possible
+ * contribution and the number of contributions per sample, and the parts of a
+ * level are summed without rounding error. The scores therefore do not depend
+ * on the order in which contributions are added nor on the threads adding
+ * them.
+ *
+ * @author Marc Vaudel
+ */
+public class ScoreAccumulator {
+
+    /**
+     * The number of levels of precision.
+     */
+    public static final int nLevels = 3;
+    /**
+     * The number of samples.
+     */
+    private final int nSamples;
+    /**
+     * The numbers used to round contributions to the precision of every
+     * level.
+     */
+    private final double[] splitters = new double[nLevels];
+    /**
+     * The partial scores of all threads, per level of precision.
+     */
+    private final ConcurrentLinkedQueue<double[][]> partialScores = new ConcurrentLinkedQueue<>();
+    /**
+     * The partial scores of the current thread, per level of precision.
+     */
+    private final ThreadLocal<double[][]> threadScores;
+    /**
+     * The contributions being computed by the current thread.
+     */
+    private final ThreadLocal<double[]> threadContributions;
+
+    /**
+     * Constructor. The contribution of a feature to the score of a sample is
+     * at most the maximal number of copies of an allele times its weight.
+     *
+     * @param nSamples the number of samples
+     * @param maxWeight the largest weight in absolute value
+     * @param nFeatures the number of features contributing to the score of a
+     * sample
+     */
+    public ScoreAccumulator(int nSamples, double maxWeight, long nFeatures) {
+
+        this.nSamples = nSamples;
+
+        // The parts of a level are multiples of 2^(exponent - 52) and their sums stay below 2^exponent, hence are exact
+        int nFeaturesExponent = Math.getExponent((double) Math.max(nFeatures, 2));
+        int exponent = Math.getExponent(GenotypeColumn.maxAlleleCount * Math.max(maxWeight, 0.0)) + nFeaturesExponent + 3;
+
+        for (int level = 0; level < nLevels; level++) {
+
+            exponent = Math.max(exponent, Double.MIN_EXPONENT + 52);
+            splitters[level] = Math.scalb(1.5, exponent);
+            exponent += nFeaturesExponent - 51;
+
+        }
+
+        threadScores = ThreadLocal.withInitial(() -> {
+
+            double[][] scores = new double[nLevels][this.nSamples];
+            partialScores.add(scores);
+
+            return scores;
+
+        });
+
+        threadContributions = ThreadLocal.withInitial(() -> new double[this.nSamples]);
+
+    }
+
+    /**
+     * Returns the array where the current thread computes the contributions
+     * of a feature to the scores of all samples. The array is filled with
+     * zeros, and the contributions must be added using addContributions
+     * before computing the contributions of another feature. The array must
+     * only be edited by the current thread.
+     *
+     * @return the contributions of the current thread
+     */
+    public double[] getContributions() {
+
+        return threadContributions.get();
+
+    }
+
+    /**
+     * Adds the contributions computed by the current thread to its partial
+     * scores and fills the contributions with zeros.
+     */
+    public void addContributions() {
+
+        double[] contributions = threadContributions.get();
+        double[][] scores = threadScores.get();
+
+        for (int level = 0; level < nLevels; level++) {
+
+            double splitter = splitters[level];
+            double[] levelScores = scores[level];
+
+            for (int i = 0; i < nSamples; i++) {
+
+                double part = (contributions[i] + splitter) - splitter;
+                levelScores[i] += part;
+                contributions[i] -= part;
+
+            }
+        }
+
+        Arrays.fill(contributions, 0.0);
+
+    }
+
+    /**
+     * Adds the partial scores of all threads to the given scores. This method
+     * must only be called once all threads are done adding contributions.
+     *
+     * @param scores the scores to add the partial scores to
+     */
+    public void mergeInto(double[] scores) {
+
+        mergeInto(scores, 0);
+
+    }
+
+    /**
+     * Adds the partial scores of all threads to the given scores starting at
+     * the given offset. The levels of precision are summed from the finest to
+     * the coarsest. This method must only be called once all threads are done
+     * adding contributions.
+     *
+     * @param scores the scores to add the partial scores to
+     * @param offset the index in the scores of the first sample
+     */
+    public void mergeInto(double[] scores, int offset) {
+
+        double[][] levelScores = getLevelScores();
+
+        for (int i = 0; i < nSamples; i++) {
+
+            double score = 0.0;
+
+            for (int level = nLevels - 1; level >= 0; level--) {
+
+                score += levelScores[level][i];
+
+            }
+
+            scores[offset + i] += score;
+
+        }
+    }
+
+    /**
+     * Returns the partial scores of all threads summed per level of
+     * precision. The sums are exact, and can be added to an accumulator with
+     * the same maximal weight and number of features without changing its
+     * scores. This method must only be called once all threads are done
+     * adding contributions.
+     *
+     * @return the partial scores per level of precision
+     */
+    public double[][] getLevelScores() {
+
+        double[][] levelScores = new double[nLevels][nSamples];
+
+        for (double[][] partialScore : partialScores) {
+
+            for (int level = 0; level < nLevels; level++) {
+
+                for (int i = 0; i < nSamples; i++) {
+
+                    levelScores[level][i] += partialScore[level][i];
+
+                }
+            }
+        }
+
+        return levelScores;
+
+    }
+
+    /**
+     * Adds partial scores per level of precision, as returned by
+     * getLevelScores on an accumulator with the same maximal weight and number
+     * of features, to the partial scores of the current thread.
+     *
+     * @param levelScores the partial scores per level of precision
+     */
+    public void addLevelScores(double[][] levelScores) {
+
+        double[][] scores = threadScores.get();
+
+        for (int level = 0; level < nLevels; level++) {
+
+            for (int i = 0; i < nSamples; i++) {
+
+                scores[level][i] += levelScores[level][i];
+
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package no.uib.drs.processing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import no.uib.drs.io.flat.SimpleFileReader;
+import no.uib.drs.io.flat.SimpleFileWriter;
+import no.uib.drs.io.flat.readers.SimpleGzReader;
+
+/**
+ * The progress of a score computation: the partial scores accumulated over the
+ * regions completed so far and the variants found missing in these regions.
+ * The partial scores are saved per level of precision of the accumulator such
+ * that a resumed computation gives the same scores as an uninterrupted one.
+ *
+ * @author Marc Vaudel
+ */
+public class ScoreCheckpoint {
+
+    /**
+     * The first line of a checkpoint file.
+     */
+    public static final String header = "##drs_checkpoint";
+    /**
+     * The key of the line containing the fingerprint of the score.
+     */
+    public static final String scoreKey = "##score";
+    /**
+     * The key of the line containing the fingerprint of the inputs.
+     */
+    public static final String inputsKey = "##inputs";
+    /**
+     * The key of the line listing the regions completed.
+     */
+    public static final String completedKey = "##completed";
+    /**
+     * The key of the line listing the variants missing.
+     */
+    public static final String missingKey = "##missing";
+    /**
+     * The separator used in the checkpoint files.
+     */
+    public static final String separator = "\t";
+    /**
+     * The fingerprint of the score computed.
+     */
+    public final long scoreFingerprint;
+    /**
+     * The fingerprint of the vcf files and decoder used.
+     */
+    public final String inputsFingerprint;
+    /**
+     * The ordered sample names.
+     */
+    public final ArrayList<String> sampleNames;
+    /**
+     * The partial scores accumulated over the regions completed per level of
+     * precision.
+     */
+    public final double[][] levelScores;
+    /**
+     * The regions completed.
+     */
+    public final HashSet<String> completedRegions;
+    /**
+     * The variants found missing in the regions completed.
+     */
+    public final HashSet<String> missingVariants;
+
+    /**
+     * Constructor.
+     *
+     * @param scoreFingerprint the fingerprint of the score computed
+     * @param inputsFingerprint the fingerprint of the vcf files and decoder
+     * used
+     * @param sampleNames the ordered sample names
+     * @param levelScores the partial scores accumulated over the regions
+     * completed per level of precision
+     * @param completedRegions the regions completed
+     * @param missingVariants the variants found missing in the regions
+     * completed
+     */
+    public ScoreCheckpoint(long scoreFingerprint, String inputsFingerprint, ArrayList<String> sampleNames, double[][] levelScores, HashSet<String> completedRegions, HashSet<String> missingVariants) {
+
+        this.scoreFingerprint = scoreFingerprint;
+        this.inputsFingerprint = inputsFingerprint;
+        this.sampleNames = sampleNames;
+        this.levelScores = levelScores;
+        this.completedRegions = completedRegions;
+        this.missingVariants = missingVariants;
+
+    }
+
+    /**
+     * Writes the checkpoint to the given file. The checkpoint is written to a
+     * temporary file in the same folder which is then renamed, such that the
+     * file always contains a complete checkpoint even if the process is
+     * killed while writing.
+     *
+     * @param checkpointFile the checkpoint file
+     */
+    public void write(File checkpointFile) {
+
+        File tempFile = new File(checkpointFile.getAbsolutePath() + ".tmp");
+
+        try (SimpleFileWriter writer = new SimpleFileWriter(tempFile, true)) {
+
+            writer.writeLine(header);
+            writer.writeLine(String.join(separator, scoreKey, Long.toString(scoreFingerprint)));
+            writer.writeLine(String.join(separator, inputsKey, inputsFingerprint));
+            writer.writeLine(getLine(completedKey, completedRegions));
+            writer.writeLine(getLine(missingKey, missingVariants));
+
+            for (int i = 0; i < sampleNames.size(); i++) {
+
+                StringBuilder line = new StringBuilder(sampleNames.get(i));
+
+                for (double[] scores : levelScores) {
+
+                    line.append(separator).append(Double.toString(scores[i]));
+
+                }
+
+                writer.writeLine(line.toString());
+
+            }
+        }
+
+        try {
+
+            Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Returns a line listing the given elements in lexicographic order.
+     *
+     * @param key the key of the line
+     * @param elements the elements
+     *
+     * @return the line
+     */
+    private static String getLine(String key, HashSet<String> elements) {
+
+        return String.join(separator, Stream.concat(Stream.of(key), elements.stream().sorted())
+                .toArray(String[]::new));
+
+    }
+
+    /**
+     * Reads a checkpoint file.
+     *
+     * @param checkpointFile the checkpoint file
+     *
+     * @return the checkpoint
+     */
+    public static ScoreCheckpoint read(File checkpointFile) {
+
+        try (SimpleFileReader reader = new SimpleGzReader(checkpointFile)) {
+
+            String line = reader.readLine();
+
+            if (line == null || !line.equals(header)) {
+
+                throw new IllegalArgumentException("Unexpected header in checkpoint " + checkpointFile.getAbsolutePath() + ". (Found: \"" + line + "\"; Expected: \"" + header + "\")");
+
+            }
+
+            long scoreFingerprint = Long.parseLong(parseLine(reader.readLine(), scoreKey, checkpointFile)[1]);
+            String inputsFingerprint = parseLine(reader.readLine(), inputsKey, checkpointFile)[1];
+            String[] completed = parseLine(reader.readLine(), completedKey, checkpointFile);
+            String[] missing = parseLine(reader.readLine(), missingKey, checkpointFile);
+
+            ArrayList<String> sampleNames = new ArrayList<>();
+            ArrayList<double[]> scores = new ArrayList<>();
+
+            while ((line = reader.readLine()) != null) {
+
+                if (!line.equals("")) {
+
+                    String[] lineSplit = line.split(separator);
+
+                    sampleNames.add(lineSplit[0]);
+                    scores.add(Arrays.stream(lineSplit, 1, lineSplit.length)
+                            .mapToDouble(score -> Double.parseDouble(score))
+                            .toArray());
+
+                }
+            }
+
+            double[][] levelScores = IntStream.range(0, ScoreAccumulator.nLevels)
+                    .mapToObj(level -> scores.stream()
+                            .mapToDouble(sampleScores -> sampleScores[level])
+                            .toArray())
+                    .toArray(double[][]::new);
+
+            return new ScoreCheckpoint(
+                    scoreFingerprint,
+                    inputsFingerprint,
+                    sampleNames,
+                    levelScores,
+                    new HashSet<>(Arrays.asList(completed).subList(1, completed.length)),
+                    new HashSet<>(Arrays.asList(missing).subList(1, missing.length))
+            );
+        }
+    }
+
+    /**
+     * Splits a line of the checkpoint file and checks its key.
+     *
+     * @param line the line
+     * @param key the expected key
+     * @param checkpointFile the checkpoint file
+     *
+     * @return the line split
+     */
+    private static String[] parseLine(String line, String key, File checkpointFile) {
+
+        String[] lineSplit = line == null ? null : line.split(separator);
+
+        if (lineSplit == null || !lineSplit[0].equals(key)) {
+
+            throw new IllegalArgumentException("Line " + key + " not found in checkpoint " + checkpointFile.getAbsolutePath() + ".");
+
+        }
+
+        return lineSplit;
+
+    }
+}
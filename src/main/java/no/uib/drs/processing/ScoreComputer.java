@@ -1,25 +1,41 @@
 package no.uib.drs.processing;
 
 import htsjdk.samtools.util.CloseableIterator;
-import htsjdk.variant.variantcontext.Allele;
-import htsjdk.variant.variantcontext.Genotype;
-import htsjdk.variant.variantcontext.VariantContext;
-import htsjdk.variant.vcf.VCFFileReader;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.DoubleSummaryStatistics;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import no.uib.drs.io.matrix.ContributionMatrixWriter;
+import no.uib.drs.io.vcf.GenotypeColumnStore;
 import no.uib.drs.io.vcf.VariantDetailsProvider;
+import no.uib.drs.io.vcf.VcfQueryPlanner.AccessMode;
+import no.uib.drs.io.vcf.VariantFetcher;
+import no.uib.drs.io.vcf.VariantRecord;
+import no.uib.drs.io.vcf.VariantRecordReader;
+import no.uib.drs.io.vcf.VcfDecoder;
+import no.uib.drs.io.vcf.VcfReaderPool;
+import no.uib.drs.io.vcf.VcfStream;
 import no.uib.drs.model.ScoringFeature;
 import no.uib.drs.model.score.RiskScore;
 import no.uib.drs.model.biology.Proxy;
 import no.uib.drs.model.biology.Variant;
 import no.uib.drs.model.features.CdpkFeature;
+import no.uib.drs.model.genotypes.GenotypeColumn;
 import no.uib.drs.model.score.CdpkScore;
+import no.uib.drs.model.score.WeightMatrix;
 import no.uib.drs.utils.SimpleSemaphore;
 
 /**
@@ -30,9 +46,20 @@ import no.uib.drs.utils.SimpleSemaphore;
 public class ScoreComputer {
 
     /**
-     * The ordered sample names as found in a vcf file.
+     * The ordered names of the samples scored as found in a vcf file.
      */
     public final ArrayList<String> sampleNames;
+    /**
+     * The indexes in the vcf files of the samples scored in ascending order,
+     * null if all samples are scored.
+     */
+    private final int[] sampleIndexes;
+    /**
+     * Boolean indicating whether the records are read from a vcf stream, in
+     * which case the records are read once and all samples are processed in
+     * a single pass.
+     */
+    private final boolean streamed;
     /**
      * The scores.
      */
@@ -42,39 +69,311 @@ public class ScoreComputer {
      */
     public final HashSet<String> missingVariants = new HashSet<>();
     /**
-     * The vcf readers linked to the vcf files.
+     * Variants that were found and used in the scores.
+     */
+    public final HashSet<String> foundVariants = new HashSet<>();
+    /**
+     * The vcf files.
+     */
+    private final File[] vcfFiles;
+    /**
+     * The pool of readers for the vcf files.
      */
-    private final HashMap<String, VCFFileReader> vcfFileReaders;
+    private final VcfReaderPool vcfReaderPool;
     /**
      * The variant details provider for the markers in the vcf files.
      */
     private final VariantDetailsProvider variantDetailsProvider;
+    /**
+     * The number of batches of records to prefetch per vcf file, 0 if records
+     * are not prefetched.
+     */
+    private final int nPrefetch;
+    /**
+     * The memory budget for the decoded genotypes in bytes.
+     */
+    private final long genotypesMemory;
+    /**
+     * The stores of decoded genotypes indexed by vcf file name, empty if
+     * genotypes are not stored.
+     */
+    private final HashMap<String, GenotypeColumnStore> genotypeStores = new HashMap<>();
+    /**
+     * The default number of batches of records to prefetch per vcf file.
+     */
+    public static final int defaultPrefetch = 16;
+    /**
+     * The number of positions per region of a chromosome saved in checkpoints.
+     */
+    public static final int checkpointRegionSize = 10000;
+    /**
+     * The minimal time between two checkpoints in milliseconds.
+     */
+    public static final long checkpointInterval = 60000;
 
     /**
-     * Constructor
+     * Constructor. One reader per available processor is used for every vcf
+     * file.
      *
      * @param vcfFiles the vcf files
      * @param variantDetailsProvider the variants details provider
      */
     public ScoreComputer(File[] vcfFiles, VariantDetailsProvider variantDetailsProvider) {
 
+        this(vcfFiles, variantDetailsProvider, Runtime.getRuntime().availableProcessors());
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param vcfFiles the vcf files
+     * @param variantDetailsProvider the variants details provider
+     * @param nReaders the maximal number of readers to use per vcf file
+     */
+    public ScoreComputer(File[] vcfFiles, VariantDetailsProvider variantDetailsProvider, int nReaders) {
+
+        this(vcfFiles, variantDetailsProvider, nReaders, defaultPrefetch, getDefaultGenotypesMemory());
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param vcfFiles the vcf files
+     * @param variantDetailsProvider the variants details provider
+     * @param nReaders the maximal number of readers to use per vcf file
+     * @param nPrefetch the number of batches of records to read ahead per vcf
+     * file while scoring, 0 to disable prefetching
+     * @param genotypesMemory the memory budget for the decoded genotypes in
+     * bytes, samples are processed in chunks if the genotypes of all samples
+     * do not fit, genotypes exceeding the budget are evicted and retrieved
+     * again when needed
+     */
+    public ScoreComputer(File[] vcfFiles, VariantDetailsProvider variantDetailsProvider, int nReaders, int nPrefetch, long genotypesMemory) {
+
+        this(vcfFiles, variantDetailsProvider, nReaders, nPrefetch, genotypesMemory, null);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param vcfFiles the vcf files
+     * @param variantDetailsProvider the variants details provider
+     * @param nReaders the maximal number of readers to use per vcf file
+     * @param nPrefetch the number of batches of records to read ahead per vcf
+     * file while scoring, 0 to disable prefetching
+     * @param genotypesMemory the memory budget for the decoded genotypes in
+     * bytes, samples are processed in chunks if the genotypes of all samples
+     * do not fit, genotypes exceeding the budget are evicted and retrieved
+     * again when needed
+     * @param genotypeStoreFolder the folder where to store the genotypes
+     * decoded for later runs, and where the genotypes decoded by previous
+     * runs on the same vcf files are retrieved from, null to disable
+     */
+    public ScoreComputer(File[] vcfFiles, VariantDetailsProvider variantDetailsProvider, int nReaders, int nPrefetch, long genotypesMemory, File genotypeStoreFolder) {
+
+        this(vcfFiles, variantDetailsProvider, nReaders, nPrefetch, genotypesMemory, genotypeStoreFolder, VcfDecoder.htsjdk);
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param vcfFiles the vcf files
+     * @param variantDetailsProvider the variants details provider
+     * @param nReaders the maximal number of readers to use per vcf file
+     * @param nPrefetch the number of batches of records to read ahead per vcf
+     * file while scoring, 0 to disable prefetching
+     * @param genotypesMemory the memory budget for the decoded genotypes in
+     * bytes, samples are processed in chunks if the genotypes of all samples
+     * do not fit, genotypes exceeding the budget are evicted and retrieved
+     * again when needed
+     * @param genotypeStoreFolder the folder where to store the genotypes
+     * decoded for later runs, and where the genotypes decoded by previous
+     * runs on the same vcf files are retrieved from, null to disable
+     * @param decoder the decoder to use for the vcf records
+     */
+    public ScoreComputer(File[] vcfFiles, VariantDetailsProvider variantDetailsProvider, int nReaders, int nPrefetch, long genotypesMemory, File genotypeStoreFolder, VcfDecoder decoder) {
+
+        this(vcfFiles, variantDetailsProvider, nReaders, nPrefetch, genotypesMemory, genotypeStoreFolder, decoder, null);
+
+    }
+
+    /**
+     * Constructor. If the vcf file is a stream, e.g. the standard input, its
+     * records are read once and the genotypes of all samples are kept in
+     * memory, the memory budget is not applied.
+     *
+     * @param vcfFiles the vcf files
+     * @param variantDetailsProvider the variants details provider
+     * @param nReaders the maximal number of readers to use per vcf file
+     * @param nPrefetch the number of batches of records to read ahead per vcf
+     * file while scoring, 0 to disable prefetching
+     * @param genotypesMemory the memory budget for the decoded genotypes in
+     * bytes, samples are processed in chunks if the genotypes of all samples
+     * do not fit, genotypes exceeding the budget are evicted and retrieved
+     * again when needed
+     * @param genotypeStoreFolder the folder where to store the genotypes
+     * decoded for later runs, and where the genotypes decoded by previous
+     * runs on the same vcf files are retrieved from, null to disable
+     * @param decoder the decoder to use for the vcf records
+     * @param samples the names of the samples to score, null to score all
+     * samples. Samples are scored in the order of the vcf files and only
+     * their genotypes are decoded.
+     */
+    public ScoreComputer(File[] vcfFiles, VariantDetailsProvider variantDetailsProvider, int nReaders, int nPrefetch, long genotypesMemory, File genotypeStoreFolder, VcfDecoder decoder, Collection<String> samples) {
+
+        this.vcfFiles = vcfFiles;
         this.variantDetailsProvider = variantDetailsProvider;
+        this.nPrefetch = nPrefetch;
+        this.genotypesMemory = genotypesMemory;
 
-        vcfFileReaders = Arrays.stream(vcfFiles)
-                .collect(Collectors.toMap(
-                        file -> file.getName(),
-                        file -> new VCFFileReader(file),
-                        (a, b) -> a,
-                        HashMap::new));
+        vcfReaderPool = new VcfReaderPool(vcfFiles, nReaders, decoder);
+        streamed = Arrays.stream(vcfFiles)
+                .anyMatch(vcfFile -> VcfStream.isStream(vcfFile));
 
-        sampleNames = vcfFileReaders.values().stream()
-                .findAny()
-                .get()
-                .getFileHeader()
-                .getSampleNamesInOrder();
+        if (streamed && genotypeStoreFolder != null) {
+
+            throw new IllegalArgumentException("The genotypes of a vcf stream cannot be stored.");
+
+        }
+
+        ArrayList<String> vcfSampleNames = vcfReaderPool.getSampleNames();
+
+        if (samples == null) {
+
+            sampleIndexes = null;
+            sampleNames = vcfSampleNames;
+
+        } else {
+
+            sampleIndexes = getSampleIndexes(vcfSampleNames, samples);
+            sampleNames = Arrays.stream(sampleIndexes)
+                    .mapToObj(i -> vcfSampleNames.get(i))
+                    .collect(Collectors.toCollection(ArrayList::new));
+
+        }
 
         scores = new double[sampleNames.size()];
 
+        if (genotypeStoreFolder != null) {
+
+            Arrays.stream(vcfFiles)
+                    .forEach(vcfFile -> genotypeStores.put(vcfFile.getName(), new GenotypeColumnStore(genotypeStoreFolder, vcfFile, vcfSampleNames.size())));
+
+        }
+
+    }
+
+    /**
+     * Returns the indexes of the given samples in the vcf files in ascending
+     * order.
+     *
+     * @param vcfSampleNames the names of the samples of the vcf files
+     * @param samples the names of the samples
+     *
+     * @return the indexes of the samples in the vcf files
+     */
+    private static int[] getSampleIndexes(ArrayList<String> vcfSampleNames, Collection<String> samples) {
+
+        HashMap<String, Integer> indexes = new HashMap<>(vcfSampleNames.size());
+
+        for (int i = 0; i < vcfSampleNames.size(); i++) {
+
+            indexes.put(vcfSampleNames.get(i), i);
+
+        }
+
+        return samples.stream()
+                .mapToInt(sample -> {
+
+                    Integer index = indexes.get(sample);
+
+                    if (index == null) {
+
+                        throw new IllegalArgumentException("Sample " + sample + " not found in the vcf files.");
+
+                    }
+
+                    return index;
+
+                })
+                .distinct()
+                .sorted()
+                .toArray();
+
+    }
+
+    /**
+     * Returns the indexes in the vcf files of a range of the samples scored,
+     * null if all samples are scored.
+     *
+     * @param firstSample the index of the first sample of the range
+     * @param nSamples the number of samples of the range
+     *
+     * @return the indexes in the vcf files of the samples of the range
+     */
+    private int[] getSampleIndexes(int firstSample, int nSamples) {
+
+        return sampleIndexes == null ? null : Arrays.copyOfRange(sampleIndexes, firstSample, firstSample + nSamples);
+
+    }
+
+    /**
+     * Decodes the genotypes of a record for the given samples, or for a range
+     * of samples if no samples are given.
+     *
+     * @param variantRecord the record
+     * @param alt the alternative allele
+     * @param samples the indexes of the samples in the vcf file, null to
+     * decode a range of samples
+     * @param firstSample the index of the first sample of the range
+     * @param nSamples the number of samples of the range
+     *
+     * @return the genotypes of the samples
+     */
+    private static GenotypeColumn decode(VariantRecord variantRecord, String alt, int[] samples, int firstSample, int nSamples) {
+
+        return samples == null
+                ? variantRecord.decode(alt, firstSample, nSamples)
+                : variantRecord.decode(alt, samples);
+
+    }
+
+    /**
+     * Returns the genotypes of the given samples, or of a range of samples if
+     * no samples are given, from a genotype store, null if the variant was not
+     * found in the vcf file.
+     *
+     * @param genotypeStore the genotype store
+     * @param variant the variant
+     * @param samples the indexes of the samples in the vcf file, null to
+     * retrieve a range of samples
+     * @param firstSample the index of the first sample of the range
+     * @param nSamples the number of samples of the range
+     *
+     * @return the genotypes of the samples
+     */
+    private static GenotypeColumn getStoredGenotypes(GenotypeColumnStore genotypeStore, Variant variant, int[] samples, int firstSample, int nSamples) {
+
+        return samples == null
+                ? genotypeStore.get(variant.id, variant.ref, variant.alt, firstSample, nSamples)
+                : genotypeStore.get(variant.id, variant.ref, variant.alt, samples);
+
+    }
+
+    /**
+     * Returns the default memory budget for the decoded genotypes, a quarter
+     * of the maximal heap size.
+     *
+     * @return the default memory budget for the decoded genotypes in bytes
+     */
+    public static long getDefaultGenotypesMemory() {
+
+        return Runtime.getRuntime().maxMemory() / 4;
+
     }
 
     /**
@@ -85,106 +384,728 @@ public class ScoreComputer {
      */
     public void computeRiskScores(RiskScore riskScore, HashMap<String, Proxy> proxiesMap) {
 
-        final SimpleSemaphore scoreMutex = new SimpleSemaphore(1);
+        computeScores(new RiskScore[]{riskScore}, new CdpkScore[0], proxiesMap, new double[][]{scores}, false, null);
+
+    }
+
+    /**
+     * Computes several scores for all patients in the given vcf files in a
+     * single pass, or one pass per chunk of samples if the genotypes do not
+     * fit in the memory budget. The variants of all scores are retrieved once
+     * per pass and the genotypes of every record are decoded once for all
+     * scores needing them.
+     *
+     * @param riskScores the risk scores
+     * @param cdpkScores the CDPK scores
+     * @param proxiesMap the map of proxies
+     *
+     * @return the scores indexed by score and sample, risk scores first, in
+     * the order they were given
+     */
+    public double[][] computeScores(RiskScore[] riskScores, CdpkScore[] cdpkScores, HashMap<String, Proxy> proxiesMap) {
+
+        return computeScores(riskScores, cdpkScores, proxiesMap, null);
+
+    }
+
+    /**
+     * Computes several scores for all patients in the given vcf files and
+     * writes the contribution of every feature of the risk scores to every
+     * sample. Features are indexed in the order of the risk scores and of
+     * their features.
+     *
+     * @param riskScores the risk scores
+     * @param cdpkScores the CDPK scores
+     * @param proxiesMap the map of proxies
+     * @param contributionWriter the writer for the contributions of the
+     * features, null to not write contributions
+     *
+     * @return the scores indexed by score and sample, risk scores first, in
+     * the order they were given
+     */
+    public double[][] computeScores(RiskScore[] riskScores, CdpkScore[] cdpkScores, HashMap<String, Proxy> proxiesMap, ContributionMatrixWriter contributionWriter) {
+
+        double[][] result = new double[riskScores.length + cdpkScores.length][sampleNames.size()];
+
+        computeScores(riskScores, cdpkScores, proxiesMap, result, false, contributionWriter);
+
+        return result;
+
+    }
+
+    /**
+     * Computes the contributions to several scores of the variants found in
+     * the given vcf files only, e.g. the files of some chromosomes. The
+     * variants expected in other vcf files are added to the missing variants
+     * and the features of risk scores needing them are skipped. The variants
+     * used are added to the found variants, so that partial scores computed
+     * on different files can be validated and summed.
+     *
+     * @param riskScores the risk scores
+     * @param cdpkScores the CDPK scores
+     * @param proxiesMap the map of proxies
+     *
+     * @return the partial scores indexed by score and sample, risk scores
+     * first, in the order they were given
+     */
+    public double[][] computePartialScores(RiskScore[] riskScores, CdpkScore[] cdpkScores, HashMap<String, Proxy> proxiesMap) {
+
+        return computePartialScores(riskScores, cdpkScores, proxiesMap, null);
+
+    }
+
+    /**
+     * Computes the contributions to several scores of the variants found in
+     * the given vcf files only and writes the contribution of every feature
+     * of the risk scores that could be computed to every sample.
+     *
+     * @param riskScores the risk scores
+     * @param cdpkScores the CDPK scores
+     * @param proxiesMap the map of proxies
+     * @param contributionWriter the writer for the contributions of the
+     * features, null to not write contributions
+     *
+     * @return the partial scores indexed by score and sample, risk scores
+     * first, in the order they were given
+     */
+    public double[][] computePartialScores(RiskScore[] riskScores, CdpkScore[] cdpkScores, HashMap<String, Proxy> proxiesMap, ContributionMatrixWriter contributionWriter) {
+
+        double[][] result = new double[riskScores.length + cdpkScores.length][sampleNames.size()];
+
+        computeScores(riskScores, cdpkScores, proxiesMap, result, true, contributionWriter);
+
+        return result;
+
+    }
+
+    /**
+     * Computes several scores for all patients in the given vcf files and adds
+     * them to the given arrays. If the decoded genotypes of all samples do not
+     * fit in the memory budget, samples are processed in chunks, one pass
+     * through the vcf files per chunk.
+     *
+     * @param riskScores the risk scores
+     * @param cdpkScores the CDPK scores
+     * @param proxiesMap the map of proxies
+     * @param destination the arrays where to add the scores, risk scores first
+     * @param partial if true the variants expected in vcf files that were not
+     * provided are considered missing, otherwise an exception is thrown for
+     * the variants of risk scores
+     * @param contributionWriter the writer for the contributions of the
+     * features, null to not write contributions
+     */
+    private void computeScores(RiskScore[] riskScores, CdpkScore[] cdpkScores, HashMap<String, Proxy> proxiesMap, double[][] destination, boolean partial, ContributionMatrixWriter contributionWriter) {
+
+        HashMap<String, HashSet<Variant>> variantsPerFile = new HashMap<>(variantDetailsProvider.vcfFileNames.size());
+
+        Arrays.stream(riskScores)
+                .flatMap(riskScore -> Arrays.stream(riskScore.features))
+                .flatMap(feature -> Arrays.stream(feature.getVariants()))
+                .map(id -> getUsedId(id, proxiesMap))
+                .distinct()
+                .forEach(id -> addVariant(variantsPerFile, variantDetailsProvider.getVcfName(id), variantDetailsProvider.getVariant(id)));
+
+        HashSet<String> unavailableIds = new HashSet<>();
+
+        variantsPerFile.entrySet().stream()
+                .filter(entry -> vcfReaderPool.getVcfFile(entry.getKey()) == null)
+                .forEach(entry -> {
+
+                    if (!partial && !entry.getValue().isEmpty()) {
+
+                        throw new IllegalArgumentException("Variant " + entry.getValue().iterator().next().id + " expected in vcf file " + entry.getKey() + " which was not provided.");
+
+                    }
+
+                    entry.getValue().forEach(variant -> unavailableIds.add(variant.id));
+
+                });
+
+        HashMap<Variant, CdpkFeature[]> cdpkTargets = getCdpkTargets(cdpkScores, variantsPerFile);
+
+        variantsPerFile.keySet().removeIf(vcfFileName -> vcfReaderPool.getVcfFile(vcfFileName) == null);
+
+        int nColumns = variantsPerFile.values().stream()
+                .mapToInt(fileVariants -> (int) fileVariants.stream()
+                        .filter(variant -> !cdpkTargets.containsKey(variant))
+                        .count())
+                .sum();
+
+        int nSamples = sampleNames.size();
+        int chunkSize = getSampleChunkSize(nColumns, destination.length);
+
+        Set<Variant> cdpkFound = ConcurrentHashMap.newKeySet(cdpkTargets.size());
+
+        for (int firstSample = 0; firstSample < nSamples; firstSample += chunkSize) {
+
+            computeScores(riskScores, cdpkScores, proxiesMap, variantsPerFile, cdpkTargets, cdpkFound, unavailableIds, destination, contributionWriter, firstSample, Math.min(chunkSize, nSamples - firstSample));
+
+        }
+
+        for (Entry<Variant, CdpkFeature[]> entry : cdpkTargets.entrySet()) {
+
+            HashSet<String> destinationVariants = cdpkFound.contains(entry.getKey()) ? foundVariants : missingVariants;
+
+            Arrays.stream(entry.getValue())
+                    .filter(feature -> feature != null)
+                    .forEach(feature -> destinationVariants.add(feature.name));
+
+        }
+
+        for (RiskScore riskScore : riskScores) {
+
+            for (ScoringFeature feature : riskScore.features) {
+
+                String[] variantIds = feature.getVariants();
+
+                if (isAvailable(variantIds, proxiesMap, unavailableIds)) {
+
+                    foundVariants.addAll(Arrays.asList(variantIds));
+
+                } else {
+
+                    Arrays.stream(variantIds)
+                            .filter(id -> unavailableIds.contains(getUsedId(id, proxiesMap)))
+                            .forEach(id -> missingVariants.add(id));
+
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Returns the number of samples to process per pass so that the decoded
+     * genotypes and the partial scores fit in the memory budget. The number
+     * is a multiple of 64 of at least 64 samples. All samples are processed
+     * in one pass when reading a vcf stream.
+     *
+     * @param nColumns the number of genotype columns to keep in memory
+     * @param nScores the number of scores
+     *
+     * @return the number of samples to process per pass
+     */
+    private int getSampleChunkSize(int nColumns, int nScores) {
+
+        int nSamples = sampleNames.size();
+
+        if (streamed) {
+
+            return nSamples;
+
+        }
+
+        double bytesPerSample = nColumns * GenotypeColumn.getMemorySize(64) / 64.0
+                + 8.0 * nScores * ((ScoreAccumulator.nLevels + 1) * Runtime.getRuntime().availableProcessors() + 1);
+
+        long chunkSize = (long) (genotypesMemory / bytesPerSample);
+        chunkSize = Math.max(64, chunkSize - chunkSize % 64);
+
+        return (int) Math.min(chunkSize, nSamples);
+
+    }
+
+    /**
+     * Computes several scores for a range of samples in a single pass through
+     * the vcf files and adds them to the given arrays.
+     *
+     * @param riskScores the risk scores
+     * @param cdpkScores the CDPK scores
+     * @param proxiesMap the map of proxies
+     * @param variantsPerFile the variants to retrieve per vcf file
+     * @param cdpkTargets the features of every CDPK score indexed by variant
+     * to retrieve
+     * @param cdpkFound set where to add the CDPK variants found
+     * @param unavailableIds the ids of the variants expected in vcf files that
+     * were not provided
+     * @param destination the arrays where to add the scores, risk scores first
+     * @param contributionWriter the writer for the contributions of the
+     * features, null to not write contributions
+     * @param firstSample the index of the first sample
+     * @param nSamples the number of samples
+     */
+    private void computeScores(RiskScore[] riskScores, CdpkScore[] cdpkScores, HashMap<String, Proxy> proxiesMap, HashMap<String, HashSet<Variant>> variantsPerFile, HashMap<Variant, CdpkFeature[]> cdpkTargets, Set<Variant> cdpkFound, HashSet<String> unavailableIds, double[][] destination, ContributionMatrixWriter contributionWriter, int firstSample, int nSamples) {
+
+        int[] samples = getSampleIndexes(firstSample, nSamples);
+        GenotypeCache genotypeCache = new GenotypeCache(streamed ? Long.MAX_VALUE : genotypesMemory, variantId -> loadGenotypes(variantId, samples, firstSample, nSamples), proxiesMap);
+        Set<String> riskFound = ConcurrentHashMap.newKeySet();
+
+        ScoreAccumulator[] cdpkAccumulators = Arrays.stream(cdpkScores)
+                .map(cdpkScore -> getScoreAccumulator(nSamples, cdpkScore.getWeights()))
+                .toArray(ScoreAccumulator[]::new);
+
+        boolean allSamples = samples == null && nSamples == sampleNames.size();
+
+        BiConsumer<Variant, GenotypeColumn> genotypesConsumer = (variant, genotypeColumn) -> {
+
+            CdpkFeature[] features = cdpkTargets.get(variant);
+
+            if (features == null) {
+
+                riskFound.add(variant.id);
+                genotypeCache.put(variant.id, genotypeColumn);
+
+            } else {
+
+                cdpkFound.add(variant);
 
-        Arrays.stream(riskScore.features)
-                .forEach(feature -> {
+                for (int k = 0; k < features.length; k++) {
 
-                    final String[] variantProxies = Arrays.stream(feature.getVariants())
-                            .map(id -> proxiesMap.containsKey(id) ? proxiesMap.get(id).proxyId : id)
-                            .toArray(String[]::new);
+                    CdpkFeature feature = features[k];
 
-                    final List<Allele>[][] alleles = new List[sampleNames.size()][variantProxies.length];
+                    if (feature != null) {
 
-                    for (int i = 0; i < variantProxies.length; i++) {
+                        addContributions(genotypeColumn, feature, cdpkAccumulators[k]);
 
-                        String id = variantProxies[i];
-                        String vcfFileName = variantDetailsProvider.getVcfName(id);
-                        Variant variant = variantDetailsProvider.getVariant(id);
+                    }
+                }
+            }
+        };
+
+        HashMap<String, HashSet<Variant>> variantsToFetch = new HashMap<>(variantsPerFile.size());
+
+        for (Entry<String, HashSet<Variant>> entry : variantsPerFile.entrySet()) {
+
+            GenotypeColumnStore genotypeStore = genotypeStores.get(entry.getKey());
+            HashSet<Variant> fileVariantsToFetch = genotypeStore == null
+                    ? entry.getValue()
+                    : entry.getValue().stream()
+                            .filter(variant -> !genotypeStore.contains(variant.id, variant.ref, variant.alt))
+                            .collect(Collectors.toCollection(HashSet::new));
+
+            if (!fileVariantsToFetch.isEmpty()) {
+
+                variantsToFetch.put(entry.getKey(), fileVariantsToFetch);
+
+            }
+        }
+
+        variantsPerFile.entrySet().stream()
+                .parallel()
+                .filter(entry -> genotypeStores.containsKey(entry.getKey()))
+                .forEach(entry -> {
+
+                    GenotypeColumnStore genotypeStore = genotypeStores.get(entry.getKey());
+                    HashSet<Variant> fileVariantsToFetch = variantsToFetch.getOrDefault(entry.getKey(), new HashSet<>(0));
+
+                    for (Variant variant : entry.getValue()) {
+
+                        if (!fileVariantsToFetch.contains(variant)) {
+
+                            GenotypeColumn genotypeColumn = getStoredGenotypes(genotypeStore, variant, samples, firstSample, nSamples);
+
+                            if (genotypeColumn != null) {
+
+                                genotypesConsumer.accept(variant, genotypeColumn);
+
+                            }
+                        }
+                    }
+                });
+
+        variantsToFetch.entrySet().stream()
+                .parallel()
+                .forEach(entry -> {
+
+                    String vcfFileName = entry.getKey();
+                    HashSet<Variant> fileVariantsToFetch = entry.getValue();
+                    GenotypeColumnStore genotypeStore = genotypeStores.get(vcfFileName);
+
+                    VariantFetcher variantFetcher = new VariantFetcher(vcfFileName, vcfReaderPool, nPrefetch);
+                    variantFetcher.fetch(fileVariantsToFetch, (variantRecord, positionVariants) -> {
+
+                        GenotypeColumn genotypeColumn = null;
+
+                        for (Variant variant : positionVariants) {
+
+                            boolean match = !cdpkTargets.containsKey(variant)
+                                    ? variantRecord.hasId(variant.id)
+                                    : variantRecord.hasRef(variant.ref)
+                                    && variantRecord.hasAlt(variant.alt);
+
+                            if (match) {
 
-                        VCFFileReader vcfFileReader = vcfFileReaders.get(vcfFileName);
-                        boolean found = false;
+                                if (genotypeColumn == null || !genotypeColumn.alleles[1].equals(variant.alt)) {
 
-                        try (CloseableIterator<VariantContext> iterator = vcfFileReader.query(variant.chr, variant.bp, variant.bp)) {
+                                    genotypeColumn = decode(variantRecord, variant.alt, samples, firstSample, nSamples);
 
-                            while (iterator.hasNext()) {
+                                }
+
+                                if (genotypeStore != null && allSamples) {
+
+                                    genotypeStore.put(variant.id, variant.ref, variant.alt, genotypeColumn);
+
+                                }
+
+                                genotypesConsumer.accept(variant, genotypeColumn);
+
+                            }
+                        }
+                    });
+
+                    if (genotypeStore != null && allSamples) {
+
+                        fileVariantsToFetch.stream()
+                                .filter(variant -> cdpkTargets.containsKey(variant) && !cdpkFound.contains(variant))
+                                .forEach(variant -> genotypeStore.putAbsent(variant.id, variant.ref, variant.alt));
+
+                    }
+                });
+
+        variantsPerFile.forEach((vcfFileName, fileVariants) -> fileVariants.stream()
+                .filter(variant -> !cdpkTargets.containsKey(variant) && !riskFound.contains(variant.id))
+                .findAny()
+                .ifPresent(variant -> {
+                    throw new IllegalArgumentException("Variant " + variant.id + " not found in vcf file " + vcfFileName + ".");
+                }));
 
-                                VariantContext variantContext = iterator.next();
-                                String variantId = variantContext.getID();
+        for (int k = 0; k < cdpkScores.length; k++) {
 
-                                if (variantId.equals(id)) {
+            cdpkAccumulators[k].mergeInto(destination[riskScores.length + k], firstSample);
 
-                                    found = true;
+        }
+
+        int featureOffset = 0;
+
+        for (int k = 0; k < riskScores.length; k++) {
+
+            ScoringFeature[] features = riskScores[k].features;
+            ScoreAccumulator scoreAccumulator = getScoreAccumulator(nSamples, Arrays.stream(features).mapToDouble(feature -> feature.getWeight()));
+            int scoreFeatureOffset = featureOffset;
+
+            IntStream.range(0, features.length)
+                    .parallel()
+                    .filter(i -> isAvailable(features[i].getVariants(), proxiesMap, unavailableIds))
+                    .forEach(i -> {
+
+                        ScoringFeature feature = features[i];
+                        String[] variantIds = feature.getVariants();
+                        GenotypeColumn[] genotypeColumns = new GenotypeColumn[variantIds.length];
+
+                        for (int j = 0; j < variantIds.length; j++) {
+
+                            genotypeColumns[j] = genotypeCache.get(variantIds[j]);
+
+                        }
+
+                        double[] contributions = scoreAccumulator.getContributions();
+                        feature.addScoreContributions(genotypeColumns, contributions);
+
+                        if (contributionWriter != null) {
+
+                            contributionWriter.write(scoreFeatureOffset + i, firstSample, contributions);
+
+                        }
 
-                                    for (int j = 0; j < sampleNames.size(); j++) {
+                        scoreAccumulator.addContributions();
 
-                                        Genotype genotypeType = variantContext.getGenotype(j);
+                    });
 
-                                        alleles[j][i] = genotypeType.getAlleles();
+            scoreAccumulator.mergeInto(destination[k], firstSample);
+
+            featureOffset += features.length;
+
+        }
+    }
+
+    /**
+     * Computes the scores of all samples for every weight set of a weight
+     * matrix in a single pass through the vcf files. The genotypes are decoded
+     * once per variant and multiplied with the weights by blocks of variants.
+     * The names of the variants not found are added to the missing variants.
+     *
+     * @param weightMatrix the weight matrix
+     *
+     * @return the scores indexed by weight set and sample
+     */
+    public double[][] computeScores(WeightMatrix weightMatrix) {
+
+        HashMap<String, HashSet<Variant>> variantsPerFile = new HashMap<>(variantDetailsProvider.vcfFileNames.size());
+        HashMap<String, Variant> variantsMap = new HashMap<>(weightMatrix.getnVariants());
+        HashMap<Variant, ArrayList<Integer>> rowsMap = new HashMap<>(weightMatrix.getnVariants());
+
+        for (int row = 0; row < weightMatrix.getnVariants(); row++) {
+
+            String chr = weightMatrix.chrs[row];
+            int bp = weightMatrix.bps[row];
+            String a = weightMatrix.as[row];
+            String b = weightMatrix.bs[row];
+            String vcfFileName = variantDetailsProvider.getVcfName(chr, bp, a, b);
+
+            if (vcfFileName == null) {
+
+                missingVariants.add(weightMatrix.names[row]);
+
+            } else {
+
+                String key = String.join("_", chr, Integer.toString(bp), a, b);
+                Variant variant = variantsMap.get(key);
+
+                if (variant == null) {
+
+                    variant = new Variant(key, chr, bp, a, b, Double.NaN, false, Double.NaN);
+                    variantsMap.put(key, variant);
+                    rowsMap.put(variant, new ArrayList<>(1));
+                    addVariant(variantsPerFile, vcfFileName, variant);
+
+                }
+
+                rowsMap.get(variant).add(row);
+
+            }
+        }
+
+        BlockedScoreMatrix scoreMatrix = new BlockedScoreMatrix(sampleNames.size(), weightMatrix.weightSetNames.length);
+        Set<Variant> found = ConcurrentHashMap.newKeySet(rowsMap.size());
+
+        variantsPerFile.entrySet().stream()
+                .parallel()
+                .forEach(entry -> {
+
+                    VariantFetcher variantFetcher = new VariantFetcher(entry.getKey(), vcfReaderPool, nPrefetch);
+                    variantFetcher.fetch(entry.getValue(), (variantRecord, positionVariants) -> {
+
+                        for (Variant variant : positionVariants) {
+
+                            boolean match = variantRecord.hasRef(variant.ref)
+                                    && variantRecord.hasAlt(variant.alt);
+
+                            if (match) {
+
+                                found.add(variant);
+
+                                GenotypeColumn genotypeColumn = decode(variantRecord, variant.alt, sampleIndexes, 0, sampleNames.size());
+
+                                for (int row : rowsMap.get(variant)) {
+
+                                    int alleleIndex = genotypeColumn.getAlleleIndex(weightMatrix.effectAlleles[row]);
+
+                                    if (alleleIndex >= 0) {
+
+                                        scoreMatrix.add(genotypeColumn, alleleIndex, weightMatrix.weights[row]);
 
                                     }
                                 }
                             }
                         }
+                    });
+                });
+
+        rowsMap.entrySet().stream()
+                .filter(entry -> !found.contains(entry.getKey()))
+                .flatMap(entry -> entry.getValue().stream())
+                .forEach(row -> missingVariants.add(weightMatrix.names[row]));
+
+        return scoreMatrix.getScores();
+
+    }
+
+    /**
+     * Creates the variants to retrieve for the given CDPK scores, one per
+     * combination of coordinates and alleles found in the variant details, and
+     * adds them to the variants to retrieve per vcf file.
+     *
+     * @param cdpkScores the CDPK scores
+     * @param variantsPerFile the variants to retrieve per vcf file
+     *
+     * @return the features of every score indexed by variant to retrieve
+     */
+    private HashMap<Variant, CdpkFeature[]> getCdpkTargets(CdpkScore[] cdpkScores, HashMap<String, HashSet<Variant>> variantsPerFile) {
+
+        HashMap<String, Variant> variantsMap = new HashMap<>();
+        HashMap<Variant, CdpkFeature[]> result = new HashMap<>();
+
+        for (int k = 0; k < cdpkScores.length; k++) {
+
+            for (Entry<String, HashMap<Integer, HashMap<String, HashMap<String, CdpkFeature>>>> entryChr : cdpkScores[k].featureMap.entrySet()) {
+
+                String chr = entryChr.getKey();
+
+                for (Entry<Integer, HashMap<String, HashMap<String, CdpkFeature>>> entryBp : entryChr.getValue().entrySet()) {
+
+                    int bp = entryBp.getKey();
+
+                    for (Entry<String, HashMap<String, CdpkFeature>> aEntry : entryBp.getValue().entrySet()) {
 
-                        if (!found) {
+                        String a = aEntry.getKey();
 
-                            throw new IllegalArgumentException("Variant " + id + " not found in vcf file " + vcfFileName + ".");
+                        for (Entry<String, CdpkFeature> bEntry : aEntry.getValue().entrySet()) {
+
+                            String b = bEntry.getKey();
+                            String vcfFileName = variantDetailsProvider.getVcfName(chr, bp, a, b);
+
+                            if (vcfFileName != null) {
+
+                                String key = String.join("_", chr, Integer.toString(bp), a, b);
+                                Variant variant = variantsMap.get(key);
+
+                                if (variant == null) {
+
+                                    variant = new Variant(key, chr, bp, a, b, Double.NaN, false, Double.NaN);
+                                    variantsMap.put(key, variant);
+                                    result.put(variant, new CdpkFeature[cdpkScores.length]);
+                                    addVariant(variantsPerFile, vcfFileName, variant);
+
+                                }
 
+                                result.get(variant)[k] = bEntry.getValue();
+
+                            }
                         }
                     }
+                }
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Adds a variant to the variants to retrieve per vcf file.
+     *
+     * @param variantsPerFile the variants to retrieve per vcf file
+     * @param vcfFileName the name of the vcf file where the variant can be found
+     * @param variant the variant
+     */
+    private static void addVariant(HashMap<String, HashSet<Variant>> variantsPerFile, String vcfFileName, Variant variant) {
 
-                    scoreMutex.acquire();
+        HashSet<Variant> fileVariants = variantsPerFile.get(vcfFileName);
 
-                    IntStream.range(0, sampleNames.size())
-                            .parallel()
-                            .forEach(i -> {
-                                scores[i] = scores[i] + feature.getScoreContribution(getAlleles(feature, alleles[i], proxiesMap));
-                            });
+        if (fileVariants == null) {
 
-                    scoreMutex.release();
+            fileVariants = new HashSet<>();
+            variantsPerFile.put(vcfFileName, fileVariants);
+
+        }
+
+        fileVariants.add(variant);
 
-                });
     }
 
     /**
-     * Returns the allele of the original snp for a given sample.
+     * Returns the id of the variant to retrieve for the given variant, the id
+     * of its proxy if any.
      *
-     * @param feature the scoring feature
-     * @param alleles the alleles found for all samples
+     * @param variantId the id of the variant
      * @param proxiesMap the map of proxies
-     * @param i the index of the patient
      *
-     * @return the allele of the original snp for a given sample
+     * @return the id of the variant to retrieve
      */
-    private List<String>[] getAlleles(ScoringFeature feature, List<Allele>[] alleles, HashMap<String, Proxy> proxiesMap) {
+    private static String getUsedId(String variantId, HashMap<String, Proxy> proxiesMap) {
 
-        String[] variants = feature.getVariants();
-        List<String>[] sampleAlleles = new List[variants.length];
+        Proxy proxy = proxiesMap.get(variantId);
 
-        for (int j = 0; j < variants.length; j++) {
+        return proxy == null ? variantId : proxy.proxyId;
 
-            List<Allele> variantAlleles = alleles[j];
+    }
 
-            Proxy proxy = proxiesMap.get(variants[j]);
+    /**
+     * Indicates whether all the given variants or their proxies can be
+     * retrieved from the vcf files provided.
+     *
+     * @param variantIds the ids of the variants
+     * @param proxiesMap the map of proxies
+     * @param unavailableIds the ids of the variants expected in vcf files that
+     * were not provided
+     *
+     * @return a boolean indicating whether all variants can be retrieved
+     */
+    private static boolean isAvailable(String[] variantIds, HashMap<String, Proxy> proxiesMap, HashSet<String> unavailableIds) {
 
-            if (proxy != null) {
+        return unavailableIds.isEmpty()
+                || Arrays.stream(variantIds)
+                        .noneMatch(id -> unavailableIds.contains(getUsedId(id, proxiesMap)));
 
-                sampleAlleles[j] = variantAlleles.stream()
-                        .map(allele -> allele.getBaseString())
-                        .map(allele -> proxy.getProxyAllele(allele))
-                        .collect(Collectors.toList());
+    }
 
-            } else {
+    /**
+     * Retrieves the genotypes of a range of samples for a variant of a risk
+     * score from the genotype store if available, otherwise decodes them from
+     * the vcf file.
+     *
+     * @param variantId the id of the variant
+     * @param samples the indexes of the samples in the vcf file, null to
+     * retrieve a range of samples
+     * @param firstSample the index of the first sample
+     * @param nSamples the number of samples
+     *
+     * @return the genotypes of the variant
+     */
+    private GenotypeColumn loadGenotypes(String variantId, int[] samples, int firstSample, int nSamples) {
+
+        Variant variant = variantDetailsProvider.getVariant(variantId);
+        String vcfFileName = variantDetailsProvider.getVcfName(variantId);
+        GenotypeColumnStore genotypeStore = genotypeStores.get(vcfFileName);
+
+        if (genotypeStore != null && genotypeStore.contains(variantId, variant.ref, variant.alt)) {
+
+            GenotypeColumn genotypeColumn = getStoredGenotypes(genotypeStore, variant, samples, firstSample, nSamples);
+
+            if (genotypeColumn != null) {
 
-                sampleAlleles[j] = variantAlleles.stream()
-                        .map(allele -> allele.getBaseString())
-                        .collect(Collectors.toList());
+                return genotypeColumn;
 
             }
         }
 
-        return sampleAlleles;
+        GenotypeColumn[] result = new GenotypeColumn[1];
+
+        VariantFetcher variantFetcher = new VariantFetcher(vcfFileName, vcfReaderPool);
+        variantFetcher.fetch(Collections.singleton(variant), AccessMode.randomAccess, (variantRecord, positionVariants) -> {
+
+            if (variantRecord.hasId(variantId)) {
+
+                result[0] = decode(variantRecord, variant.alt, samples, firstSample, nSamples);
+
+            }
+        });
+
+        if (result[0] == null) {
+
+            throw new IllegalArgumentException("Variant " + variantId + " not found in vcf file " + vcfFileName + ".");
+
+        }
+
+        return result[0];
+
+    }
+
+    /**
+     * Adds the contributions of a CDPK feature to the given accumulator.
+     *
+     * @param genotypeColumn the genotypes of the variant
+     * @param feature the feature
+     * @param scoreAccumulator the accumulator of the scores
+     */
+    private static void addContributions(GenotypeColumn genotypeColumn, CdpkFeature feature, ScoreAccumulator scoreAccumulator) {
+
+        int alleleIndex = genotypeColumn.getAlleleIndex(feature.effectAllele);
+
+        if (alleleIndex >= 0) {
+
+            genotypeColumn.addDosages(alleleIndex, feature.weight, scoreAccumulator.getContributions());
+            scoreAccumulator.addContributions();
+
+        }
+    }
+
+    /**
+     * Returns an accumulator for the scores of the given number of samples
+     * using the given feature weights.
+     *
+     * @param nSamples the number of samples
+     * @param weights the weights of the features of the score
+     *
+     * @return an accumulator for the scores
+     */
+    private static ScoreAccumulator getScoreAccumulator(int nSamples, DoubleStream weights) {
+
+        DoubleSummaryStatistics weightStatistics = weights
+                .map(weight -> Math.abs(weight))
+                .summaryStatistics();
+
+        return new ScoreAccumulator(nSamples, weightStatistics.getMax(), weightStatistics.getCount());
 
     }
 
@@ -195,96 +1116,204 @@ public class ScoreComputer {
      */
     public void computeRiskScores(CdpkScore riskScore) {
 
-        final HashMap<String, SimpleSemaphore> vcfMutexMap = new HashMap<>(variantDetailsProvider.vcfFileNames.size());
-        variantDetailsProvider.vcfFileNames.forEach(vcfName -> vcfMutexMap.put(vcfName, new SimpleSemaphore(1)));
+        computeRiskScores(riskScore, null, false);
+
+    }
+
+    /**
+     * Computes the risk score for all patients in the given vcf files. The
+     * positions of every chromosome are processed by regions of consecutive
+     * positions, batches of regions of all chromosomes being processed in
+     * parallel, and the progress is saved to the checkpoint file at most
+     * every checkpoint interval when a batch is completed.
+     *
+     * @param riskScore the risk score
+     * @param checkpointFile the file where to save the progress, null to
+     * disable checkpoints
+     * @param resume if true the scores, completed regions and missing
+     * variants are restored from the checkpoint file, if it exists, and the
+     * completed regions are skipped
+     */
+    public void computeRiskScores(CdpkScore riskScore, File checkpointFile, boolean resume) {
 
-        final SimpleSemaphore scoreMutex = new SimpleSemaphore(1);
+        if (streamed) {
 
-        final SimpleSemaphore missingMutex = new SimpleSemaphore(1);
+            throw new IllegalArgumentException("CDPK scores cannot be computed by position on a vcf stream, use computeScores.");
 
-        riskScore.featureMap.entrySet().stream()
-                .parallel()
-                .forEach(entryChr -> {
+        }
 
-                    String chr = entryChr.getKey();
-                    HashMap<Integer, HashMap<String, HashMap<String, CdpkFeature>>> chrMap = entryChr.getValue();
+        long scoreFingerprint = riskScore.getFingerprint();
+        String inputsFingerprint = getInputsFingerprint();
+        HashSet<String> completedRegions = new HashSet<>();
+        ScoreAccumulator scoreAccumulator = getScoreAccumulator(sampleNames.size(), riskScore.getWeights());
 
-                    chrMap.entrySet().stream()
-                            .parallel()
-                            .forEach(entryBp -> {
+        if (resume && checkpointFile != null && checkpointFile.exists()) {
 
-                                int bp = entryBp.getKey();
-                                HashMap<String, HashMap<String, CdpkFeature>> bpMap = entryBp.getValue();
+            ScoreCheckpoint checkpoint = ScoreCheckpoint.read(checkpointFile);
 
-                                bpMap.entrySet().forEach(aEntry -> {
+            if (checkpoint.scoreFingerprint != scoreFingerprint) {
 
-                                    String a = aEntry.getKey();
-                                    HashMap<String, CdpkFeature> aMap = aEntry.getValue();
+                throw new IllegalArgumentException("Checkpoint " + checkpointFile.getAbsolutePath() + " was saved for another score.");
 
-                                    aMap.entrySet().forEach(bEntry -> {
+            }
+
+            if (!checkpoint.inputsFingerprint.equals(inputsFingerprint)) {
 
-                                        String b = bEntry.getKey();
-                                        CdpkFeature feature = bEntry.getValue();
-                                        String vcfFileName = variantDetailsProvider.getVcfName(chr, bp, a, b);
+                throw new IllegalArgumentException("Checkpoint " + checkpointFile.getAbsolutePath() + " was saved for other vcf files or using another decoder.");
+
+            }
 
-                                        if (vcfFileName != null) {
+            if (!checkpoint.sampleNames.equals(sampleNames)) {
 
-                                            VCFFileReader vcfFileReader = vcfFileReaders.get(vcfFileName);
-                                            boolean found = false;
+                throw new IllegalArgumentException("Checkpoint " + checkpointFile.getAbsolutePath() + " was saved for other samples.");
 
-                                            SimpleSemaphore vcfMutex = vcfMutexMap.get(vcfFileName);
-                                            vcfMutex.acquire();
+            }
 
-                                            try (CloseableIterator<VariantContext> iterator = vcfFileReader.query(chr, bp, bp)) {
+            scoreAccumulator.addLevelScores(checkpoint.levelScores);
+            completedRegions.addAll(checkpoint.completedRegions);
+            missingVariants.addAll(checkpoint.missingVariants);
 
-                                                while (iterator.hasNext()) {
+        }
 
-                                                    VariantContext variantContext = iterator.next();
-                                                    String ref = variantContext.getReference().getBaseString();
+        SimpleSemaphore missingMutex = new SimpleSemaphore(1);
+        LinkedHashMap<String, Runnable> regionTasks = new LinkedHashMap<>();
 
-                                                    if (ref.equals(a)) {
+        for (String chr : riskScore.featureMap.keySet().stream().sorted().toArray(String[]::new)) {
 
-                                                        boolean goodAlt = variantContext.getAlternateAlleles().stream()
-                                                                .anyMatch(allele -> allele.getBaseString().equals(b));
+            HashMap<Integer, HashMap<String, HashMap<String, CdpkFeature>>> chrMap = riskScore.featureMap.get(chr);
+            int[] bps = chrMap.keySet().stream()
+                    .mapToInt(bp -> bp)
+                    .sorted()
+                    .toArray();
 
-                                                        if (goodAlt) {
+            for (int regionStart = 0; regionStart < bps.length; regionStart += checkpointRegionSize) {
 
-                                                            found = true;
+                int regionEnd = Math.min(regionStart + checkpointRegionSize, bps.length);
+                String region = chr + ":" + bps[regionStart] + "-" + bps[regionEnd - 1];
 
-                                                            IntStream.range(0, sampleNames.size())
-                                                                    .parallel()
-                                                                    .forEach(i -> {
+                if (!completedRegions.contains(region)) {
 
-                                                                        Genotype genotypeType = variantContext.getGenotype(i);
+                    int[] regionBps = Arrays.copyOfRange(bps, regionStart, regionEnd);
+                    regionTasks.put(region, () -> computeRiskScores(chr, chrMap, regionBps, scoreAccumulator, missingMutex));
 
-                                                                        int n = (int) genotypeType.getAlleles().stream()
-                                                                                .filter(allele -> allele.getBaseString().equals(feature.effectAllele))
-                                                                                .count();
+                }
+            }
+        }
 
-                                                                        scoreMutex.acquire();
-                                                                        scores[i] = scores[i] + (n * feature.weight);
-                                                                        scoreMutex.release();
+        String[] regions = regionTasks.keySet().toArray(new String[regionTasks.size()]);
+        int batchSize = Runtime.getRuntime().availableProcessors();
+        long lastCheckpoint = System.currentTimeMillis();
 
-                                                                    });
-                                                        }
-                                                    }
-                                                }
+        for (int batchStart = 0; batchStart < regions.length; batchStart += batchSize) {
 
-                                                if (!found) {
+            int batchEnd = Math.min(batchStart + batchSize, regions.length);
 
-                                                    missingMutex.acquire();
-                                                    missingVariants.add(feature.name);
-                                                    missingMutex.release();
+            Arrays.stream(regions, batchStart, batchEnd)
+                    .parallel()
+                    .forEach(region -> regionTasks.get(region).run());
+
+            completedRegions.addAll(Arrays.asList(regions).subList(batchStart, batchEnd));
+
+            if (checkpointFile != null && System.currentTimeMillis() - lastCheckpoint >= checkpointInterval) {
+
+                new ScoreCheckpoint(scoreFingerprint, inputsFingerprint, sampleNames, scoreAccumulator.getLevelScores(), completedRegions, missingVariants).write(checkpointFile);
+                lastCheckpoint = System.currentTimeMillis();
+
+            }
+        }
+
+        scoreAccumulator.mergeInto(scores);
+
+    }
+
+    /**
+     * Returns a fingerprint of the inputs of the scores: the decoder and the
+     * names and fingerprints of the vcf files.
+     *
+     * @return a fingerprint of the inputs of the scores
+     */
+    private String getInputsFingerprint() {
+
+        return Stream.concat(
+                Stream.of(vcfReaderPool.decoder.name()),
+                Arrays.stream(vcfFiles)
+                        .map(vcfFile -> vcfFile.getName() + ":" + GenotypeColumnStore.getFingerprint(vcfFile))
+                        .sorted())
+                .collect(Collectors.joining(","));
+
+    }
+
+    /**
+     * Adds the contributions of the given positions of a chromosome to the
+     * given accumulator.
+     *
+     * @param chr the chromosome
+     * @param chrMap the features of the chromosome indexed by position and
+     * alleles
+     * @param bps the positions to process
+     * @param scoreAccumulator the accumulator of the scores
+     * @param missingMutex the mutex to use when adding missing variants
+     */
+    private void computeRiskScores(String chr, HashMap<Integer, HashMap<String, HashMap<String, CdpkFeature>>> chrMap, int[] bps, ScoreAccumulator scoreAccumulator, SimpleSemaphore missingMutex) {
+
+        Arrays.stream(bps)
+                .parallel()
+                .forEach(bp -> {
+
+                    HashMap<String, HashMap<String, CdpkFeature>> bpMap = chrMap.get(bp);
+
+                    bpMap.entrySet().forEach(aEntry -> {
+
+                        String a = aEntry.getKey();
+                        HashMap<String, CdpkFeature> aMap = aEntry.getValue();
+
+                        aMap.entrySet().forEach(bEntry -> {
+
+                            String b = bEntry.getKey();
+                            CdpkFeature feature = bEntry.getValue();
+                            String vcfFileName = variantDetailsProvider.getVcfName(chr, bp, a, b);
+
+                            if (vcfFileName != null) {
+
+                                VariantRecordReader vcfFileReader = vcfReaderPool.acquire(vcfFileName);
+
+                                try {
+
+                                    boolean found = false;
+
+                                    try (CloseableIterator<VariantRecord> iterator = vcfFileReader.query(chr, bp, bp)) {
+
+                                        while (iterator.hasNext()) {
+
+                                            VariantRecord variantRecord = iterator.next();
+
+                                            if (variantRecord.hasRef(a) && variantRecord.hasAlt(b)) {
+
+                                                found = true;
+
+                                                GenotypeColumn genotypeColumn = decode(variantRecord, b, sampleIndexes, 0, sampleNames.size());
+
+                                                addContributions(genotypeColumn, feature, scoreAccumulator);
 
-                                                }
                                             }
+                                        }
+
+                                        if (!found) {
 
-                                            vcfMutex.release();
+                                            missingMutex.acquire();
+                                            missingVariants.add(feature.name);
+                                            missingMutex.release();
 
                                         }
-                                    });
-                                });
-                            });
+                                    }
+                                } finally {
+
+                                    vcfReaderPool.release(vcfFileName, vcfFileReader);
+
+                                }
+                            }
+                        });
+                    });
                 });
     }
 
@@ -293,7 +1322,8 @@ public class ScoreComputer {
      */
     public void close() {
 
-        vcfFileReaders.values().forEach(reader -> reader.close());
+        vcfReaderPool.close();
+        genotypeStores.values().forEach(genotypeStore -> genotypeStore.close());
 
     }
 
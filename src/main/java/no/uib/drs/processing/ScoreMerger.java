@@ -0,0 +1,236 @@
+package no.uib.drs.processing;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
+import no.uib.drs.model.score.PartialScores;
+
+/**
+ * Merges partial scores computed on different vcf files or on different
+ * samples. The result does not depend on the order of the partial scores:
+ * samples are ordered after sorting the partial scores by content, and the
+ * scores of every sample are summed exactly and rounded once.
+ *
+ * @author Marc Vaudel
+ */
+public class ScoreMerger {
+
+    /**
+     * Merges the given partial scores. Partial scores covering the same
+     * samples must be computed on disjoint sets of variants, and all samples
+     * must be covered by the same variants in total.
+     *
+     * @param names the names of the partial scores to use in error messages
+     * @param partialScores the partial scores
+     *
+     * @return the merged scores
+     */
+    public static PartialScores merge(String[] names, PartialScores[] partialScores) {
+
+        if (partialScores.length == 0) {
+
+            throw new IllegalArgumentException("No partial scores to merge.");
+
+        }
+
+        String[] scoreNames = partialScores[0].scoreNames;
+
+        for (int i = 1; i < partialScores.length; i++) {
+
+            if (!Arrays.equals(scoreNames, partialScores[i].scoreNames)) {
+
+                throw new IllegalArgumentException("Scores of " + names[i] + " (" + String.join(", ", partialScores[i].scoreNames) + ") do not match the scores of " + names[0] + " (" + String.join(", ", scoreNames) + ").");
+
+            }
+        }
+
+        int[] order = IntStream.range(0, partialScores.length)
+                .boxed()
+                .sorted(Comparator.comparing(i -> partialScores[i], ScoreMerger::compare))
+                .mapToInt(i -> i)
+                .toArray();
+
+        LinkedHashMap<String, Integer> sampleIndexes = new LinkedHashMap<>();
+
+        for (int i : order) {
+
+            for (String sampleName : partialScores[i].sampleNames) {
+
+                sampleIndexes.putIfAbsent(sampleName, sampleIndexes.size());
+
+            }
+        }
+
+        int nSamples = sampleIndexes.size();
+        BitSet[] coverage = new BitSet[nSamples];
+        BigDecimal[][] sums = new BigDecimal[scoreNames.length][nSamples];
+
+        for (int i = 0; i < partialScores.length; i++) {
+
+            PartialScores shard = partialScores[i];
+
+            for (int j = 0; j < shard.sampleNames.size(); j++) {
+
+                int sampleIndex = sampleIndexes.get(shard.sampleNames.get(j));
+
+                if (coverage[sampleIndex] == null) {
+
+                    coverage[sampleIndex] = new BitSet(partialScores.length);
+
+                }
+
+                if (coverage[sampleIndex].get(i)) {
+
+                    throw new IllegalArgumentException("Sample " + shard.sampleNames.get(j) + " found twice in " + names[i] + ".");
+
+                }
+
+                coverage[sampleIndex].set(i);
+
+                for (int k = 0; k < scoreNames.length; k++) {
+
+                    BigDecimal value = new BigDecimal(shard.scores[k][j]);
+                    BigDecimal sum = sums[k][sampleIndex];
+                    sums[k][sampleIndex] = sum == null ? value : sum.add(value);
+
+                }
+            }
+        }
+
+        HashSet<String> foundVariants = new HashSet<>();
+        Arrays.stream(partialScores).forEach(shard -> foundVariants.addAll(shard.foundVariants));
+
+        HashMap<BitSet, Integer> coverageGroups = new HashMap<>();
+
+        for (int sampleIndex = 0; sampleIndex < nSamples; sampleIndex++) {
+
+            coverageGroups.putIfAbsent(coverage[sampleIndex], sampleIndex);
+
+        }
+
+        ArrayList<String> sampleNames = new ArrayList<>(sampleIndexes.keySet());
+
+        for (Entry<BitSet, Integer> entry : coverageGroups.entrySet()) {
+
+            checkCoverage(entry.getKey(), sampleNames.get(entry.getValue()), names, partialScores, foundVariants.size());
+
+        }
+
+        HashSet<String> missingVariants = new HashSet<>();
+        Arrays.stream(partialScores)
+                .flatMap(shard -> shard.missingVariants.stream())
+                .filter(variant -> !foundVariants.contains(variant))
+                .forEach(variant -> missingVariants.add(variant));
+
+        double[][] scores = new double[scoreNames.length][nSamples];
+
+        for (int k = 0; k < scoreNames.length; k++) {
+
+            for (int sampleIndex = 0; sampleIndex < nSamples; sampleIndex++) {
+
+                scores[k][sampleIndex] = sums[k][sampleIndex].doubleValue();
+
+            }
+        }
+
+        return new PartialScores(sampleNames, scoreNames, scores, foundVariants, missingVariants);
+
+    }
+
+    /**
+     * Checks that the partial scores covering a sample were computed on
+     * disjoint sets of variants and on all the variants found.
+     *
+     * @param shards the indexes of the partial scores covering the sample
+     * @param sampleName the name of the sample
+     * @param names the names of the partial scores
+     * @param partialScores the partial scores
+     * @param nFound the total number of variants found
+     */
+    private static void checkCoverage(BitSet shards, String sampleName, String[] names, PartialScores[] partialScores, int nFound) {
+
+        int nCovered = 0;
+
+        for (int i = shards.nextSetBit(0); i >= 0; i = shards.nextSetBit(i + 1)) {
+
+            HashSet<String> foundVariants = partialScores[i].foundVariants;
+
+            for (int j = shards.nextSetBit(i + 1); j >= 0; j = shards.nextSetBit(j + 1)) {
+
+                String variant = partialScores[j].foundVariants.stream()
+                        .filter(foundVariants::contains)
+                        .findAny()
+                        .orElse(null);
+
+                if (variant != null) {
+
+                    throw new IllegalArgumentException("Variant " + variant + " used for sample " + sampleName + " in both " + names[i] + " and " + names[j] + ".");
+
+                }
+            }
+
+            nCovered += foundVariants.size();
+
+        }
+
+        if (nCovered != nFound) {
+
+            throw new IllegalArgumentException("Sample " + sampleName + " is scored on " + nCovered + " variants while " + nFound + " variants were used in total.");
+
+        }
+    }
+
+    /**
+     * Compares partial scores by sample names and then by variants found.
+     *
+     * @param partialScores1 the first partial scores
+     * @param partialScores2 the second partial scores
+     *
+     * @return the comparison result
+     */
+    private static int compare(PartialScores partialScores1, PartialScores partialScores2) {
+
+        int result = compare(partialScores1.sampleNames.toArray(new String[0]), partialScores2.sampleNames.toArray(new String[0]));
+
+        if (result != 0) {
+
+            return result;
+
+        }
+
+        return compare(partialScores1.foundVariants.stream().sorted().toArray(String[]::new), partialScores2.foundVariants.stream().sorted().toArray(String[]::new));
+
+    }
+
+    /**
+     * Compares two arrays of strings lexicographically.
+     *
+     * @param array1 the first array
+     * @param array2 the second array
+     *
+     * @return the comparison result
+     */
+    private static int compare(String[] array1, String[] array2) {
+
+        for (int i = 0; i < array1.length && i < array2.length; i++) {
+
+            int result = array1[i].compareTo(array2[i]);
+
+            if (result != 0) {
+
+                return result;
+
+            }
+        }
+
+        return Integer.compare(array1.length, array2.length);
+
+    }
+}
@@ -0,0 +1,128 @@
+package no.uib.drs.model.genotypes;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Scoring kernel using the Vector API. Loaded by reflection from the Java 16
+ * section of the multi-release jar, see ScoringKernels.
+ *
+ * @author Marc Vaudel
+ */
+class VectorScoringKernel implements ScoringKernel {
+
+    /**
+     * The species of the score vectors.
+     */
+    private static final VectorSpecies<Double> doubleSpecies = DoubleVector.SPECIES_PREFERRED;
+    /**
+     * The species of the dosage vectors.
+     */
+    private static final VectorSpecies<Byte> byteSpecies = ByteVector.SPECIES_64;
+    /**
+     * The number of score vectors per dosage vector, 0 if score vectors are
+     * longer than dosage vectors.
+     */
+    private static final int nParts = byteSpecies.length() / doubleSpecies.length();
+    /**
+     * The lane masks for every combination of bits of a score vector.
+     */
+    private static final VectorMask<Double>[] laneMasks = getLaneMasks();
+
+    @Override
+    public void addDosages(double weight, byte[] dosages, int length, double[] scores, int offset) {
+
+        DoubleVector weightVector = DoubleVector.broadcast(doubleSpecies, weight);
+
+        int bound = nParts > 0 ? length - length % byteSpecies.length() : 0;
+        int i = 0;
+
+        for (; i < bound; i += byteSpecies.length()) {
+
+            ByteVector dosageVector = ByteVector.fromArray(byteSpecies, dosages, i);
+
+            for (int part = 0; part < nParts; part++) {
+
+                int index = offset + i + part * doubleSpecies.length();
+
+                DoubleVector contribution = ((DoubleVector) dosageVector.castShape(doubleSpecies, part)).mul(weightVector);
+                DoubleVector.fromArray(doubleSpecies, scores, index)
+                        .add(contribution)
+                        .intoArray(scores, index);
+
+            }
+        }
+
+        for (; i < length; i++) {
+
+            scores[offset + i] += weight * dosages[i];
+
+        }
+    }
+
+    @Override
+    public void addMasked(double weight, long[] mask, double[] scores) {
+
+        int nLanes = doubleSpecies.length();
+        int laneBitsMask = (1 << nLanes) - 1;
+        DoubleVector weightVector = DoubleVector.broadcast(doubleSpecies, weight);
+
+        for (int word = 0; word < mask.length; word++) {
+
+            long bits = mask[word];
+            int offset = word << 6;
+
+            if (bits == 0L) {
+                continue;
+            }
+
+            if (offset + 64 > scores.length) {
+
+                while (bits != 0L) {
+
+                    scores[offset + Long.numberOfTrailingZeros(bits)] += weight;
+                    bits &= bits - 1;
+
+                }
+
+                continue;
+
+            }
+
+            for (int j = 0; j < 64; j += nLanes) {
+
+                int laneBits = (int) (bits >>> j) & laneBitsMask;
+
+                if (laneBits != 0) {
+
+                    DoubleVector.fromArray(doubleSpecies, scores, offset + j)
+                            .add(weightVector, laneMasks[laneBits])
+                            .intoArray(scores, offset + j);
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the lane masks for every combination of bits of a score vector.
+     *
+     * @return the lane masks
+     */
+    private static VectorMask<Double>[] getLaneMasks() {
+
+        @SuppressWarnings("unchecked")
+        VectorMask<Double>[] result = (VectorMask<Double>[]) new VectorMask<?>[1 << doubleSpecies.length()];
+
+        for (int bits = 0; bits < result.length; bits++) {
+
+            result[bits] = VectorMask.fromLong(doubleSpecies, bits);
+
+        }
+
+        return result;
+
+    }
+}
@@ -0,0 +1,124 @@
+package no.uib.drs.io.vcf;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import no.uib.drs.model.genotypes.GenotypeColumn;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Compares the genotypes decoded by the GT decoder to the genotypes decoded
+ * from htsjdk records.
+ *
+ * @author Marc Vaudel
+ */
+public class GtVcfRecordTest {
+
+    /**
+     * The alleles of the record, reference first.
+     */
+    private static final Allele[] alleles = {Allele.create("A", true), Allele.create("G"), Allele.create("T")};
+    /**
+     * The GT subfields of the samples, diploid, haploid, polyploid, partially
+     * called, and carrying the other allele.
+     */
+    private static final String[] gts = {"0/0", "0|1", "1/1", "1|0", "0", "1", "0/2", "1|2", "2/2", "./.", "./1", "0/.", ".", "0/1/1", "1/1/1", "0|0|0|0"};
+
+    /**
+     * Records decoded sample by sample.
+     */
+    @Test
+    public void testDecoding() {
+
+        compare(1);
+
+    }
+
+    /**
+     * Wide records decoded in parallel.
+     */
+    @Test
+    public void testParallelDecoding() {
+
+        compare(GtVcfRecord.parallelDecodingLength / 4 / gts.length + 1);
+
+    }
+
+    /**
+     * Compares the genotypes decoded by the two decoders for all samples and
+     * for a subset of samples, on both alternative alleles.
+     *
+     * @param nRepeats the number of times the genotypes are repeated in the
+     * record
+     */
+    private static void compare(int nRepeats) {
+
+        int nSamples = nRepeats * gts.length;
+
+        StringBuilder line = new StringBuilder("1\t100\trs1\tA\tG,T\t.\t.\t.\tGT");
+        ArrayList<Genotype> genotypes = new ArrayList<>(nSamples);
+
+        for (int i = 0; i < nSamples; i++) {
+
+            String gt = gts[i % gts.length];
+            line.append('\t').append(gt);
+
+            List<Allele> sampleAlleles = new ArrayList<>();
+
+            for (String allele : gt.split("[/|]")) {
+
+                sampleAlleles.add(allele.equals(".") ? Allele.NO_CALL : alleles[Integer.parseInt(allele)]);
+
+            }
+
+            genotypes.add(new GenotypeBuilder("S" + i, sampleAlleles).make());
+
+        }
+
+        GtVcfRecord record = new GtVcfRecord(line.toString().getBytes(StandardCharsets.UTF_8), 100, nSamples);
+        VariantContext variantContext = new VariantContextBuilder("test", "1", 100, 100, Arrays.asList(alleles))
+                .genotypes(genotypes)
+                .make();
+
+        int[] samples = new int[nSamples / 3];
+
+        for (int i = 0; i < samples.length; i++) {
+
+            samples[i] = 3 * i + 1;
+
+        }
+
+        for (String alt : new String[]{"G", "T"}) {
+
+            compare(GenotypeColumn.decode(variantContext, alt), record.decode(alt, 0, nSamples));
+            compare(GenotypeColumn.decode(variantContext, alt, samples), record.decode(alt, samples));
+
+        }
+    }
+
+    /**
+     * Compares the allele counts and missing genotypes of two columns.
+     *
+     * @param expected the expected genotypes
+     * @param genotypeColumn the genotypes to compare
+     */
+    private static void compare(GenotypeColumn expected, GenotypeColumn genotypeColumn) {
+
+        assertEquals(expected.nSamples, genotypeColumn.nSamples);
+
+        for (int i = 0; i < expected.nSamples; i++) {
+
+            assertEquals(expected.isMissing(i), genotypeColumn.isMissing(i));
+            assertEquals(expected.getAlleleCount(i, 0), genotypeColumn.getAlleleCount(i, 0));
+            assertEquals(expected.getAlleleCount(i, 1), genotypeColumn.getAlleleCount(i, 1));
+
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package no.uib.drs.model.genotypes;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import no.uib.drs.model.ScoringFeature;
+import no.uib.drs.model.features.AdditiveFeature;
+import no.uib.drs.model.features.HaplotypeFeature;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Compares the scores computed on genotype columns to the scores computed on
+ * the alleles of the records.
+ *
+ * @author Marc Vaudel
+ */
+public class GenotypeColumnTest {
+
+    /**
+     * The reference allele.
+     */
+    private static final Allele ref = Allele.create("A", true);
+    /**
+     * The alternative allele.
+     */
+    private static final Allele alt = Allele.create("G");
+    /**
+     * Another allele of the record.
+     */
+    private static final Allele other = Allele.create("T");
+    /**
+     * The genotypes of the samples, diploid, haploid, polyploid, partially
+     * called, and carrying the other allele.
+     */
+    private static final Allele[][] genotypes = {
+        {ref, ref},
+        {ref, alt},
+        {alt, alt},
+        {ref},
+        {alt},
+        {ref, other},
+        {alt, other},
+        {other, other},
+        {Allele.NO_CALL, Allele.NO_CALL},
+        {Allele.NO_CALL, alt},
+        {ref, Allele.NO_CALL},
+        {ref, alt, alt},
+        {alt, alt, alt},
+        {}
+    };
+
+    /**
+     * Additive features on the reference and alternative alleles.
+     */
+    @Test
+    public void testAdditiveFeatures() {
+
+        VariantContext variantContext = getVariantContext();
+
+        for (String allele : new String[]{"A", "G"}) {
+
+            compare(new AdditiveFeature("rs1", "locus", allele, 0.5), variantContext);
+
+        }
+    }
+
+    /**
+     * Haplotype features on the diploid genotypes of the two alleles.
+     */
+    @Test
+    public void testHaplotypeFeatures() {
+
+        VariantContext variantContext = getVariantContext();
+
+        for (String[] haplotype : new String[][]{{"A", "A"}, {"A", "G"}, {"G", "G"}}) {
+
+            @SuppressWarnings("unchecked")
+            List<String>[] alleles = (List<String>[]) new List<?>[]{Arrays.asList(haplotype)};
+
+            compare(new HaplotypeFeature("locus", new String[]{"rs1"}, alleles, 0.5), variantContext);
+
+        }
+    }
+
+    /**
+     * The number of copies of the first allele is stored only when needed.
+     */
+    @Test
+    public void testFirstCounts() {
+
+        VariantContext variantContext = getVariantContext();
+
+        assertNull(GenotypeColumn.decode(variantContext, "G", new int[]{0, 1, 2, 8}).getFirstCounts());
+        assertNotNull(GenotypeColumn.decode(variantContext, "G", new int[]{0, 1, 2, 3}).getFirstCounts());
+
+    }
+
+    /**
+     * Compares the scores of a feature computed on the genotype column of the
+     * record, on a subset of this column, and on a proxy view of this column
+     * to the scores computed on the alleles of the record.
+     *
+     * @param feature the feature
+     * @param variantContext the record
+     */
+    private static void compare(ScoringFeature feature, VariantContext variantContext) {
+
+        double[] expected = new double[genotypes.length];
+
+        for (int i = 0; i < genotypes.length; i++) {
+
+            @SuppressWarnings("unchecked")
+            List<String>[] sampleAlleles = (List<String>[]) new List<?>[]{variantContext.getGenotype(i).getAlleles().stream()
+                .map(allele -> allele.getBaseString())
+                .collect(Collectors.toList())};
+
+            expected[i] = feature.getScoreContribution(sampleAlleles);
+
+        }
+
+        GenotypeColumn genotypeColumn = GenotypeColumn.decode(variantContext, "G");
+
+        double[] scores = new double[genotypes.length];
+        feature.addScoreContributions(new GenotypeColumn[]{genotypeColumn}, scores);
+
+        assertArrayEquals(expected, scores, 0.0);
+
+        int[] samples = IntStream.range(0, genotypes.length)
+                .map(i -> genotypes.length - 1 - i)
+                .toArray();
+        double[] subsetExpected = Arrays.stream(samples)
+                .mapToDouble(i -> expected[i])
+                .toArray();
+
+        double[] subsetScores = new double[samples.length];
+        feature.addScoreContributions(new GenotypeColumn[]{genotypeColumn.getSubset(samples)}, subsetScores);
+
+        assertArrayEquals(subsetExpected, subsetScores, 0.0);
+
+        double[] decodedSubsetScores = new double[samples.length];
+        feature.addScoreContributions(new GenotypeColumn[]{GenotypeColumn.decode(variantContext, "G", samples)}, decodedSubsetScores);
+
+        assertArrayEquals(subsetExpected, decodedSubsetScores, 0.0);
+
+        double[] viewScores = new double[genotypes.length];
+        feature.addScoreContributions(new GenotypeColumn[]{new GenotypeColumn(genotypeColumn, "A", "G")}, viewScores);
+
+        assertArrayEquals(expected, viewScores, 0.0);
+
+    }
+
+    /**
+     * Returns a record with the genotypes of the samples.
+     *
+     * @return a record with the genotypes of the samples
+     */
+    private static VariantContext getVariantContext() {
+
+        ArrayList<Genotype> sampleGenotypes = new ArrayList<>(genotypes.length);
+
+        for (int i = 0; i < genotypes.length; i++) {
+
+            sampleGenotypes.add(new GenotypeBuilder("S" + i, Arrays.asList(genotypes[i])).make());
+
+        }
+
+        return new VariantContextBuilder("test", "1", 100, 100, Arrays.asList(ref, alt, other))
+                .genotypes(sampleGenotypes)
+                .make();
+
+    }
+}
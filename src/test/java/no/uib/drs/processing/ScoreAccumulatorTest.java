@@ -0,0 +1,126 @@
+package no.uib.drs.processing;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+import no.uib.drs.model.genotypes.GenotypeColumn;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks that the accumulated scores do not depend on the order of the
+ * contributions and on the threads adding them.
+ *
+ * @author Marc Vaudel
+ */
+public class ScoreAccumulatorTest {
+
+    /**
+     * The number of samples.
+     */
+    private static final int nSamples = 100;
+    /**
+     * The number of features.
+     */
+    private static final int nFeatures = 2000;
+
+    /**
+     * Contributions added in different orders, sequentially and in parallel.
+     */
+    @Test
+    public void testOrder() {
+
+        Random random = new Random(42);
+        double[] weights = new double[nFeatures];
+        byte[][] dosages = new byte[nFeatures][nSamples];
+
+        for (int j = 0; j < nFeatures; j++) {
+
+            weights[j] = random.nextGaussian() * Math.pow(10, -random.nextInt(6));
+
+            for (int i = 0; i < nSamples; i++) {
+
+                dosages[j][i] = (byte) random.nextInt(GenotypeColumn.maxAlleleCount + 1);
+
+            }
+        }
+
+        double maxWeight = Arrays.stream(weights).map(weight -> Math.abs(weight)).max().getAsDouble();
+
+        double[] expected = new double[nSamples];
+        ScoreAccumulator scoreAccumulator = new ScoreAccumulator(nSamples, maxWeight, nFeatures);
+
+        for (int j = 0; j < nFeatures; j++) {
+
+            add(scoreAccumulator, weights[j], dosages[j]);
+
+        }
+
+        scoreAccumulator.mergeInto(expected);
+
+        for (int i = 0; i < nSamples; i++) {
+
+            BigDecimal exact = BigDecimal.ZERO;
+
+            for (int j = 0; j < nFeatures; j++) {
+
+                exact = exact.add(new BigDecimal(weights[j] * dosages[j][i]));
+
+            }
+
+            assertEquals(exact.doubleValue(), expected[i], Math.ulp(expected[i]));
+
+        }
+
+        double[] reversed = new double[nSamples];
+        scoreAccumulator = new ScoreAccumulator(nSamples, maxWeight, nFeatures);
+
+        for (int j = nFeatures - 1; j >= 0; j--) {
+
+            add(scoreAccumulator, weights[j], dosages[j]);
+
+        }
+
+        scoreAccumulator.mergeInto(reversed);
+
+        assertArrayEquals(expected, reversed, 0.0);
+
+        for (int repetition = 0; repetition < 4; repetition++) {
+
+            double[] parallel = new double[nSamples];
+            ScoreAccumulator parallelAccumulator = new ScoreAccumulator(nSamples, maxWeight, nFeatures);
+
+            IntStream.range(0, nFeatures)
+                    .parallel()
+                    .forEach(j -> add(parallelAccumulator, weights[j], dosages[j]));
+
+            parallelAccumulator.mergeInto(parallel);
+
+            assertArrayEquals(expected, parallel, 0.0);
+
+        }
+    }
+
+    /**
+     * Adds the contributions of a feature to an accumulator.
+     *
+     * @param scoreAccumulator the accumulator
+     * @param weight the weight of the feature
+     * @param dosages the dosages of the samples
+     */
+    private static void add(ScoreAccumulator scoreAccumulator, double weight, byte[] dosages) {
+
+        double[] contributions = scoreAccumulator.getContributions();
+
+        for (int i = 0; i < nSamples; i++) {
+
+            contributions[i] += weight * dosages[i];
+
+        }
+
+        scoreAccumulator.addContributions();
+
+    }
+}